@@ -0,0 +1,30 @@
+package kaleidoscope;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler always on, so that every result
+ * comes with the number of bytes allocated per operation.
+ */
+public class Benchmarks {
+
+	/**
+	 * @param args
+	 *            Any JMH command line options, e.g. a benchmark name pattern
+	 *            or "-p shapes=16".
+	 * @throws Exception
+	 *             If the options are invalid or a benchmark fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.jvmArgsAppend("-Djava.awt.headless=true")
+				.addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+}
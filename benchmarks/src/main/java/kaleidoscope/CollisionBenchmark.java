@@ -0,0 +1,93 @@
+package kaleidoscope;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures colliding the shapes with a CollisionGrid against testing every
+ * pair. One operation is one step's collisions, without the movement. The
+ * window grows with the number of shapes so that they are always as crowded
+ * as in the real window; the "pairs" counter, divided by the score, is the
+ * number of pairs tested per step.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CollisionBenchmark {
+	// window area per shape, in square pixels
+	private static final int AREA_PER_SHAPE = 80 * 80;
+
+	@Param({ "1000", "10000", "50000" })
+	int shapes;
+
+	ShapeStore store;
+	CollisionGrid grid;
+
+	/**
+	 * Pairs of shapes tested, reported by JMH alongside the score.
+	 */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Pairs {
+		public long pairs;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			pairs = 0;
+		}
+	}
+
+	@Setup
+	public void setUp() {
+		int side = (int) Math.sqrt((double) shapes * AREA_PER_SHAPE);
+		store = Scenes.create(shapes, -1, side, side);
+		// spread the shapes over the whole window, rather than the quarter
+		// that Reset puts them in
+		Random random = new Random(42);
+		for (int i = 0; i < shapes; i++) {
+			store.xPosition[i] = random.nextInt(side - store.figureWidth[i]);
+			store.yPosition[i] = random.nextInt(side - store.figureHeight[i]);
+		}
+		grid = new CollisionGrid();
+	}
+
+	/**
+	 * Tests only the shapes in the same or neighbouring cells.
+	 */
+	@Benchmark
+	public void grid(Pairs counter) {
+		grid.resolve(store);
+		counter.pairs += grid.getPairsTested();
+	}
+
+	/**
+	 * Tests every pair of shapes.
+	 */
+	@Benchmark
+	public void allPairs(Pairs counter) {
+		int n = store.size();
+		for (int a = 0; a < n; a++) {
+			for (int b = a + 1; b < n; b++) {
+				CollisionGrid.collide(store, a, b);
+			}
+		}
+		counter.pairs += (long) n * (n - 1) / 2;
+	}
+}
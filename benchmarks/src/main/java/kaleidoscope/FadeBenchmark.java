@@ -0,0 +1,62 @@
+package kaleidoscope;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures fading a view-sized buffer of packed pixels towards black, as
+ * the TrailBuffer does every frame: with Rasterizer.blend(), which works on
+ * red and blue together, and with a plain loop that works on each channel
+ * on its own with the same arithmetic. One operation is one frame's fade.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FadeBenchmark {
+
+	// share of each channel kept per frame, out of 256
+	@Param({ "230", "128" })
+	int keep;
+
+	int[] pixels;
+
+	@Setup
+	public void setUp() {
+		pixels = new int[Scenes.WIDTH * Scenes.HEIGHT];
+		for (int i = 0; i < pixels.length; i++) {
+			pixels[i] = i * 0x010203 & 0xffffff;
+		}
+	}
+
+	@Benchmark
+	public int[] blend() {
+		Rasterizer.blend(pixels, 0, pixels.length, 0, 256 - keep);
+		return pixels;
+	}
+
+	@Benchmark
+	public int[] perChannel() {
+		for (int i = 0; i < pixels.length; i++) {
+			int p = pixels[i];
+			int red = (p >> 16 & 0xff) * keep >> 8;
+			int green = (p >> 8 & 0xff) * keep >> 8;
+			int blue = (p & 0xff) * keep >> 8;
+			pixels[i] = red << 16 | green << 8 | blue;
+		}
+		return pixels;
+	}
+}
@@ -0,0 +1,68 @@
+package kaleidoscope;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a whole frame end to end: one clock tick stepping the Model and
+ * publishing the frame to the View, then the View painting it. One
+ * operation is one frame.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameBenchmark {
+
+	@Param({ "16", "1000", "10000", "100000" })
+	int shapes;
+
+	@Param({ "java2d", "tiles", "mirror" })
+	String renderer;
+
+	ShapeStore store;
+	View view;
+	BufferedImage image;
+	Graphics2D graphics;
+
+	@Setup
+	public void setUp() {
+		store = Scenes.create(shapes, -1);
+		view = new View(store, Renderers.forName(renderer, store));
+		view.setSize(Scenes.WIDTH, Scenes.HEIGHT);
+		store.addObserver(view);
+		image = new BufferedImage(Scenes.WIDTH, Scenes.HEIGHT,
+				BufferedImage.TYPE_INT_RGB);
+		graphics = image.createGraphics();
+	}
+
+	@TearDown
+	public void tearDown() {
+		store.deleteObserver(view);
+		graphics.dispose();
+	}
+
+	@Benchmark
+	public BufferedImage tickAndPaint() {
+		store.makeOneStep(1);
+		store.publishFrame();
+		view.paint(graphics);
+		return image;
+	}
+}
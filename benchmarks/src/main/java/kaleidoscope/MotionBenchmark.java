@@ -0,0 +1,69 @@
+package kaleidoscope;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures stepping the whole Model with each MotionModel, on the calling
+ * thread alone and split into batches on a ForkJoinPool with one thread per
+ * processor. One operation is one step of every shape; multiply the score by
+ * the number of shapes for shapes stepped per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MotionBenchmark {
+
+	@Param({ "10000", "100000" })
+	int shapes;
+
+	@Param({ "linear", "gravity", "attract", "orbit", "noise" })
+	String motion;
+
+	@Param({ "serial", "parallel" })
+	String stepping;
+
+	ShapeStore store;
+	ForkJoinPool pool;
+
+	@Setup
+	public void setUp() {
+		store = Scenes.create(shapes, -1);
+		store.setMotionModel(MotionModels.forName(motion));
+		if ("parallel".equals(stepping)) {
+			pool = new ForkJoinPool();
+		}
+		store.setStepPool(pool);
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Steps every shape, as a clock tick does.
+	 */
+	@Benchmark
+	public int step() {
+		return store.makeOneStep(1);
+	}
+}
@@ -0,0 +1,71 @@
+package kaleidoscope;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures View.paint drawing a still frame into a BufferedImage, for each
+ * shape type, renderer and number of copies per shape. One operation is one
+ * frame.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PaintBenchmark {
+
+	@Param({ "16", "1000", "10000", "100000" })
+	int shapes;
+
+	@Param({ "circle", "rectangle", "triangle", "diamond" })
+	String type;
+
+	@Param({ "java2d", "tiles", "mirror", "sprites" })
+	String renderer;
+
+	@Param({ "8", "16" })
+	int symmetry;
+
+	View view;
+	BufferedImage image;
+	Graphics2D graphics;
+
+	@Setup
+	public void setUp() {
+		ShapeStore store = Scenes.create(shapes, Scenes.typeOf(type));
+		store.setSymmetry(Symmetry.of(symmetry));
+		store.publishFrame();
+		view = new View(store, Renderers.forName(renderer, store));
+		view.setSize(Scenes.WIDTH, Scenes.HEIGHT);
+		image = new BufferedImage(Scenes.WIDTH, Scenes.HEIGHT,
+				BufferedImage.TYPE_INT_RGB);
+		graphics = image.createGraphics();
+	}
+
+	@TearDown
+	public void tearDown() {
+		graphics.dispose();
+	}
+
+	@Benchmark
+	public BufferedImage paint() {
+		view.paint(graphics);
+		return image;
+	}
+}
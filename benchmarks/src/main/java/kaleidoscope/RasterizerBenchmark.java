@@ -0,0 +1,211 @@
+package kaleidoscope;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures filling one shape into a buffer of packed pixels: with the
+ * Rasterizer, with the same spans worked out the same way but written by a
+ * plain loop one pixel at a time, and with Java2D's fill methods on a
+ * BufferedImage. One operation is one shape, so the first two differ only
+ * in how each span is stored. Below full opacity the shape is blended in:
+ * the Rasterizer's blend() works on two channels per multiply, the plain
+ * loop on one channel at a time, and Java2D through an AlphaComposite.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RasterizerBenchmark {
+	// side of the square buffer drawn into
+	private static final int SIDE = 512;
+	private static final int RGB = 0x3c8ad2;
+
+	@Param({ "circle", "rectangle", "triangle", "diamond" })
+	String type;
+
+	@Param({ "32", "256" })
+	int size;
+
+	// 255 is opaque
+	@Param({ "255", "128" })
+	int alpha;
+
+	byte shape;
+	int x, y;
+	int[] vertexX = new int[4];
+	int[] vertexY = new int[4];
+	int vertices;
+	// alpha as the Rasterizer blends with it, from 0 to 256
+	int opacity;
+
+	Rasterizer rasterizer;
+	int[] pixels;
+
+	BufferedImage image;
+	Graphics2D graphics;
+
+	@Setup
+	public void setUp() {
+		shape = (byte) Scenes.typeOf(type);
+		x = (SIDE - size) / 2;
+		y = (SIDE - size) / 2;
+		// polygons hang from their origin, so it sits at the bottom
+		vertices = ShapeRenderer.outline(shape, false, false, x + size / 2,
+				y + size, size, size, vertexX, vertexY);
+		image = new BufferedImage(SIDE, SIDE, BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		rasterizer = new Rasterizer();
+		rasterizer.setTarget(pixels, SIDE, 0, 0, SIDE, SIDE);
+		rasterizer.setAlpha(alpha);
+		opacity = alpha + (alpha >> 7);
+		graphics = image.createGraphics();
+		graphics.setColor(new Color(RGB));
+		if (alpha < 255) {
+			graphics.setComposite(AlphaComposite.getInstance(
+					AlphaComposite.SRC_OVER, alpha / 255f));
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		graphics.dispose();
+	}
+
+	/**
+	 * The Rasterizer, one span per row.
+	 */
+	@Benchmark
+	public int[] spans() {
+		switch (shape) {
+		case ShapeStore.CIRCLE:
+			rasterizer.fillOval(x, y, size, size, RGB);
+			break;
+		case ShapeStore.RECTANGLE:
+			rasterizer.fillRect(x, y, size, size, RGB);
+			break;
+		default:
+			rasterizer.fillPolygon(vertexX, vertexY, vertices, RGB);
+		}
+		return pixels;
+	}
+
+	/**
+	 * The Rasterizer's spans, with the edges of each row worked out as it
+	 * does, but stored by a loop of single writes instead of Arrays.fill,
+	 * or blended one channel at a time instead of with blend().
+	 */
+	@Benchmark
+	public int[] scalarSpans() {
+		switch (shape) {
+		case ShapeStore.CIRCLE:
+			double r = size / 2.0;
+			double cx = x + r, cy = y + r;
+			for (int row = y + 1; row < y + size; row++) {
+				double dy = (row - cy) / r;
+				double half = r * Math.sqrt(1 - dy * dy);
+				scalarSpan(row, (int) Math.floor(cx - half) + 1,
+						(int) Math.ceil(cx + half));
+			}
+			break;
+		case ShapeStore.RECTANGLE:
+			for (int row = y; row < y + size; row++) {
+				scalarSpan(row, x, x + size);
+			}
+			break;
+		default:
+			scalarPolygon();
+		}
+		return pixels;
+	}
+
+	/**
+	 * Java2D's fills on a BufferedImage.
+	 */
+	@Benchmark
+	public BufferedImage java2d() {
+		switch (shape) {
+		case ShapeStore.CIRCLE:
+			graphics.fillOval(x, y, size, size);
+			break;
+		case ShapeStore.RECTANGLE:
+			graphics.fillRect(x, y, size, size);
+			break;
+		default:
+			graphics.fillPolygon(vertexX, vertexY, vertices);
+		}
+		return image;
+	}
+
+	private void scalarPolygon() {
+		int minY = vertexY[0], maxY = vertexY[0];
+		for (int v = 1; v < vertices; v++) {
+			minY = Math.min(minY, vertexY[v]);
+			maxY = Math.max(maxY, vertexY[v]);
+		}
+		// edges sampled a quarter of a pixel in, as the Rasterizer does
+		int top = Math.max((int) Math.ceil(minY - 0.25), 0);
+		int bottom = Math.min((int) Math.ceil(maxY - 0.25), SIDE);
+		for (int row = top; row < bottom; row++) {
+			double sy = row + 0.25;
+			double left = Double.MAX_VALUE, right = -Double.MAX_VALUE;
+			for (int v = 0; v < vertices; v++) {
+				int x0 = vertexX[v], y0 = vertexY[v];
+				int w = v + 1 == vertices ? 0 : v + 1;
+				int x1 = vertexX[w], y1 = vertexY[w];
+				if (y0 == y1 || sy < Math.min(y0, y1)
+						|| sy >= Math.max(y0, y1)) {
+					continue;
+				}
+				double cross = x0 + (sy - y0) * (x1 - x0) / (y1 - y0);
+				left = Math.min(left, cross);
+				right = Math.max(right, cross);
+			}
+			if (left <= right) {
+				scalarSpan(row, (int) Math.ceil(left - 0.25),
+						(int) Math.ceil(right - 0.25));
+			}
+		}
+	}
+
+	private void scalarSpan(int row, int x0, int x1) {
+		x0 = Math.max(x0, 0);
+		x1 = Math.min(x1, SIDE);
+		int from = row * SIDE + x0, to = row * SIDE + x1;
+		if (opacity == 256) {
+			for (int i = from; i < to; i++) {
+				pixels[i] = RGB;
+			}
+			return;
+		}
+		int keep = 256 - opacity;
+		int red = (RGB >> 16 & 0xff) * opacity;
+		int green = (RGB >> 8 & 0xff) * opacity;
+		int blue = (RGB & 0xff) * opacity;
+		for (int i = from; i < to; i++) {
+			int p = pixels[i];
+			pixels[i] = (red + (p >> 16 & 0xff) * keep) >> 8 << 16
+					| (green + (p >> 8 & 0xff) * keep) >> 8 << 8
+					| (blue + (p & 0xff) * keep) >> 8;
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package kaleidoscope;
+
+/**
+ * Builds the Models that the benchmarks run against.
+ */
+final class Scenes {
+	// size of the window the shapes move in
+	static final int WIDTH = 800;
+	static final int HEIGHT = 700;
+
+	private Scenes() {
+	}
+
+	/**
+	 * Creates a Model of visible, running shapes, placed the way Reset places
+	 * them.
+	 *
+	 * @param shapes
+	 *            The number of shapes.
+	 * @param type
+	 *            The type of every shape, or -1 to cycle through all four.
+	 * @return The populated Model, with its limits set to WIDTH by HEIGHT.
+	 */
+	static ShapeStore create(int shapes, int type) {
+		return create(shapes, type, WIDTH, HEIGHT);
+	}
+
+	/**
+	 * Creates a Model as create(shapes, type) does, in a window of the given
+	 * size.
+	 *
+	 * @param shapes
+	 *            The number of shapes.
+	 * @param type
+	 *            The type of every shape, or -1 to cycle through all four.
+	 * @param width
+	 *            The width of the window the shapes move in.
+	 * @param height
+	 *            The height of the window.
+	 * @return The populated Model, with its limits set to width by height.
+	 */
+	static ShapeStore create(int shapes, int type, int width, int height) {
+		ShapeStore store = new ShapeStore(shapes);
+		store.setLimits(width, height);
+		for (int i = 0; i < shapes; i++) {
+			Shape shape = store.add((byte) (type < 0 ? i
+					% ShapeStore.TYPE_NAMES.length : type), true);
+			shape.clear();
+			shape.setShouldBeDrawn(true);
+			shape.start();
+		}
+		// nothing observes the store, but drop the changes made above
+		store.publishFrame();
+		return store;
+	}
+
+	/**
+	 * @param name
+	 *            One of ShapeStore.TYPE_NAMES, or "mixed".
+	 * @return The matching type ordinal, or -1 for "mixed".
+	 */
+	static int typeOf(String name) {
+		for (int t = 0; t < ShapeStore.TYPE_NAMES.length; t++) {
+			if (ShapeStore.TYPE_NAMES[t].equals(name)) {
+				return t;
+			}
+		}
+		if ("mixed".equals(name)) {
+			return -1;
+		}
+		throw new IllegalArgumentException("unknown shape type: " + name);
+	}
+}
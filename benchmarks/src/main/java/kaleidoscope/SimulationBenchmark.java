@@ -0,0 +1,91 @@
+package kaleidoscope;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures moving the shapes and computing their reflections, without any
+ * drawing. One operation covers every shape in the Model.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SimulationBenchmark {
+
+	@Param({ "16", "1000", "10000", "100000" })
+	int shapes;
+
+	ShapeStore store;
+	Shape[] handles;
+	int[] xs = new int[ShapeStore.REFLECTIONS];
+	int[] ys = new int[ShapeStore.REFLECTIONS];
+
+	@Setup
+	public void setUp() {
+		store = Scenes.create(shapes, -1);
+		handles = new Shape[shapes];
+		for (int i = 0; i < shapes; i++) {
+			handles[i] = store.get(i);
+		}
+	}
+
+	/**
+	 * Steps every shape through its handle, as the per-shape code did.
+	 */
+	@Benchmark
+	public void shapeMakeOneStep() {
+		for (Shape shape : handles) {
+			shape.makeOneStep(1);
+		}
+	}
+
+	/**
+	 * Steps every shape in one pass over the store, as a clock tick does.
+	 */
+	@Benchmark
+	public void storeMakeOneStep() {
+		store.makeOneStep(1);
+	}
+
+	/**
+	 * Calls the individual reflection getters for every shape.
+	 */
+	@Benchmark
+	public void reflectionGetters(Blackhole blackhole) {
+		for (int i = 0; i < shapes; i++) {
+			blackhole.consume(store.getNegX(i));
+			blackhole.consume(store.getNegY(i));
+			blackhole.consume(store.getInvX(i));
+			blackhole.consume(store.getInvY(i));
+			blackhole.consume(store.getNegInvX(i));
+			blackhole.consume(store.getNegInvY(i));
+		}
+	}
+
+	/**
+	 * Computes all eight copies of every shape at once.
+	 */
+	@Benchmark
+	public void reflect(Blackhole blackhole) {
+		for (int i = 0; i < shapes; i++) {
+			store.reflect(i, xs, ys);
+			blackhole.consume(xs);
+			blackhole.consume(ys);
+		}
+	}
+}
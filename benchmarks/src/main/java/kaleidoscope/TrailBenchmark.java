@@ -0,0 +1,71 @@
+package kaleidoscope;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures View.paint stepping the Model and drawing a frame with and
+ * without trails, at decays that leave short and long trails; 0 is trail
+ * mode off. One operation is one step and one frame, so the difference
+ * between the decays is the cost of the trails' length.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TrailBenchmark {
+
+	@Param({ "1000", "10000" })
+	int shapes;
+
+	@Param({ "java2d", "tiles" })
+	String renderer;
+
+	@Param({ "0", "0.5", "0.1", "0.01" })
+	double decay;
+
+	ShapeStore store;
+	View view;
+	BufferedImage image;
+	Graphics2D graphics;
+
+	@Setup
+	public void setUp() {
+		store = Scenes.create(shapes, -1);
+		view = new View(store, Renderers.forName(renderer, store));
+		view.setSize(Scenes.WIDTH, Scenes.HEIGHT);
+		view.setTrails(decay);
+		image = new BufferedImage(Scenes.WIDTH, Scenes.HEIGHT,
+				BufferedImage.TYPE_INT_RGB);
+		graphics = image.createGraphics();
+	}
+
+	@TearDown
+	public void tearDown() {
+		graphics.dispose();
+	}
+
+	@Benchmark
+	public BufferedImage paint() {
+		store.makeOneStep(1);
+		store.publishFrame();
+		view.paint(graphics);
+		return image;
+	}
+}
@@ -0,0 +1,306 @@
+package kaleidoscope;
+
+import java.awt.Canvas;
+import java.awt.Graphics;
+import java.awt.Toolkit;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferStrategy;
+import java.util.Arrays;
+
+/**
+ * An alternative to the Swing View that draws the Model itself, from a
+ * dedicated render thread, instead of waiting for Swing to call paint(). Each
+ * frame is drawn into the back buffer of a BufferStrategy and then shown in
+ * one go, so there is no flicker, and frames are paced to a target frame rate
+ * independently of the simulation clock. Pressing H shows the same timing
+ * overlay as the View, with the frame counts of the render thread added.
+ */
+public class ActiveView extends Canvas implements Runnable {
+	private static final long serialVersionUID = 1L;
+
+	// frame rate used if none is given
+	public static final int DEFAULT_FPS = 60;
+
+	// how long before a frame is due to stop sleeping and start yielding,
+	// since Thread.sleep often oversleeps by a millisecond or more
+	private static final long SPIN_NANOS = 1000000;
+
+	private final ShapeStore store;
+	private final Renderer renderer;
+	private volatile long framePeriod;
+	private Thread thread;
+	private volatile boolean running;
+	// receives the timing of every frame, and is shown by the overlay
+	private volatile FrameStats stats;
+	private volatile boolean hudVisible;
+
+	// measurements, written only by the render thread
+	private volatile long framesRendered;
+	private volatile long droppedFrames;
+	private volatile long lastFrameTime;
+	private volatile long averageFrameTime;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param store
+	 *            The Model whose working is to be displayed.
+	 * @param renderer
+	 *            Draws the Model's shapes.
+	 * @param targetFps
+	 *            The number of frames to draw per second.
+	 */
+	public ActiveView(ShapeStore store, Renderer renderer, int targetFps) {
+		this.store = store;
+		this.renderer = renderer;
+		setTargetFps(targetFps);
+		// all painting is done by the render thread
+		setIgnoreRepaint(true);
+		// H shows and hides the timing overlay, once a click has given the
+		// canvas the keyboard
+		addKeyListener(new KeyAdapter() {
+			@Override
+			public void keyTyped(KeyEvent event) {
+				if (event.getKeyChar() == 'h') {
+					hudVisible = !hudVisible;
+				}
+			}
+		});
+		addMouseListener(new MouseAdapter() {
+			@Override
+			public void mousePressed(MouseEvent event) {
+				requestFocusInWindow();
+			}
+		});
+	}
+
+	/**
+	 * @param stats
+	 *            Receives the timing of every frame from now on, and supplies
+	 *            the figures shown by the overlay; null to stop timing.
+	 */
+	public void setStats(FrameStats stats) {
+		this.stats = stats;
+	}
+
+	/**
+	 * @param hudVisible
+	 *            Whether to draw the timing overlay over the shapes.
+	 */
+	public void setHudVisible(boolean hudVisible) {
+		this.hudVisible = hudVisible;
+	}
+
+	/**
+	 * @return Whether the timing overlay is drawn over the shapes.
+	 */
+	public boolean isHudVisible() {
+		return hudVisible;
+	}
+
+	/**
+	 * @param targetFps
+	 *            The number of frames to draw per second.
+	 */
+	public void setTargetFps(int targetFps) {
+		if (targetFps <= 0) {
+			throw new IllegalArgumentException("frame rate must be positive: "
+					+ targetFps);
+		}
+		framePeriod = 1000000000L / targetFps;
+	}
+
+	/**
+	 * @return The number of frames drawn per second when the renderer keeps
+	 *         up.
+	 */
+	public int getTargetFps() {
+		return (int) (1000000000L / framePeriod);
+	}
+
+	/**
+	 * @return The number of frames drawn so far.
+	 */
+	public long getFramesRendered() {
+		return framesRendered;
+	}
+
+	/**
+	 * @return The number of frames that were skipped because drawing took
+	 *         longer than a frame period.
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames;
+	}
+
+	/**
+	 * @return How long it took to draw and show the latest frame, in
+	 *         nanoseconds.
+	 */
+	public long getLastFrameTime() {
+		return lastFrameTime;
+	}
+
+	/**
+	 * @return A moving average of the time taken to draw and show a frame, in
+	 *         nanoseconds.
+	 */
+	public long getAverageFrameTime() {
+		return averageFrameTime;
+	}
+
+	/**
+	 * @return The frames drawn and dropped, and the latest and average time
+	 *         taken to draw one, on one line.
+	 */
+	public String summarize() {
+		return String.format("%d frames, %d dropped, last %.2f ms, "
+				+ "average %.2f ms", framesRendered, droppedFrames,
+				lastFrameTime / 1e6, averageFrameTime / 1e6);
+	}
+
+	/**
+	 * Starts the render thread once the canvas can be drawn on.
+	 *
+	 * @see java.awt.Canvas#addNotify()
+	 */
+	@Override
+	public void addNotify() {
+		super.addNotify();
+		createBufferStrategy(2);
+		running = true;
+		thread = new Thread(this, "ActiveView");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the render thread before the canvas goes away.
+	 *
+	 * @see java.awt.Component#removeNotify()
+	 */
+	@Override
+	public void removeNotify() {
+		running = false;
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			thread = null;
+		}
+		super.removeNotify();
+	}
+
+	/**
+	 * The render loop: draws a frame, then waits until the next one is due.
+	 * If a frame overruns, the frames it ran into are counted as dropped and
+	 * the schedule restarts from now rather than trying to catch up.
+	 */
+	@Override
+	public void run() {
+		long next = System.nanoTime();
+		while (running) {
+			long frame = store.getFrameCount();
+			long start = System.nanoTime();
+			renderFrame();
+			long end = System.nanoTime();
+			recordFrame(end - start);
+			FrameStats s = stats;
+			if (s != null) {
+				s.recordPaint(frame, start, end - start);
+			}
+
+			long period = framePeriod;
+			next += period;
+			if (end > next) {
+				droppedFrames += (end - next) / period + 1;
+				next = end;
+				continue;
+			}
+			if (!waitUntil(next)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Draws one frame into the back buffer and shows it, redrawing if the
+	 * buffer's contents were lost on the way.
+	 */
+	private void renderFrame() {
+		BufferStrategy strategy = getBufferStrategy();
+		if (strategy == null) {
+			return;
+		}
+		do {
+			do {
+				Graphics g = strategy.getDrawGraphics();
+				try {
+					renderer.paint(g, getWidth(), getHeight());
+					FrameStats s = stats;
+					if (s != null && hudVisible) {
+						paintHud(g, s);
+					}
+				} finally {
+					g.dispose();
+				}
+			} while (strategy.contentsRestored());
+			strategy.show();
+		} while (strategy.contentsLost());
+		// makes sure the frame reaches the screen now on platforms that
+		// buffer graphics commands
+		Toolkit.getDefaultToolkit().sync();
+	}
+
+	/**
+	 * Draws the latency figures and the frame counts over the shapes.
+	 *
+	 * @param g
+	 *            The Graphics on which to paint things.
+	 * @param s
+	 *            The figures to show.
+	 */
+	private void paintHud(Graphics g, FrameStats s) {
+		String[] lines = s.summarize();
+		lines = Arrays.copyOf(lines, lines.length + 1);
+		lines[lines.length - 1] = summarize();
+		View.paintHud(g, lines);
+	}
+
+	private void recordFrame(long frameTime) {
+		lastFrameTime = frameTime;
+		averageFrameTime = framesRendered == 0 ? frameTime
+				: averageFrameTime + (frameTime - averageFrameTime) / 16;
+		framesRendered++;
+	}
+
+	/**
+	 * Sleeps until shortly before the given time, then yields until it
+	 * arrives.
+	 *
+	 * @param deadline
+	 *            The System.nanoTime() at which to return.
+	 * @return false if the thread was interrupted while waiting.
+	 */
+	private boolean waitUntil(long deadline) {
+		try {
+			long remaining = deadline - System.nanoTime();
+			if (remaining > SPIN_NANOS) {
+				long sleep = remaining - SPIN_NANOS;
+				Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+			}
+			while (System.nanoTime() < deadline) {
+				Thread.yield();
+			}
+			return true;
+		} catch (InterruptedException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package kaleidoscope;
+
+/**
+ * Pulls the shapes towards some points in the window and pushes them away
+ * from others. Each point accelerates every shape along the line between
+ * them, by its full strength within a falloff radius of a quarter of the
+ * window and by less the further the shape is beyond it, so shapes swing
+ * through the attractors and round the repulsors instead of settling. The
+ * points are given as fractions of the window, so they stay in place when
+ * the window is resized.
+ */
+public class AttractorMotion implements MotionModel {
+	// fastest a shape can move along either axis, in pixels per step
+	public static final int MAX_SPEED = 16;
+
+	// an attractor in the middle, between two repulsors
+	private static final float[] DEFAULT_X = { 0.5f, 0.25f, 0.75f };
+	private static final float[] DEFAULT_Y = { 0.5f, 0.5f, 0.5f };
+	private static final float[] DEFAULT_STRENGTH = { 2f, -3f, -3f };
+
+	private final float[] pointX;
+	private final float[] pointY;
+	private final float[] strength;
+
+	// the points in pixels, for the window they were last worked out for;
+	// replaced whole when the window changes, never changed, so the batches
+	// can share them across threads
+	private volatile Pixels pixels;
+
+	/**
+	 * Creates a model with an attractor in the middle of the window and a
+	 * repulsor on either side of it.
+	 */
+	public AttractorMotion() {
+		this(DEFAULT_X, DEFAULT_Y, DEFAULT_STRENGTH);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param pointX
+	 *            The x coordinate of each point, as a fraction of the
+	 *            window's width.
+	 * @param pointY
+	 *            The y coordinate of each point, as a fraction of the
+	 *            window's height.
+	 * @param strength
+	 *            The acceleration each point gives the shapes near it, in
+	 *            pixels per step per step: positive to attract, negative to
+	 *            repel.
+	 */
+	public AttractorMotion(float[] pointX, float[] pointY, float[] strength) {
+		if (pointX.length != pointY.length
+				|| pointX.length != strength.length) {
+			throw new IllegalArgumentException("every point needs an x, a y"
+					+ " and a strength");
+		}
+		this.pointX = pointX.clone();
+		this.pointY = pointY.clone();
+		this.strength = strength.clone();
+		pixels = new Pixels(0, 0);
+	}
+
+	@Override
+	public String getName() {
+		return "attract";
+	}
+
+	@Override
+	public int step(ShapeStore store, int from, int to, int speedFactor,
+			long step) {
+		int[] x = store.xPosition, y = store.yPosition;
+		int[] dx = store.xDelta, dy = store.yDelta;
+		int[] w = store.figureWidth, h = store.figureHeight;
+		boolean[] run = store.running;
+		int width = store.width, height = store.height;
+		int points = strength.length;
+		Pixels pixels = this.pixels;
+		if (pixels.width != width || pixels.height != height) {
+			pixels = new Pixels(width, height);
+			this.pixels = pixels;
+		}
+		float[] px = pixels.x, py = pixels.y;
+		float radius = Math.max(1, Math.min(width, height) / 4f);
+		int moved = 0;
+		for (int i = from; i < to; i++) {
+			if (!run[i]) {
+				continue;
+			}
+			float cx = x[i] + w[i] * 0.5f;
+			float cy = y[i] + h[i] * 0.5f;
+			float ax = 0, ay = 0;
+			for (int p = 0; p < points; p++) {
+				float ox = px[p] - cx;
+				float oy = py[p] - cy;
+				float distance = (float) Math.sqrt(ox * ox + oy * oy) + 1;
+				// full strength inside the radius, falling off beyond it
+				float a = strength[p] * radius / Math.max(distance, radius)
+						/ distance;
+				ax += a * ox;
+				ay += a * oy;
+			}
+			dx[i] = LinearMotion.clamp(dx[i] + Math.round(ax * speedFactor),
+					MAX_SPEED);
+			dy[i] = LinearMotion.clamp(dy[i] + Math.round(ay * speedFactor),
+					MAX_SPEED);
+			LinearMotion.move(x, y, dx, dy, i, width - w[i], height - h[i],
+					speedFactor);
+			moved++;
+		}
+		return moved;
+	}
+
+	/**
+	 * The points in pixels, for one size of window.
+	 */
+	private class Pixels {
+		final int width, height;
+		final float[] x = new float[strength.length];
+		final float[] y = new float[strength.length];
+
+		Pixels(int width, int height) {
+			this.width = width;
+			this.height = height;
+			for (int p = 0; p < x.length; p++) {
+				x[p] = pointX[p] * width;
+				y[p] = pointY[p] * height;
+			}
+		}
+	}
+}
@@ -0,0 +1,298 @@
+package kaleidoscope;
+
+import java.util.Arrays;
+
+/**
+ * Makes the visible shapes in a ShapeStore bounce off each other. Testing
+ * every pair of shapes would take time growing with the square of their
+ * number, so the window is divided into square cells at least as big as the
+ * largest shape, and each shape is filed under the cell that holds its
+ * centre. Two shapes can only touch if their cells are the same or
+ * neighbours, so only those pairs are tested, and the work per step grows
+ * with the number of shapes as long as they are spread out.
+ * <p>
+ * The cells are linked lists threaded through arrays indexed by slot, and
+ * each step only moves the slots whose shapes have crossed into another cell
+ * (or been replaced by another shape, when one was removed); the grid is
+ * built from scratch only when the window or the largest shape changes size.
+ * <p>
+ * Touching shapes are tested with their bounding boxes, and two circles
+ * with their inscribed circles. A collision swaps the two shapes' speeds
+ * along the axis on which they overlap least, like equal masses colliding
+ * head on; a shape that is not running does not move and the other bounces
+ * off it as off a wall. Positions are never changed, so shapes that overlap
+ * when they appear drift apart rather than jumping.
+ */
+public class CollisionGrid {
+	// cells are never smaller than this, in pixels, however small the shapes
+	private static final int MIN_CELL_SIZE = 16;
+
+	// the geometry the grid was built for
+	private int cellSize;
+	private int columns, rows;
+	private int width = -1, height = -1;
+
+	// first slot in each cell, or -1
+	private int[] head = new int[0];
+	// the cell each slot is filed under, or -1, and its neighbours in that
+	// cell's list
+	private int[] cellOf = new int[0];
+	private int[] next = new int[0];
+	private int[] previous = new int[0];
+	// slots filed so far; slots beyond this are new to the grid
+	private int tracked;
+
+	// counts from the latest step
+	private long pairsTested;
+	private long collisions;
+
+	/**
+	 * Brings the grid up to date with the store's positions and makes every
+	 * pair of touching shapes bounce. Called by the store after each step.
+	 *
+	 * @param store
+	 *            The shapes to collide.
+	 */
+	public void resolve(ShapeStore store) {
+		update(store);
+		pairsTested = 0;
+		collisions = 0;
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				int cell = row * columns + column;
+				if (head[cell] < 0) {
+					continue;
+				}
+				// pairs within the cell, then with the neighbours to the
+				// right and below, so each pair of cells is visited once
+				for (int a = head[cell]; a >= 0; a = next[a]) {
+					for (int b = next[a]; b >= 0; b = next[b]) {
+						test(store, a, b);
+					}
+				}
+				boolean right = column + 1 < columns;
+				boolean below = row + 1 < rows;
+				if (right) {
+					testCells(store, cell, cell + 1);
+				}
+				if (below) {
+					testCells(store, cell, cell + columns);
+					if (right) {
+						testCells(store, cell, cell + columns + 1);
+					}
+					if (column > 0) {
+						testCells(store, cell, cell + columns - 1);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The number of pairs of shapes tested in the latest step.
+	 */
+	public long getPairsTested() {
+		return pairsTested;
+	}
+
+	/**
+	 * @return The number of collisions in the latest step.
+	 */
+	public long getCollisions() {
+		return collisions;
+	}
+
+	/**
+	 * @return The side of a cell, in pixels.
+	 */
+	public int getCellSize() {
+		return cellSize;
+	}
+
+	private void testCells(ShapeStore store, int cell, int other) {
+		int first = head[other];
+		if (first < 0) {
+			return;
+		}
+		for (int a = head[cell]; a >= 0; a = next[a]) {
+			for (int b = first; b >= 0; b = next[b]) {
+				test(store, a, b);
+			}
+		}
+	}
+
+	private void test(ShapeStore store, int a, int b) {
+		pairsTested++;
+		if (collide(store, a, b)) {
+			collisions++;
+		}
+	}
+
+	/**
+	 * Files every visible shape under the cell that holds its centre, moving
+	 * only those that have changed cell unless the grid has to be rebuilt.
+	 */
+	private void update(ShapeStore store) {
+		int n = store.size;
+		boolean[] visible = store.shouldBeDrawn;
+		int[] w = store.figureWidth, h = store.figureHeight;
+		int largest = 0;
+		for (int i = 0; i < n; i++) {
+			if (visible[i]) {
+				largest = Math.max(largest, Math.max(w[i], h[i]));
+			}
+		}
+		if (cellOf.length < n) {
+			int capacity = store.xPosition.length;
+			cellOf = Arrays.copyOf(cellOf, capacity);
+			next = Arrays.copyOf(next, capacity);
+			previous = Arrays.copyOf(previous, capacity);
+		}
+		// cells may be up to twice as big as they need to be before the grid
+		// is rebuilt with smaller ones
+		int wanted = Math.max(largest, MIN_CELL_SIZE);
+		if (wanted > cellSize || wanted * 2 < cellSize
+				|| store.width != width || store.height != height) {
+			rebuild(store, n, wanted);
+			return;
+		}
+		int[] x = store.xPosition, y = store.yPosition;
+		// a slot may hold a different shape than last time, if one was
+		// removed, so each is checked afresh; slots past the end are emptied
+		for (int i = 0, kept = Math.min(tracked, n); i < kept; i++) {
+			int cell = visible[i] ? cellAt(x[i], y[i], w[i], h[i]) : -1;
+			if (cell != cellOf[i]) {
+				unlink(i);
+				link(i, cell);
+			}
+		}
+		for (int i = n; i < tracked; i++) {
+			unlink(i);
+		}
+		for (int i = tracked; i < n; i++) {
+			cellOf[i] = -1;
+			link(i, visible[i] ? cellAt(x[i], y[i], w[i], h[i]) : -1);
+		}
+		tracked = n;
+	}
+
+	private void rebuild(ShapeStore store, int n, int size) {
+		cellSize = size;
+		width = store.width;
+		height = store.height;
+		columns = Math.max(width, 0) / size + 1;
+		rows = Math.max(height, 0) / size + 1;
+		if (head.length < columns * rows) {
+			head = new int[columns * rows];
+		}
+		Arrays.fill(head, -1);
+		int[] x = store.xPosition, y = store.yPosition;
+		int[] w = store.figureWidth, h = store.figureHeight;
+		boolean[] visible = store.shouldBeDrawn;
+		for (int i = 0; i < n; i++) {
+			cellOf[i] = -1;
+			link(i, visible[i] ? cellAt(x[i], y[i], w[i], h[i]) : -1);
+		}
+		tracked = n;
+	}
+
+	private int cellAt(int x, int y, int w, int h) {
+		int column = (x + w / 2) / cellSize;
+		int row = (y + h / 2) / cellSize;
+		column = Math.max(0, Math.min(column, columns - 1));
+		row = Math.max(0, Math.min(row, rows - 1));
+		return row * columns + column;
+	}
+
+	private void link(int i, int cell) {
+		cellOf[i] = cell;
+		if (cell < 0) {
+			return;
+		}
+		int first = head[cell];
+		next[i] = first;
+		previous[i] = -1;
+		if (first >= 0) {
+			previous[first] = i;
+		}
+		head[cell] = i;
+	}
+
+	private void unlink(int i) {
+		int cell = cellOf[i];
+		if (cell < 0) {
+			return;
+		}
+		if (previous[i] >= 0) {
+			next[previous[i]] = next[i];
+		} else {
+			head[cell] = next[i];
+		}
+		if (next[i] >= 0) {
+			previous[next[i]] = previous[i];
+		}
+		cellOf[i] = -1;
+	}
+
+	/**
+	 * Tests one pair of shapes and makes them bounce if they touch and are
+	 * moving towards each other.
+	 *
+	 * @param store
+	 *            The store holding both shapes.
+	 * @param a
+	 *            The slot of one shape.
+	 * @param b
+	 *            The slot of the other.
+	 * @return true if the shapes touch.
+	 */
+	static boolean collide(ShapeStore store, int a, int b) {
+		int[] x = store.xPosition, y = store.yPosition;
+		int[] w = store.figureWidth, h = store.figureHeight;
+		// twice the distances between the centres, to stay in whole pixels
+		int dx = 2 * x[a] + w[a] - 2 * x[b] - w[b];
+		int dy = 2 * y[a] + h[a] - 2 * y[b] - h[b];
+		int overlapX = w[a] + w[b] - Math.abs(dx);
+		int overlapY = h[a] + h[b] - Math.abs(dy);
+		if (overlapX <= 0 || overlapY <= 0) {
+			return false;
+		}
+		if (store.type[a] == ShapeStore.CIRCLE
+				&& store.type[b] == ShapeStore.CIRCLE) {
+			// the circles' diameters are the means of their widths and
+			// heights, so twice the sum of their radii is their sum
+			long reach = (w[a] + h[a] + w[b] + h[b]) / 2;
+			if ((long) dx * dx + (long) dy * dy >= reach * reach) {
+				return false;
+			}
+		}
+		if (overlapX < overlapY) {
+			bounce(store, store.xDelta, a, b, dx);
+		} else {
+			bounce(store, store.yDelta, a, b, dy);
+		}
+		return true;
+	}
+
+	private static void bounce(ShapeStore store, int[] delta, int a, int b,
+			int distance) {
+		// moving towards each other if a's speed relative to b points from
+		// a towards b; a shape that is not running stands still
+		boolean runningA = store.running[a];
+		boolean runningB = store.running[b];
+		int speedA = runningA ? delta[a] : 0;
+		int speedB = runningB ? delta[b] : 0;
+		if ((long) (speedA - speedB) * distance >= 0) {
+			return;
+		}
+		if (runningA && runningB) {
+			int swap = delta[a];
+			delta[a] = delta[b];
+			delta[b] = swap;
+		} else if (runningA) {
+			delta[a] = -delta[a];
+		} else if (runningB) {
+			delta[b] = -delta[b];
+		}
+	}
+}
@@ -6,17 +6,25 @@
 package kaleidoscope;
 
 import java.awt.BorderLayout;
+import java.awt.Component;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
-import java.util.ArrayList;
-import java.util.Timer;
+import java.io.File;
+import java.io.IOException;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.swing.JButton;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 
 /**
  * The Controller sets up the GUI and handles all the controls (buttons, menu
@@ -37,83 +45,296 @@ public class Controller extends JFrame {
 	JButton removeShapeButton = new JButton("Remove Shape");
 	JButton resetButton = new JButton("Reset");
 	JButton clearButton = new JButton("Clear");
-	Timer timer;
+	JButton exportButton = new JButton("Export");
+	JButton collideButton = new JButton("Collide");
+	JButton symmetryButton = new JButton();
+	JButton motionButton = new JButton();
+	JButton posterButton = new JButton("Poster");
+	JLabel qualityLabel = new JLabel("", SwingConstants.CENTER);
+
+	// one clock steps every running shape
+	SimulationClock clock;
 
 	View view;
 
-	Shape circle1, circle2, rectangle1, rectangle2, triangle1, triangle2,
-			diamond1, diamond2, circle3, circle4, rectangle3, rectangle4,
-			triangle3, triangle4, diamond3, diamond4;
+	// draws from its own render thread instead of the Swing View when the
+	// program is started with -active
+	ActiveView activeView;
+	int activeFps;
+
+	// which Renderer draws the shapes, chosen with -renderer
+	String rendererName = Renderers.DEFAULT;
+	Renderer renderer;
+
+	// timing of every tick and paint, shown by the View's overlay (press H)
+	// and, with -csv, written to a file
+	FrameStats stats;
+	File csvFile;
+
+	// repaint only where the shapes moved, set with -dirty; the Swing View
+	// only
+	boolean dirtyRegions;
 
-	// stores list of shapes so we can perform actions on them in batches or
-	// select individual ones
-	ArrayList<Shape> shapeList;
+	// how fast the trails left behind the shapes fade, set with -trails; 0
+	// for no trails; the Swing View only, where T turns them on and off
+	double trailDecay;
+
+	// where the Export button writes frames, set with -export, and the
+	// export in progress, if any
+	File exportPath = new File(FrameEncoders.DEFAULT_PATH);
+	FrameExporter exporter;
+
+	// holds every shape on screen; Add Shape and Remove Shape add shapes to
+	// it and remove them
+	ShapeStore store;
 
 	// set min and max multipliers for speedFactor
 	public final int MAX_SPEED = 10;
 	public final int MIN_SPEED = 1;
-	
-	// variable for keeping track of how many drawings should appear on screen
-	// at once
-	public int numberOfDrawings = 1;
+
+	// how many shapes Run and Reset start with, set with -shapes
+	int initialShapes = 1;
+
+	// streams every frame to remote viewers when started with -serve, on
+	// serverPort
+	StateServer server;
+	int serverPort;
+
+	// records every frame to a session file, set with -record
+	File recordFile;
+	SessionRecorder recorder;
+
+	// how many copies of each shape are drawn, set with -symmetry and
+	// changed with the Symmetry button
+	Symmetry symmetry = Symmetry.EIGHT_FOLD;
+
+	// how opaque the shapes are drawn, set with -opacity
+	int opacity = 255;
+
+	// which MotionModel moves the shapes, set with -motion and changed with
+	// the Motion button
+	String motionName = MotionModels.DEFAULT;
+
+	// lowers the quality the shapes are drawn at to hold governorFps frames
+	// per second, when started with -govern; shown under the buttons
+	int governorFps;
+	QualityGovernor governor;
+
+	// where the Poster button writes the shapes as they are, set with
+	// -poster, and the size of the poster's longer side
+	File posterPath = new File(PosterRenderer.DEFAULT_PATH);
+	int posterSize = PosterRenderer.DEFAULT_SIZE;
 
 	/**
 	 * Runs the kaleidoscope program.
 	 * 
 	 * @param args
-	 *            Ignored.
+	 *            "-active [fps]" draws with a dedicated render thread at the
+	 *            given frame rate (60 if omitted) instead of through Swing
+	 *            repaints; "-renderer name" picks one of Renderers.NAMES to
+	 *            draw the shapes; "-csv file" writes the timing of every tick
+	 *            and paint to a CSV file; "-export path" is where the Export
+	 *            button writes frames (an animated GIF if the path ends in
+	 *            ".gif", otherwise a directory of PNG files); "-shapes n"
+	 *            starts with n shapes instead of one; "-dirty" repaints only
+	 *            the parts of the Swing view where shapes moved; "-trails
+	 *            [decay]" leaves trails behind the shapes that lose the given
+	 *            share of their brightness every frame
+	 *            (TrailBuffer.DEFAULT_DECAY if omitted); "-symmetry n" draws
+	 *            n copies of each shape instead of eight; "-opacity n"
+	 *            draws the shapes n/255 opaque, so that those under each
+	 *            one show through it; "-motion name" moves the shapes with
+	 *            one of MotionModels.NAMES;
+	 *            "-govern [fps]" draws with less detail whenever that is
+	 *            needed to hold the given frame rate
+	 *            (QualityGovernor.DEFAULT_TARGET_FPS if omitted); "-poster
+	 *            file [size]" is where the Poster button writes a picture of
+	 *            the shapes whose longer side is size pixels
+	 *            (PosterRenderer.DEFAULT_SIZE if omitted); "-serve
+	 *            [port]" streams every frame to StateClients on the given
+	 *            port (StateServer.DEFAULT_PORT if omitted); "-record
+	 *            file" records every frame for SessionPlayer to play back;
+	 *            anything else is ignored.
+	 * @throws IOException
+	 *             If the CSV or session file cannot be created, or the server
+	 *             cannot be opened.
 	 */
-	public static void main(String[] args) {
+	public static void main(String[] args) throws IOException {
 		Controller c = new Controller();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-active")) {
+				c.activeFps = ActiveView.DEFAULT_FPS;
+				if (i + 1 < args.length && args[i + 1].matches("\\d+")) {
+					c.activeFps = Integer.parseInt(args[++i]);
+				}
+			} else if (args[i].equals("-renderer") && i + 1 < args.length) {
+				c.rendererName = args[++i];
+			} else if (args[i].equals("-csv") && i + 1 < args.length) {
+				c.csvFile = new File(args[++i]);
+			} else if (args[i].equals("-export") && i + 1 < args.length) {
+				c.exportPath = new File(args[++i]);
+			} else if (args[i].equals("-shapes") && i + 1 < args.length) {
+				c.initialShapes = Math.max(1, Integer.parseInt(args[++i]));
+			} else if (args[i].equals("-dirty")) {
+				c.dirtyRegions = true;
+			} else if (args[i].equals("-trails")) {
+				c.trailDecay = TrailBuffer.DEFAULT_DECAY;
+				if (i + 1 < args.length && args[i + 1].matches("[\\d.]+")) {
+					c.trailDecay = Double.parseDouble(args[++i]);
+				}
+			} else if (args[i].equals("-symmetry") && i + 1 < args.length) {
+				c.symmetry = Symmetry.of(Integer.parseInt(args[++i]));
+			} else if (args[i].equals("-opacity") && i + 1 < args.length) {
+				c.opacity = Math.max(0,
+						Math.min(Integer.parseInt(args[++i]), 255));
+			} else if (args[i].equals("-motion") && i + 1 < args.length) {
+				c.motionName = args[++i];
+			} else if (args[i].equals("-govern")) {
+				c.governorFps = QualityGovernor.DEFAULT_TARGET_FPS;
+				if (i + 1 < args.length && args[i + 1].matches("\\d+")) {
+					c.governorFps = Integer.parseInt(args[++i]);
+				}
+			} else if (args[i].equals("-poster") && i + 1 < args.length) {
+				c.posterPath = new File(args[++i]);
+				if (i + 1 < args.length && args[i + 1].matches("\\d+")) {
+					c.posterSize = Math.max(1, Integer.parseInt(args[++i]));
+				}
+			} else if (args[i].equals("-record") && i + 1 < args.length) {
+				c.recordFile = new File(args[++i]);
+			} else if (args[i].equals("-serve")) {
+				c.serverPort = StateServer.DEFAULT_PORT;
+				if (i + 1 < args.length && args[i + 1].matches("\\d+")) {
+					c.serverPort = Integer.parseInt(args[++i]);
+				}
+			}
+		}
 		c.init();
 		c.display();
 	}
 
 	/**
-	 * Sets up communication between the components, initializes shapes, adds
-	 * shapes to array.
+	 * Sets up communication between the components and adds the first shapes.
+	 * 
+	 * @throws IOException
+	 *             If the CSV or session file cannot be created, or the server
+	 *             cannot be opened.
+	 */
+	private void init() throws IOException {
+		store = new ShapeStore(initialShapes);
+		store.addShapes(initialShapes, true);
+		store.setSymmetry(symmetry);
+		store.setOpacity(opacity);
+		store.setMotionModel(MotionModels.forName(motionName));
+
+		// The view needs to know what model to look at
+		renderer = Renderers.forName(rendererName, store);
+		if (activeFps > 0) {
+			activeView = new ActiveView(store, renderer, activeFps);
+		} else {
+			view = new View(store, renderer);
+			view.setDirtyRegions(dirtyRegions);
+			if (trailDecay > 0) {
+				view.setTrails(trailDecay);
+			}
+			store.addObserver(view);
+		}
+		if (serverPort > 0) {
+			server = new StateServer(store, serverPort);
+			store.addObserver(server);
+			server.start();
+		}
+		if (recordFile != null) {
+			recorder = new SessionRecorder(recordFile);
+			store.addObserver(recorder);
+			// finishes the session file when the program exits
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					try {
+						recorder.close();
+					} catch (IOException e) {
+						System.err.println("could not write " + recordFile
+								+ ": " + e.getMessage());
+					}
+				}
+			});
+		}
+		clock = new SimulationClock(store);
+		stats = new FrameStats();
+		clock.setStats(stats);
+		if (view != null) {
+			view.setStats(stats);
+		} else {
+			activeView.setStats(stats);
+			// the render thread's counts are not shown anywhere unless the
+			// overlay is, so they are printed when the program exits
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					System.out.println(activeView.summarize());
+					for (String line : stats.summarize()) {
+						System.out.println(line);
+					}
+				}
+			});
+		}
+		if (governorFps > 0) {
+			governor = new QualityGovernor(governorFps, renderer);
+			stats.setGovernor(governor);
+			governor.addObserver(new Observer() {
+				@Override
+				public void update(Observable obs, Object arg) {
+					setQuality((Quality) arg);
+				}
+			});
+		}
+		if (csvFile != null) {
+			final FrameRecordWriter writer = new FrameRecordWriter(csvFile);
+			stats.setWriter(writer);
+			// writes out whatever is still queued when the program exits
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					try {
+						writer.close();
+					} catch (IOException e) {
+						System.err.println("could not write " + csvFile + ": "
+								+ e.getMessage());
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Draws the shapes at a new quality level, and shows the level under the
+	 * buttons.
+	 *
+	 * @param quality
+	 *            The level to draw at.
+	 */
+	private void setQuality(final Quality quality) {
+		if (view != null) {
+			view.setQuality(quality);
+		} else {
+			renderer.setQuality(quality);
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				qualityLabel.setText("Quality: " + quality);
+			}
+		});
+	}
+
+	/**
+	 * Sets every shape moving.
 	 */
-	private void init() {
-		shapeList = new ArrayList<Shape>();
-		circle1 = new Shape("circle", true);
-		circle2 = new Shape("circle", false);
-		rectangle1 = new Shape("rectangle", false);
-		rectangle2 = new Shape("rectangle", false);
-		triangle1 = new Shape("triangle", false);
-		triangle2 = new Shape("triangle", false);
-		diamond1 = new Shape("diamond", false);
-		diamond2 = new Shape("diamond", false);
-		circle3 = new Shape("circle", false);
-		circle4 = new Shape("circle", false);
-		rectangle3 = new Shape("rectangle", false);
-		rectangle4 = new Shape("rectangle", false);
-		triangle3 = new Shape("triangle", false);
-		triangle4 = new Shape("triangle", false);
-		diamond3 = new Shape("diamond", false);
-		diamond4 = new Shape("diamond", false);
-		shapeList.add(circle1);
-		shapeList.add(rectangle1);
-		shapeList.add(triangle1);
-		shapeList.add(diamond1);
-		shapeList.add(circle2);
-		shapeList.add(rectangle2);
-		shapeList.add(triangle2);
-		shapeList.add(diamond2);
-		shapeList.add(circle3);
-		shapeList.add(rectangle3);
-		shapeList.add(triangle3);
-		shapeList.add(diamond3);
-		shapeList.add(circle4);
-		shapeList.add(rectangle4);
-		shapeList.add(triangle4);
-		shapeList.add(diamond4);
-
-		view = new View(shapeList); // The view needs to know what model to look
-									// at
-		// loops through and adds observer and changes colors of each Shape
-		for (Shape shape : shapeList) {
-			shape.addObserver(view);
-			shape.changeColors();
+	private void startShapes() {
+		synchronized (store) {
+			for (int i = 0; i < store.size(); i++) {
+				store.running[i] = true;
+			}
 		}
 	}
 
@@ -135,7 +356,7 @@ public class Controller extends JFrame {
 
 		setLayout(new BorderLayout());
 		JPanel buttonPanel = new JPanel();
-		buttonPanel.setLayout(new GridLayout(3, 3));
+		buttonPanel.setLayout(new GridLayout(5, 3));
 
 		buttonPanel.add(runButton);
 		buttonPanel.add(stopButton);
@@ -149,6 +370,17 @@ public class Controller extends JFrame {
 		buttonPanel.add(removeShapeButton);
 		buttonPanel.add(clearButton);
 
+		buttonPanel.add(exportButton);
+		buttonPanel.add(collideButton);
+		buttonPanel.add(symmetryButton);
+		symmetryButton.setText(symmetry.toString());
+
+		buttonPanel.add(motionButton);
+		motionButton.setText("Motion: " + motionName);
+		buttonPanel.add(qualityLabel);
+		qualityLabel.setText("Quality: " + Quality.FULL);
+		buttonPanel.add(posterButton);
+
 		stopButton.setEnabled(false);
 		resetButton.setEnabled(false);
 		clearButton.setEnabled(false);
@@ -160,11 +392,12 @@ public class Controller extends JFrame {
 
 		this.add(BorderLayout.SOUTH, buttonPanel);
 
-		this.add(BorderLayout.CENTER, view);
+		this.add(BorderLayout.CENTER, getDisplay());
 	}
 
 	/**
-	 * Attaches listeners to the components, and schedules a Timer.
+	 * Attaches listeners to the components; the Run button starts the shared
+	 * SimulationClock.
 	 */
 	private void attachListenersToComponents() {
 
@@ -179,11 +412,14 @@ public class Controller extends JFrame {
 				fasterButton.setEnabled(true);
 				changeColorsButton.setEnabled(true);
 				addShapeButton.setEnabled(true);
-				shapeList.get(0).shouldBeDrawn = true;
-				for (Shape shape : shapeList) {
-					shape.start();
+				synchronized (store) {
+					if (store.size() == 0) {
+						store.addShapes(initialShapes, true);
+					}
+					startShapes();
 				}
-
+				removeShapeButton.setEnabled(store.size() > 1);
+				clock.start();
 			}
 		});
 
@@ -198,9 +434,7 @@ public class Controller extends JFrame {
 				changeColorsButton.setEnabled(false);
 				removeShapeButton.setEnabled(false);
 				addShapeButton.setEnabled(false);
-				for (Shape shape : shapeList) {
-					shape.pause();
-				}
+				clock.pause();
 			}
 		});
 
@@ -209,14 +443,11 @@ public class Controller extends JFrame {
 		fasterButton.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent event) {
-				for (Shape shape : shapeList) {
-					shape.speedUp();
-				}
-				// speedFactor is the same for all shapes, so compare the speed
-				// of the first object
-				// drawn to the maximum speed to determine when to disable the
+				clock.speedUp();
+				// the clock applies one speedFactor to all shapes, so compare
+				// it to the maximum speed to determine when to disable the
 				// button
-				if (circle1.speedFactor == MAX_SPEED) {
+				if (clock.getSpeedFactor() == MAX_SPEED) {
 					fasterButton.setEnabled(false);
 				}
 				slowerButton.setEnabled(true);
@@ -229,10 +460,8 @@ public class Controller extends JFrame {
 		slowerButton.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent event) {
-				for (Shape shape : shapeList) {
-					shape.slowDown();
-				}
-				if (circle1.speedFactor == MIN_SPEED) {
+				clock.slowDown();
+				if (clock.getSpeedFactor() == MIN_SPEED) {
 					slowerButton.setEnabled(false);
 				}
 				fasterButton.setEnabled(true);
@@ -245,40 +474,42 @@ public class Controller extends JFrame {
 		changeColorsButton.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent event) {
-				for (Shape shape : shapeList) {
-					shape.changeColors();
+				for (int i = 0; i < store.size(); i++) {
+					store.changeColors(i);
 				}
+				clock.publishChanges();
 			}
 		});
 
-		// The Add Shape button tells the Model to draw a new object as long as
-		// the number of shapes is less than the maximum number allowed. Every
-		// time
-		// a shape is added, so are its reflections.
+		// The Add Shape button tells the Model to add a new object, the next
+		// type in turn. Every time a shape is added, so are its reflections.
 		addShapeButton.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent event) {
-				numberOfDrawings++;
-				if (numberOfDrawings == shapeList.size()) {
-					addShapeButton.setEnabled(false);
+				synchronized (store) {
+					Shape shape = store.add((byte) (store.size()
+							% ShapeStore.TYPE_NAMES.length), true);
+					shape.changeColors();
+					shape.start();
 				}
-				shapeList.get(numberOfDrawings - 1).shouldBeDrawn = true;
+				clock.publishChanges();
 				removeShapeButton.setEnabled(true);
 			}
 		});
 
-		// The Remove Shape button tells the Model to remove an object and its
-		// reflections
-		// as long as the number of shapes is two or greater.
+		// The Remove Shape button tells the Model to remove the newest object
+		// and its reflections as long as the number of shapes is two or
+		// greater.
 		removeShapeButton.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent event) {
-				numberOfDrawings--;
-				if (numberOfDrawings == 1) {
+				synchronized (store) {
+					store.remove(store.size() - 1);
+				}
+				if (store.size() == 1) {
 					removeShapeButton.setEnabled(false);
 				}
-				shapeList.get(numberOfDrawings - 1).shouldBeDrawn = false;
-				addShapeButton.setEnabled(true);
+				clock.publishChanges();
 			}
 		});
 
@@ -288,14 +519,15 @@ public class Controller extends JFrame {
 		resetButton.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent event) {
-				for (Shape shape : shapeList) {
-					shape.clear();
-				}
-				shapeList.get(0).shouldBeDrawn = true;
-				for (Shape shape : shapeList) {
-					shape.start();
+				// the clock keeps running, so it must not step the store
+				// while it is empty or half filled
+				synchronized (store) {
+					store.removeAll();
+					store.addShapes(initialShapes, true);
+					startShapes();
 				}
-				numberOfDrawings = 1;
+				clock.setSpeedFactor(MIN_SPEED);
+				clock.start();
 
 				runButton.setEnabled(false);
 				stopButton.setEnabled(true);
@@ -305,7 +537,7 @@ public class Controller extends JFrame {
 				slowerButton.setEnabled(false);
 				changeColorsButton.setEnabled(true);
 				addShapeButton.setEnabled(true);
-				removeShapeButton.setEnabled(false);
+				removeShapeButton.setEnabled(store.size() > 1);
 			}
 		});
 
@@ -316,10 +548,10 @@ public class Controller extends JFrame {
 		clearButton.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent event) {
-				for (Shape shape : shapeList) {
-					shape.clear();
-				}
-				numberOfDrawings = 1;
+				store.removeAll();
+				clock.pause();
+				clock.setSpeedFactor(MIN_SPEED);
+				clock.publishChanges();
 
 				runButton.setEnabled(true);
 				stopButton.setEnabled(false);
@@ -333,15 +565,191 @@ public class Controller extends JFrame {
 			}
 		});
 
+		// The Collide button makes the shapes bounce off each other, and
+		// pressing it again lets them pass through each other as before.
+		collideButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent event) {
+				if (store.getCollisions() == null) {
+					store.setCollisions(new CollisionGrid());
+					collideButton.setText("Pass Through");
+				} else {
+					store.setCollisions(null);
+					collideButton.setText("Collide");
+				}
+			}
+		});
+
+		// The Symmetry button draws the next number of copies of each shape
+		// in Symmetry.ORDERS, going back to the first after the last.
+		symmetryButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent event) {
+				int[] orders = Symmetry.ORDERS;
+				int next = orders[0];
+				for (int i = 0; i < orders.length - 1; i++) {
+					if (orders[i] <= symmetry.getOrder()
+							&& orders[i + 1] > symmetry.getOrder()) {
+						next = orders[i + 1];
+					}
+				}
+				symmetry = Symmetry.of(next);
+				symmetryButton.setText(symmetry.toString());
+				store.setSymmetry(symmetry);
+				clock.publishChanges();
+			}
+		});
+
+		// The Motion button moves the shapes with the next model in
+		// MotionModels.NAMES, going back to the first after the last.
+		motionButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent event) {
+				String[] names = MotionModels.NAMES;
+				String next = names[0];
+				for (int i = 0; i < names.length - 1; i++) {
+					if (names[i].equals(motionName)) {
+						next = names[i + 1];
+					}
+				}
+				motionName = next;
+				motionButton.setText("Motion: " + motionName);
+				store.setMotionModel(MotionModels.forName(motionName));
+			}
+		});
+
+		// The Export button starts capturing every frame into the export
+		// path, and pressing it again finishes the export and reports how
+		// fast the frames were encoded.
+		exportButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent event) {
+				if (exporter == null) {
+					startExport();
+				} else {
+					finishExport();
+				}
+			}
+		});
+
+		// The Poster button draws the shapes as they are into the poster
+		// path, in the background, and reports how it went.
+		posterButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent event) {
+				startPoster();
+			}
+		});
+
 		// When the window is resized, the Model is given the new limits
 		this.addComponentListener(new ComponentAdapter() {
 			@Override
 			public void componentResized(ComponentEvent arg0) {
-				for (Shape shape : shapeList) {
-					shape.setLimits(view.getWidth(), view.getHeight());
-				}
+				Component display = getDisplay();
+				store.setLimits(display.getWidth(), display.getHeight());
+				clock.publishChanges();
 			}
 		});
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Starts exporting every published frame, at the current size of the
+	 * display. Frames are dropped rather than slowing the animation if the
+	 * encoder cannot keep up.
+	 */
+	private void startExport() {
+		Component display = getDisplay();
+		try {
+			FrameEncoder encoder = FrameEncoders.forPath(exportPath,
+					clock.getPeriod());
+			exporter = new FrameExporter(store, encoder, Math.max(1,
+					display.getWidth()), Math.max(1, display.getHeight()),
+					false);
+		} catch (IOException e) {
+			JOptionPane.showMessageDialog(this, "Cannot export to "
+					+ exportPath + ": " + e.getMessage(), "Export",
+					JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		store.addObserver(exporter);
+		exportButton.setText("Stop Export");
+	}
+
+	/**
+	 * Stops capturing, waits for the frames already captured to be written,
+	 * and reports the result.
+	 */
+	private void finishExport() {
+		store.deleteObserver(exporter);
+		String message;
+		int type = JOptionPane.INFORMATION_MESSAGE;
+		try {
+			exporter.close();
+			message = "Exported to " + exportPath + ": "
+					+ exporter.summarize();
+		} catch (IOException e) {
+			message = "Export to " + exportPath + " failed: "
+					+ e.getMessage();
+			type = JOptionPane.ERROR_MESSAGE;
+		}
+		exporter = null;
+		exportButton.setText("Export");
+		JOptionPane.showMessageDialog(this, message, "Export", type);
+	}
+
+	/**
+	 * Draws a poster of the shapes as they are now on a background thread,
+	 * keeping the shape of the display, and reports the result when it is
+	 * written. The bands are drawn in a background pool of their own, so
+	 * that the shapes keep moving and being drawn while the poster is made.
+	 */
+	private void startPoster() {
+		Component display = getDisplay();
+		int w = Math.max(1, display.getWidth());
+		int h = Math.max(1, display.getHeight());
+		final int width = w >= h ? posterSize : Math.max(1, (int) ((long) w
+				* posterSize / h));
+		final int height = w >= h ? Math.max(1, (int) ((long) h * posterSize
+				/ w)) : posterSize;
+		posterButton.setEnabled(false);
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				String message;
+				int type = JOptionPane.INFORMATION_MESSAGE;
+				ForkJoinPool pool = Pools.newBackground("Poster");
+				try {
+					PosterRenderer poster = new PosterRenderer(store,
+							PosterRenderer.DEFAULT_BAND_PIXELS, pool);
+					poster.render(posterPath, width, height);
+					message = "Poster written to " + posterPath + ": "
+							+ poster.summarize();
+				} catch (IOException e) {
+					message = "Poster " + posterPath + " failed: "
+							+ e.getMessage();
+					type = JOptionPane.ERROR_MESSAGE;
+				} finally {
+					pool.shutdown();
+				}
+				final String text = message;
+				final int kind = type;
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						posterButton.setEnabled(true);
+						JOptionPane.showMessageDialog(Controller.this, text,
+								"Poster", kind);
+					}
+				});
+			}
+		}, "Poster").start();
+	}
+
+	/**
+	 * @return The component that shows the kaleidoscope: the ActiveView in
+	 *         active mode, otherwise the Swing View.
+	 */
+	private Component getDisplay() {
+		return activeView != null ? activeView : view;
+	}
+}
@@ -0,0 +1,117 @@
+package kaleidoscope;
+
+/**
+ * The origins of every copy of every visible shape in one frame, placed by
+ * the frame's Symmetry in a single pass over the shapes. A renderer keeps
+ * one buffer and refills it each frame, so placing the copies allocates
+ * nothing once the buffer has grown to fit; the copies of the shape in slot
+ * i are at indices i * copies to i * copies + copies - 1. The slots of
+ * hidden shapes are left as they were.
+ * <p>
+ * The buffer also applies the renderer's Quality: a lower level places
+ * fewer copies, and leaves some visible shapes out of the drawn array,
+ * which renderers read instead of the frame's shouldBeDrawn.
+ * <p>
+ * Copies are turned about the centre of each shape rather than its origin,
+ * so that a shape and its copies line up whichever way each is drawn. The
+ * centre of the window is worked out again only when the window changes
+ * size.
+ */
+final class CopyBuffer {
+	int[] x = new int[0];
+	int[] y = new int[0];
+	// the symmetry the buffer was last filled for, and its number of copies
+	Symmetry symmetry = Symmetry.EIGHT_FOLD;
+	int copies = Symmetry.EIGHT_FOLD.getOrder();
+	// which shapes are to be drawn in the frame last placed
+	boolean[] drawn = new boolean[0];
+
+	// how much of each frame is placed; set by the renderer
+	volatile Quality quality = Quality.FULL;
+
+	// the window the centre was worked out for
+	private int width = -1, height = -1;
+	private double centreX, centreY;
+
+	/**
+	 * Places the copies of every visible shape in a snapshot.
+	 *
+	 * @param frame
+	 *            The snapshot being drawn.
+	 * @param alpha
+	 *            How far between their previous (0) and current (1)
+	 *            positions the shapes are drawn.
+	 */
+	void update(FrameSnapshot frame, float alpha) {
+		Quality q = quality;
+		Symmetry s = q.limit(frame.symmetry);
+		int stride = q.getShapeStride();
+		int n = frame.size;
+		symmetry = s;
+		copies = s.getOrder();
+		if (x.length < n * copies) {
+			x = new int[n * copies];
+			y = new int[n * copies];
+		}
+		if (drawn.length < n) {
+			drawn = new boolean[n];
+		}
+		if (frame.width != width || frame.height != height) {
+			width = frame.width;
+			height = frame.height;
+			centreX = width / 2.0;
+			centreY = height / 2.0;
+		}
+		boolean[] visible = frame.shouldBeDrawn;
+		int[] px = frame.previousX, py = frame.previousY;
+		int[] cx = frame.xPosition, cy = frame.yPosition;
+		int[] fw = frame.figureWidth, fh = frame.figureHeight;
+		byte[] type = frame.type;
+		for (int i = 0; i < n; i++) {
+			drawn[i] = visible[i] && i % stride == 0;
+			if (!drawn[i]) {
+				continue;
+			}
+			int sx = cx[i], sy = cy[i];
+			if (alpha < 1) {
+				sx = px[i] + Math.round((sx - px[i]) * alpha);
+				sy = py[i] + Math.round((sy - py[i]) * alpha);
+			}
+			place(s, i * copies, type[i], sx, sy, fw[i], fh[i]);
+		}
+	}
+
+	/**
+	 * Turns one shape's centre to each copy's angle and works back to the
+	 * origin the copy is drawn from.
+	 */
+	private void place(Symmetry s, int first, byte type, int sx, int sy,
+			int w, int h) {
+		boolean box = type == ShapeStore.CIRCLE
+				|| type == ShapeStore.RECTANGLE;
+		// the centre of the shape, relative to the centre of the window
+		double rx = sx + (box ? w / 2.0 : 0) - centreX;
+		double ry = sy + (box ? h / 2.0 : -h / 2.0) - centreY;
+		double[] a = s.a, b = s.b, c = s.c, d = s.d;
+		boolean[] transposed = s.transposed;
+		for (int k = 0; k < copies; k++) {
+			double tx = centreX + a[k] * rx + b[k] * ry;
+			double ty = centreY + c[k] * rx + d[k] * ry;
+			// from the centre of the copy back to its origin, as
+			// ShapeRenderer.outline() draws it
+			double ox, oy;
+			if (box) {
+				ox = (transposed[k] ? h : w) / 2.0;
+				oy = (transposed[k] ? w : h) / 2.0;
+			} else if (transposed[k]) {
+				ox = -h / 2.0;
+				oy = 0;
+			} else {
+				ox = 0;
+				oy = -h / 2.0;
+			}
+			x[first + k] = (int) Math.round(tx - ox);
+			y[first + k] = (int) Math.round(ty - oy);
+		}
+	}
+}
@@ -0,0 +1,372 @@
+package kaleidoscope;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Works out which parts of a View need repainting after a step, so that the
+ * rest of the window can be left as it is. The window is divided into square
+ * tiles; every tile touched by a visible shape's eight copies, at either
+ * their previous or their current positions, is damaged, and so is every
+ * tile damaged by the step before, which covers wherever the shapes were
+ * drawn last time. The damaged tiles are merged into rectangles, and the
+ * next paint draws each rectangle with a clip of its own.
+ * <p>
+ * Swing merges every repaint request for a component into one rectangle,
+ * which for a kaleidoscope is nearly always the whole window, so the View
+ * asks Swing for the bounds of the damage and paints the rectangles itself.
+ * Plain rectangular clips keep Java2D on its fast paths, and draw exactly
+ * the same pixels as a full repaint. When more than FULL_REPAINT_FRACTION of
+ * the tiles are damaged, or the caller asks for it, the whole view is
+ * repainted instead.
+ * <p>
+ * Steps are recorded by the clock's thread and taken by the event dispatch
+ * thread, so both are synchronized.
+ */
+public class DirtyRegion {
+	// side of a tile, in pixels
+	public static final int TILE_SIZE = 32;
+
+	// repaint everything when more than this share of the tiles is damaged;
+	// beyond it, painting the shapes once per rectangle costs more than
+	// clearing the whole view
+	public static final double FULL_REPAINT_FRACTION = 0.25;
+
+	private final ShapeStore store;
+
+	// the size the tiles were laid out for
+	private int width = -1, height = -1;
+	private int columns, rows;
+
+	// tiles damaged by the latest step and the one before, and the damage
+	// not yet repainted
+	private boolean[] current = new boolean[0];
+	private boolean[] previous = new boolean[0];
+	private boolean[] pending = new boolean[0];
+	private boolean pendingAll = true;
+	// bounds of the pending damage, as passed to repaint(), in pixels
+	private final Rectangle pendingBounds = new Rectangle();
+
+	// scratch space for the copies of every shape, before and after its move
+	private final CopyBuffer from = new CopyBuffer();
+	private final CopyBuffer to = new CopyBuffer();
+	private final int[] vertexX = new int[4];
+	private final int[] vertexY = new int[4];
+
+	// paints taken, how many of them were of the whole view, and the pixels
+	// repainted against the pixels in the view
+	private long paints;
+	private long fullPaints;
+	private long pixelsPainted;
+	private long pixelsInView;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param store
+	 *            The Model whose shapes cause the damage.
+	 */
+	public DirtyRegion(ShapeStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Records the damage done by the latest step.
+	 *
+	 * @param width
+	 *            The width of the view, in pixels.
+	 * @param height
+	 *            The height of the view, in pixels.
+	 * @param overlay
+	 *            Something drawn over the shapes that changes every frame and
+	 *            must be repainted with them, or null.
+	 * @param all
+	 *            true if the whole view must be repainted anyway, e.g.
+	 *            because colors changed.
+	 * @return The area to pass to repaint(), an empty rectangle if nothing
+	 *         needs repainting, or null to repaint everything.
+	 */
+	public synchronized Rectangle addFrame(int width, int height,
+			Rectangle overlay, boolean all) {
+		if (width != this.width || height != this.height) {
+			layOut(width, height);
+			all = true;
+		}
+		Arrays.fill(current, false);
+		markShapes();
+		if (overlay != null) {
+			mark(overlay.x, overlay.y, overlay.width, overlay.height);
+		}
+		int damaged = 0;
+		for (int t = 0; t < current.length; t++) {
+			pending[t] |= current[t] | previous[t];
+			if (pending[t]) {
+				damaged++;
+			}
+		}
+		boolean[] swap = previous;
+		previous = current;
+		current = swap;
+		if (all || damaged > current.length * FULL_REPAINT_FRACTION) {
+			pendingAll = true;
+		}
+		if (pendingAll) {
+			return null;
+		}
+		pendingBounds.setBounds(bounds());
+		return new Rectangle(pendingBounds);
+	}
+
+	/**
+	 * Makes the next paint repaint the whole view.
+	 */
+	public synchronized void markAll() {
+		pendingAll = true;
+	}
+
+	/**
+	 * Works out the damage from the shapes and copies that the renderer
+	 * draws at a quality level, and makes the next paint repaint the whole
+	 * view.
+	 *
+	 * @param quality
+	 *            The quality the view is drawn at.
+	 */
+	public synchronized void setQuality(Quality quality) {
+		from.quality = quality;
+		to.quality = quality;
+		pendingAll = true;
+	}
+
+	/**
+	 * Takes the damage waiting to be repainted, if the paint about to happen
+	 * is the one asked for by addFrame().
+	 *
+	 * @param clipBounds
+	 *            The clip bounds of the Graphics about to be painted.
+	 * @return The rectangles to paint, each with its own clip, or null to
+	 *         paint all of the Graphics' clip.
+	 */
+	public synchronized List<Rectangle> takeDamage(Rectangle clipBounds) {
+		long area = (long) Math.max(width, 0) * Math.max(height, 0);
+		if (pendingAll || clipBounds == null) {
+			Arrays.fill(pending, false);
+			pendingAll = false;
+			count(area, area);
+			return null;
+		}
+		if (!clipBounds.equals(pendingBounds)) {
+			// a paint Swing started for some other reason; the damage waits
+			// for the paint that was asked for
+			count(area, area);
+			return null;
+		}
+		List<Rectangle> damage = new ArrayList<Rectangle>();
+		long pixels = 0;
+		// each run of damaged tiles in a row is extended downwards for as
+		// long as the rows below have the same run
+		for (int row = 0; row < rows; row++) {
+			int column = 0;
+			while (column < columns) {
+				if (!pending[row * columns + column]) {
+					column++;
+					continue;
+				}
+				int start = column;
+				while (column < columns && pending[row * columns + column]) {
+					column++;
+				}
+				int end = row + 1;
+				while (end < rows && isRun(end, start, column)) {
+					end++;
+				}
+				for (int r = row; r < end; r++) {
+					Arrays.fill(pending, r * columns + start, r * columns
+							+ column, false);
+				}
+				int x = start * TILE_SIZE;
+				int y = row * TILE_SIZE;
+				int w = Math.min(column * TILE_SIZE, width) - x;
+				int h = Math.min(end * TILE_SIZE, height) - y;
+				damage.add(new Rectangle(x, y, w, h));
+				pixels += (long) w * h;
+			}
+		}
+		pendingBounds.setBounds(0, 0, 0, 0);
+		count(pixels, area);
+		return damage;
+	}
+
+	/**
+	 * @return The number of paints so far.
+	 */
+	public synchronized long getPaints() {
+		return paints;
+	}
+
+	/**
+	 * @return The number of paints that repainted the whole view.
+	 */
+	public synchronized long getFullPaints() {
+		return fullPaints;
+	}
+
+	/**
+	 * @return The share of the view's pixels that were repainted, over every
+	 *         paint so far, between 0 and 1.
+	 */
+	public synchronized double getPaintedFraction() {
+		return pixelsInView == 0 ? 1 : (double) pixelsPainted / pixelsInView;
+	}
+
+	/**
+	 * @return One line giving the pixels saved and the paints that were of
+	 *         the whole view.
+	 */
+	public synchronized String summarize() {
+		return String.format("dirty  %5.1f%% of pixels repainted, %d of %d "
+				+ "paints full", 100 * getPaintedFraction(), fullPaints,
+				paints);
+	}
+
+	private void count(long pixels, long area) {
+		paints++;
+		if (pixels == area) {
+			fullPaints++;
+		}
+		pixelsPainted += pixels;
+		pixelsInView += area;
+	}
+
+	private boolean isRun(int row, int start, int end) {
+		int base = row * columns;
+		if (start > 0 && pending[base + start - 1]) {
+			return false;
+		}
+		if (end < columns && pending[base + end]) {
+			return false;
+		}
+		for (int column = start; column < end; column++) {
+			if (!pending[base + column]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void layOut(int width, int height) {
+		this.width = width;
+		this.height = height;
+		columns = (Math.max(width, 0) + TILE_SIZE - 1) / TILE_SIZE;
+		rows = (Math.max(height, 0) + TILE_SIZE - 1) / TILE_SIZE;
+		current = new boolean[columns * rows];
+		previous = new boolean[columns * rows];
+		pending = new boolean[columns * rows];
+	}
+
+	/**
+	 * @return The bounds of the pending tiles, in pixels.
+	 */
+	private Rectangle bounds() {
+		int minColumn = columns, maxColumn = -1, minRow = rows, maxRow = -1;
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				if (pending[row * columns + column]) {
+					minColumn = Math.min(minColumn, column);
+					maxColumn = Math.max(maxColumn, column);
+					minRow = Math.min(minRow, row);
+					maxRow = row;
+				}
+			}
+		}
+		if (maxRow < 0) {
+			return new Rectangle();
+		}
+		int x = minColumn * TILE_SIZE;
+		int y = minRow * TILE_SIZE;
+		return new Rectangle(x, y, Math.min((maxColumn + 1) * TILE_SIZE,
+				width) - x, Math.min((maxRow + 1) * TILE_SIZE, height) - y);
+	}
+
+	/**
+	 * Marks the tiles under every copy of every visible shape in the latest
+	 * snapshot, anywhere between its previous and current positions.
+	 */
+	private void markShapes() {
+		FrameSnapshot frame = store.acquireSnapshot();
+		try {
+			from.update(frame, 0);
+			to.update(frame, 1);
+			boolean[] drawn = to.drawn;
+			for (int i = 0, n = frame.size; i < n; i++) {
+				if (drawn[i]) {
+					markCopies(frame, i);
+				}
+			}
+		} finally {
+			frame.release();
+		}
+	}
+
+	private void markCopies(FrameSnapshot frame, int i) {
+		int w = frame.figureWidth[i];
+		int h = frame.figureHeight[i];
+		byte type = frame.type[i];
+		int c = to.copies;
+		int[] fromX = from.x, fromY = from.y, toX = to.x, toY = to.y;
+		Symmetry symmetry = to.symmetry;
+		for (int k = 0, j = i * c; k < c; k++, j++) {
+			// a shape drawn in between steps lies within the box around both
+			// ends of its move
+			int left = Math.min(fromX[j], toX[j]);
+			int top = Math.min(fromY[j], toY[j]);
+			int dx = Math.abs(toX[j] - fromX[j]);
+			int dy = Math.abs(toY[j] - fromY[j]);
+			boolean transposed = symmetry.isTransposed(k);
+			if (type == ShapeStore.CIRCLE || type == ShapeStore.RECTANGLE) {
+				if (!transposed) {
+					mark(left, top, w + dx, h + dy);
+				} else {
+					mark(left, top, h + dx, w + dy);
+				}
+				continue;
+			}
+			// the outline's extent around its origin is the same wherever
+			// the origin is
+			int n = ShapeRenderer.outline(type, transposed,
+					symmetry.isFlipped(k), 0, 0, w, h, vertexX, vertexY);
+			int minX = vertexX[0], maxX = minX, minY = vertexY[0], maxY = minY;
+			for (int v = 1; v < n; v++) {
+				minX = Math.min(minX, vertexX[v]);
+				maxX = Math.max(maxX, vertexX[v]);
+				minY = Math.min(minY, vertexY[v]);
+				maxY = Math.max(maxY, vertexY[v]);
+			}
+			mark(left + minX, top + minY, maxX - minX + dx, maxY - minY + dy);
+		}
+	}
+
+	/**
+	 * Marks the tiles under a rectangle, with a pixel to spare on each side
+	 * for the edges that Java2D rounds outwards.
+	 */
+	private void mark(int x, int y, int w, int h) {
+		int left = Math.max(x - 1, 0) / TILE_SIZE;
+		int top = Math.max(y - 1, 0) / TILE_SIZE;
+		int right = Math.min(x + w + 1, width - 1);
+		int bottom = Math.min(y + h + 1, height - 1);
+		if (right < 0 || bottom < 0 || left >= columns || top >= rows) {
+			return;
+		}
+		right /= TILE_SIZE;
+		bottom /= TILE_SIZE;
+		for (int row = top; row <= bottom; row++) {
+			int base = row * columns;
+			for (int column = left; column <= right; column++) {
+				current[base + column] = true;
+			}
+		}
+	}
+}
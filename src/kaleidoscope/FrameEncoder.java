@@ -0,0 +1,32 @@
+package kaleidoscope;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes a sequence of frames somewhere, one at a time, in the order they are
+ * given. Used by the FrameExporter's background thread.
+ */
+public interface FrameEncoder extends Closeable {
+
+	/**
+	 * Writes the next frame. The image belongs to the caller again once this
+	 * returns.
+	 *
+	 * @param image
+	 *            The frame.
+	 * @throws IOException
+	 *             If the frame cannot be written.
+	 */
+	void encode(BufferedImage image) throws IOException;
+
+	/**
+	 * Finishes the sequence; no more frames may be written.
+	 *
+	 * @throws IOException
+	 *             If the end of the sequence cannot be written.
+	 */
+	@Override
+	void close() throws IOException;
+}
@@ -0,0 +1,34 @@
+package kaleidoscope;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Creates FrameEncoders from a path, so the export format can be chosen on
+ * the command line.
+ */
+public final class FrameEncoders {
+	// where frames go if no path is given
+	public static final String DEFAULT_PATH = "kaleidoscope-export";
+
+	private FrameEncoders() {
+	}
+
+	/**
+	 * @param path
+	 *            A file ending in ".gif" for an animated GIF, otherwise a
+	 *            directory for a sequence of numbered PNG files.
+	 * @param frameMillis
+	 *            How long each frame is shown, for formats that record it.
+	 * @return A new encoder writing to the path.
+	 * @throws IOException
+	 *             If the file or directory cannot be created.
+	 */
+	public static FrameEncoder forPath(File path, int frameMillis)
+			throws IOException {
+		if (path.getName().toLowerCase().endsWith(".gif")) {
+			return new GifEncoder(path, frameMillis);
+		}
+		return new PngSequenceEncoder(path);
+	}
+}
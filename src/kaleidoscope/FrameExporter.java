@@ -0,0 +1,305 @@
+package kaleidoscope;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Captures frames and hands them to a FrameEncoder running on a background
+ * thread, so that encoding never holds up the simulation or the display.
+ * <p>
+ * Frames are drawn into a fixed pool of images that is allocated once and
+ * reused, so capturing allocates nothing. When the encoder falls behind and
+ * every image in the pool is waiting to be encoded, a new frame is either
+ * dropped and counted or, if the exporter was created to apply
+ * backpressure, the capturing thread waits for an image to come free.
+ * <p>
+ * An exporter can observe a ShapeStore, in which case it draws every
+ * published frame itself, or be given finished frames by a
+ * HeadlessRenderer.
+ */
+public class FrameExporter implements Observer,
+		HeadlessRenderer.FrameCallback, Closeable {
+	// images in the pool if no other number is given
+	public static final int DEFAULT_POOL_SIZE = 8;
+
+	private final FrameEncoder encoder;
+	private final Renderer renderer;
+	private final int width, height;
+	private final boolean block;
+
+	// images ready to draw into, and images waiting to be encoded
+	private final BlockingQueue<Buffer> free;
+	private final BlockingQueue<Buffer> filled;
+	// put on the filled queue to stop the encoder thread
+	private final Buffer end = new Buffer(1, 1);
+	private final Thread thread;
+
+	private volatile boolean closed;
+	private volatile long captured;
+	private volatile long dropped;
+	private volatile long encoded;
+	private volatile long firstEncodeStart;
+	private volatile long lastEncodeEnd;
+	private volatile IOException failure;
+
+	/**
+	 * One reusable frame, with the Graphics that draws into it.
+	 */
+	private static class Buffer {
+		final BufferedImage image;
+		final Graphics2D graphics;
+
+		Buffer(int width, int height) {
+			image = new BufferedImage(width, height,
+					BufferedImage.TYPE_INT_RGB);
+			graphics = image.createGraphics();
+		}
+	}
+
+	/**
+	 * Creates an exporter with the default pool size and starts its encoder
+	 * thread.
+	 *
+	 * @param store
+	 *            The Model to draw when observing a store; may be null if
+	 *            frames are only given to frameRendered().
+	 * @param encoder
+	 *            Writes the frames; closed by close().
+	 * @param width
+	 *            The width of each frame, in pixels.
+	 * @param height
+	 *            The height of each frame, in pixels.
+	 * @param block
+	 *            true to make capturing wait when the encoder falls behind,
+	 *            false to drop frames instead.
+	 */
+	public FrameExporter(ShapeStore store, FrameEncoder encoder, int width,
+			int height, boolean block) {
+		this(store == null ? null : new ShapeRenderer(store), encoder, width,
+				height, block, DEFAULT_POOL_SIZE);
+	}
+
+	/**
+	 * Creates an exporter and starts its encoder thread.
+	 *
+	 * @param renderer
+	 *            Draws each frame when observing a store; may be null if
+	 *            frames are only given to frameRendered().
+	 * @param encoder
+	 *            Writes the frames; closed by close().
+	 * @param width
+	 *            The width of each frame, in pixels.
+	 * @param height
+	 *            The height of each frame, in pixels.
+	 * @param block
+	 *            true to make capturing wait when the encoder falls behind,
+	 *            false to drop frames instead.
+	 * @param poolSize
+	 *            The number of frames that can be waiting to be encoded.
+	 */
+	public FrameExporter(Renderer renderer, FrameEncoder encoder, int width,
+			int height, boolean block, int poolSize) {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("frame size must be positive: "
+					+ width + "x" + height);
+		}
+		if (poolSize <= 0) {
+			throw new IllegalArgumentException("pool size must be positive: "
+					+ poolSize);
+		}
+		this.renderer = renderer;
+		this.encoder = encoder;
+		this.width = width;
+		this.height = height;
+		this.block = block;
+		free = new ArrayBlockingQueue<Buffer>(poolSize);
+		filled = new ArrayBlockingQueue<Buffer>(poolSize + 1);
+		for (int i = 0; i < poolSize; i++) {
+			free.add(new Buffer(width, height));
+		}
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				encodeAll();
+			}
+		}, "FrameExporter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Draws and captures every frame the observed store publishes.
+	 *
+	 * @see java.util.Observer#update(java.util.Observable, java.lang.Object)
+	 */
+	@Override
+	public synchronized void update(Observable obs, Object arg) {
+		if (renderer == null) {
+			return;
+		}
+		Buffer buffer = acquire();
+		if (buffer != null) {
+			renderer.paint(buffer.graphics, width, height);
+			filled.add(buffer);
+		}
+	}
+
+	/**
+	 * Captures a frame drawn elsewhere, scaled to this exporter's size if it
+	 * differs.
+	 *
+	 * @see HeadlessRenderer.FrameCallback#frameRendered(long, BufferedImage)
+	 */
+	@Override
+	public synchronized void frameRendered(long frame, BufferedImage image)
+			throws IOException {
+		IOException e = failure;
+		if (e != null) {
+			throw e;
+		}
+		Buffer buffer = acquire();
+		if (buffer != null) {
+			buffer.graphics.drawImage(image, 0, 0, width, height, null);
+			filled.add(buffer);
+		}
+	}
+
+	/**
+	 * Takes a free image from the pool, waiting for one only when applying
+	 * backpressure.
+	 *
+	 * @return The image to draw the frame into, or null if the frame is to be
+	 *         dropped.
+	 */
+	private Buffer acquire() {
+		if (closed) {
+			return null;
+		}
+		Buffer buffer = free.poll();
+		if (buffer == null && block) {
+			try {
+				buffer = free.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (buffer == null) {
+			dropped++;
+			return null;
+		}
+		captured++;
+		return buffer;
+	}
+
+	/**
+	 * The encoder thread: encodes frames in the order they were captured and
+	 * returns their images to the pool, until told to stop.
+	 */
+	private void encodeAll() {
+		try {
+			while (true) {
+				Buffer buffer = filled.take();
+				if (buffer == end) {
+					return;
+				}
+				long start = System.nanoTime();
+				if (firstEncodeStart == 0) {
+					firstEncodeStart = start;
+				}
+				try {
+					if (failure == null) {
+						encoder.encode(buffer.image);
+						encoded++;
+					}
+				} catch (IOException e) {
+					failure = e;
+				} finally {
+					lastEncodeEnd = System.nanoTime();
+					free.add(buffer);
+				}
+			}
+		} catch (InterruptedException e) {
+			// stopping anyway
+		}
+	}
+
+	/**
+	 * Stops capturing, waits for every frame already captured to be encoded,
+	 * and closes the encoder.
+	 *
+	 * @throws IOException
+	 *             If any frame could not be encoded, or the encoder could not
+	 *             be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			filled.put(end);
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (Buffer buffer : free) {
+			buffer.graphics.dispose();
+		}
+		try {
+			encoder.close();
+		} catch (IOException e) {
+			if (failure == null) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * @return The number of frames taken into the pool.
+	 */
+	public long getCapturedFrames() {
+		return captured;
+	}
+
+	/**
+	 * @return The number of frames dropped because the encoder was behind.
+	 */
+	public long getDroppedFrames() {
+		return dropped;
+	}
+
+	/**
+	 * @return The number of frames written by the encoder.
+	 */
+	public long getEncodedFrames() {
+		return encoded;
+	}
+
+	/**
+	 * @return The sustained rate at which the encoder has written frames,
+	 *         from the start of the first frame to the end of the latest.
+	 */
+	public double getEncodeFramesPerSecond() {
+		long elapsed = lastEncodeEnd - firstEncodeStart;
+		return encoded == 0 || elapsed <= 0 ? 0 : encoded * 1e9 / elapsed;
+	}
+
+	/**
+	 * @return A one-line summary of the export so far.
+	 */
+	public String summarize() {
+		return String.format(
+				"%d frames encoded, %d dropped, %.1f frames/s sustained",
+				encoded, dropped, getEncodeFramesPerSecond());
+	}
+}
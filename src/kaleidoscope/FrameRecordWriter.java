@@ -0,0 +1,208 @@
+package kaleidoscope;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes timing records to a CSV file from a background thread. Records are
+ * handed over through a fixed-size ring of longs, so adding one never blocks
+ * on the file and never allocates; if the writer falls so far behind that
+ * the ring is full, new records are dropped and counted instead.
+ * <p>
+ * Each line holds the kind of event ("tick" or "paint"), the frame it
+ * belongs to, when it started (System.nanoTime()) and how long it took, in
+ * nanoseconds.
+ */
+public class FrameRecordWriter implements Closeable {
+	// the kinds of event, as stored in the ring
+	public static final int TICK = 0;
+	public static final int PAINT = 1;
+
+	private static final String[] KIND_NAMES = { "tick", "paint" };
+	private static final String HEADER =
+			"event,frame,start_nanos,duration_nanos";
+
+	// longs per record: kind, frame, start, duration
+	private static final int FIELDS = 4;
+
+	// records that fit in the ring
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	private final Writer out;
+	private final Thread thread;
+
+	// guarded by this
+	private final long[] ring;
+	private final int capacity;
+	private long head;
+	private long tail;
+	private boolean closed;
+	private long dropped;
+	private IOException failure;
+
+	/**
+	 * Opens a file and starts the thread that writes to it.
+	 *
+	 * @param file
+	 *            The CSV file; it is replaced if it exists.
+	 * @throws IOException
+	 *             If the file cannot be opened.
+	 */
+	public FrameRecordWriter(File file) throws IOException {
+		this(new BufferedWriter(new FileWriter(file)), DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Starts a thread writing to the given writer.
+	 *
+	 * @param out
+	 *            Receives the CSV text; it is closed by close().
+	 * @param capacity
+	 *            The number of records that can be waiting to be written.
+	 * @throws IOException
+	 *             If the header cannot be written.
+	 */
+	public FrameRecordWriter(Writer out, int capacity) throws IOException {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive: "
+					+ capacity);
+		}
+		this.out = out;
+		this.capacity = capacity;
+		this.ring = new long[capacity * FIELDS];
+		out.write(HEADER);
+		out.write('\n');
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "FrameRecordWriter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queues one record for writing; never waits for the file.
+	 *
+	 * @param kind
+	 *            TICK or PAINT.
+	 * @param frame
+	 *            The number of the frame the event belongs to.
+	 * @param start
+	 *            When the event started, from System.nanoTime().
+	 * @param duration
+	 *            How long the event took, in nanoseconds.
+	 */
+	public synchronized void add(int kind, long frame, long start,
+			long duration) {
+		if (closed) {
+			return;
+		}
+		if (tail - head == capacity) {
+			dropped++;
+			return;
+		}
+		int slot = (int) (tail % capacity) * FIELDS;
+		ring[slot] = kind;
+		ring[slot + 1] = frame;
+		ring[slot + 2] = start;
+		ring[slot + 3] = duration;
+		if (tail++ == head) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * @return The number of records dropped because the ring was full.
+	 */
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * Writes any records still waiting, then closes the file.
+	 *
+	 * @throws IOException
+	 *             If writing failed at any point.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			notifyAll();
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+
+	/**
+	 * The writer thread: takes records from the ring in batches and writes
+	 * them out, until closed and empty.
+	 */
+	private void drain() {
+		long[] batch = new long[ring.length];
+		StringBuilder line = new StringBuilder(64);
+		try {
+			while (true) {
+				int records;
+				synchronized (this) {
+					while (head == tail && !closed) {
+						wait();
+					}
+					if (head == tail) {
+						break;
+					}
+					records = (int) (tail - head);
+					for (int r = 0; r < records; r++) {
+						int slot = (int) ((head + r) % capacity) * FIELDS;
+						System.arraycopy(ring, slot, batch, r * FIELDS, FIELDS);
+					}
+					head = tail;
+				}
+				for (int r = 0; r < records; r++) {
+					int slot = r * FIELDS;
+					line.setLength(0);
+					line.append(KIND_NAMES[(int) batch[slot]]).append(',')
+							.append(batch[slot + 1]).append(',')
+							.append(batch[slot + 2]).append(',')
+							.append(batch[slot + 3]).append('\n');
+					out.append(line);
+				}
+				out.flush();
+			}
+		} catch (IOException e) {
+			synchronized (this) {
+				failure = e;
+				closed = true;
+			}
+		} catch (InterruptedException e) {
+			// closing anyway
+		} finally {
+			try {
+				out.close();
+			} catch (IOException e) {
+				synchronized (this) {
+					if (failure == null) {
+						failure = e;
+					}
+				}
+			}
+		}
+	}
+}
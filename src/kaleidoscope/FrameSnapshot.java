@@ -0,0 +1,212 @@
+package kaleidoscope;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A copy of everything needed to draw one frame of a ShapeStore, taken by
+ * the store each time it publishes a frame. Renderers draw from a snapshot
+ * rather than from the store, so a frame never mixes the sizes of one step
+ * with the positions of the next, however the painting thread and the
+ * simulation interleave.
+ * <p>
+ * The arrays mirror the store's and are read the same way; only the first
+ * {@link #size} slots are meaningful. A snapshot must be acquired from
+ * {@link ShapeStore#acquireSnapshot()} and released once drawn, and is not
+ * changed in between. Released snapshots are reused by the store for later
+ * frames, so their arrays must not be kept.
+ */
+public final class FrameSnapshot {
+	// readers drawing from the snapshot, or CLAIMED while the store is
+	// copying into it
+	private static final int CLAIMED = -1;
+	private final AtomicInteger readers = new AtomicInteger();
+
+	// the frame the snapshot was taken for
+	long frame;
+
+	int size;
+	int width, height;
+	Symmetry symmetry = Symmetry.EIGHT_FOLD;
+	int opacity = 255;
+	int[] xPosition = new int[0];
+	int[] yPosition = new int[0];
+	int[] previousX = new int[0];
+	int[] previousY = new int[0];
+	int[] figureWidth = new int[0];
+	int[] figureHeight = new int[0];
+	int[] color = new int[0];
+	byte[] type = new byte[0];
+	boolean[] shouldBeDrawn = new boolean[0];
+
+	// when the current positions were reached and how long a step lasts on
+	// screen, as in ShapeStore
+	private long stepTime;
+	private long nanosPerStep;
+
+	/**
+	 * @return The number of shapes in the snapshot.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return The number of the frame the snapshot was taken for.
+	 */
+	public long getFrame() {
+		return frame;
+	}
+
+	/**
+	 * @return How far the shapes are between their previous and current
+	 *         positions right now, as ShapeStore.getInterpolation() works it
+	 *         out.
+	 */
+	public float getInterpolation() {
+		return ShapeStore.interpolation(System.nanoTime(), stepTime,
+				nanosPerStep);
+	}
+
+	/**
+	 * @return How long a step lasts on screen, in nanoseconds; 0 while the
+	 *         shapes are drawn where they are.
+	 */
+	long getNanosPerStep() {
+		return nanosPerStep;
+	}
+
+	/**
+	 * Hands the snapshot back to the store to be reused.
+	 */
+	public void release() {
+		readers.decrementAndGet();
+	}
+
+	/**
+	 * Starts drawing from the snapshot, unless the store is copying into it.
+	 *
+	 * @return false if the snapshot is being rewritten.
+	 */
+	boolean tryAcquire() {
+		for (;;) {
+			int count = readers.get();
+			if (count == CLAIMED) {
+				return false;
+			}
+			if (readers.compareAndSet(count, count + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Reserves the snapshot for copying into, if nobody is drawing from it.
+	 *
+	 * @return false if the snapshot is in use.
+	 */
+	boolean tryClaim() {
+		return readers.compareAndSet(0, CLAIMED);
+	}
+
+	/**
+	 * Fills this snapshot, which must not belong to a store, with another
+	 * one's shapes as they are drawn at one moment, scaled up (or down) to a
+	 * larger window. Positions, sizes and the window are all multiplied by
+	 * the same factor, so the picture keeps its shape; the shapes are left
+	 * standing where they are drawn.
+	 *
+	 * @param source
+	 *            The snapshot to scale.
+	 * @param alpha
+	 *            How far between their previous (0) and current (1)
+	 *            positions the shapes are taken.
+	 * @param scale
+	 *            The factor to multiply everything by.
+	 */
+	void copyScaled(FrameSnapshot source, float alpha, double scale) {
+		int n = source.size;
+		if (xPosition.length < n) {
+			xPosition = new int[n];
+			yPosition = new int[n];
+			previousX = new int[n];
+			previousY = new int[n];
+			figureWidth = new int[n];
+			figureHeight = new int[n];
+			color = new int[n];
+			type = new byte[n];
+			shouldBeDrawn = new boolean[n];
+		}
+		for (int i = 0; i < n; i++) {
+			int x = source.xPosition[i], y = source.yPosition[i];
+			if (alpha < 1) {
+				int px = source.previousX[i], py = source.previousY[i];
+				x = px + Math.round((x - px) * alpha);
+				y = py + Math.round((y - py) * alpha);
+			}
+			xPosition[i] = previousX[i] = (int) Math.round(x * scale);
+			yPosition[i] = previousY[i] = (int) Math.round(y * scale);
+			figureWidth[i] = Math.max(1,
+					(int) Math.round(source.figureWidth[i] * scale));
+			figureHeight[i] = Math.max(1,
+					(int) Math.round(source.figureHeight[i] * scale));
+		}
+		System.arraycopy(source.color, 0, color, 0, n);
+		System.arraycopy(source.type, 0, type, 0, n);
+		System.arraycopy(source.shouldBeDrawn, 0, shouldBeDrawn, 0, n);
+		size = n;
+		width = (int) Math.round(source.width * scale);
+		height = (int) Math.round(source.height * scale);
+		symmetry = source.symmetry;
+		opacity = source.opacity;
+		frame = source.frame;
+		stepTime = 0;
+		nanosPerStep = 0;
+	}
+
+	/**
+	 * Copies a store's shapes and timing into the claimed snapshot and makes
+	 * it available to readers again.
+	 *
+	 * @param store
+	 *            The store to copy, from the thread publishing its frame.
+	 * @param frame
+	 *            The number of the frame being published.
+	 * @param stepTime
+	 *            When the current positions were reached.
+	 * @param nanosPerStep
+	 *            How long a step lasts on screen.
+	 */
+	void copy(ShapeStore store, long frame, long stepTime, long nanosPerStep) {
+		int n = store.size;
+		if (xPosition.length < n) {
+			int capacity = store.xPosition.length;
+			xPosition = new int[capacity];
+			yPosition = new int[capacity];
+			previousX = new int[capacity];
+			previousY = new int[capacity];
+			figureWidth = new int[capacity];
+			figureHeight = new int[capacity];
+			color = new int[capacity];
+			type = new byte[capacity];
+			shouldBeDrawn = new boolean[capacity];
+		}
+		System.arraycopy(store.xPosition, 0, xPosition, 0, n);
+		System.arraycopy(store.yPosition, 0, yPosition, 0, n);
+		System.arraycopy(store.previousX, 0, previousX, 0, n);
+		System.arraycopy(store.previousY, 0, previousY, 0, n);
+		System.arraycopy(store.figureWidth, 0, figureWidth, 0, n);
+		System.arraycopy(store.figureHeight, 0, figureHeight, 0, n);
+		System.arraycopy(store.color, 0, color, 0, n);
+		System.arraycopy(store.type, 0, type, 0, n);
+		System.arraycopy(store.shouldBeDrawn, 0, shouldBeDrawn, 0, n);
+		size = n;
+		width = store.width;
+		height = store.height;
+		symmetry = store.getSymmetry();
+		opacity = store.getOpacity();
+		this.frame = frame;
+		this.stepTime = stepTime;
+		this.nanosPerStep = nanosPerStep;
+		readers.set(0);
+	}
+}
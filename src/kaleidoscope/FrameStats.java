@@ -0,0 +1,243 @@
+package kaleidoscope;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects timings for the two halves of every frame: the tick, in which the
+ * SimulationClock steps the Model, and the paint, in which the View draws it.
+ * Besides how long each takes, it keeps the time between the starts of
+ * successive ticks, which shows how closely the Timer keeps to its period,
+ * and counts the ticks that came so late that a whole period was lost.
+ * Every record can also be passed on to a FrameRecordWriter. The steps
+ * taken in each tick are totalled for each MotionModel, to give how many
+ * shapes per second each model can step. A QualityGovernor can be given
+ * every tick and paint too.
+ */
+public class FrameStats {
+	// a tick this much later than its period counts as missing a frame
+	private static final double LATE = 1.5;
+
+	private final LatencyHistogram tickTimes = new LatencyHistogram();
+	private final LatencyHistogram paintTimes = new LatencyHistogram();
+	private final LatencyHistogram tickIntervals = new LatencyHistogram();
+
+	private volatile long expectedPeriod;
+	private volatile long missedTicks;
+	private volatile FrameRecordWriter writer;
+	private volatile QualityGovernor governor;
+
+	// for each motion model, by name, in the order they were first used:
+	// the steps taken, the shapes moved and the nanoseconds spent; guarded
+	// by the map
+	private final Map<String, long[]> steps =
+			new LinkedHashMap<String, long[]>();
+
+	// written by the clock's thread, and cleared when the clock stops
+	private volatile long lastTickStart;
+
+	/**
+	 * @param period
+	 *            The time the clock is meant to leave between ticks, in
+	 *            milliseconds.
+	 */
+	public void setExpectedPeriod(int period) {
+		expectedPeriod = period * 1000000L;
+	}
+
+	/**
+	 * @param writer
+	 *            Receives every record from now on; null to stop.
+	 */
+	public void setWriter(FrameRecordWriter writer) {
+		this.writer = writer;
+	}
+
+	/**
+	 * @param governor
+	 *            Receives the duration of every tick and paint from now on,
+	 *            and is summarized with the rest; null to stop.
+	 */
+	public void setGovernor(QualityGovernor governor) {
+		this.governor = governor;
+	}
+
+	/**
+	 * Records one tick.
+	 *
+	 * @param frame
+	 *            The frame the tick produced.
+	 * @param start
+	 *            When the tick started, from System.nanoTime().
+	 * @param duration
+	 *            How long the tick took, in nanoseconds.
+	 */
+	public void recordTick(long frame, long start, long duration) {
+		tickTimes.record(duration);
+		if (lastTickStart != 0) {
+			long interval = start - lastTickStart;
+			tickIntervals.record(interval);
+			long period = expectedPeriod;
+			if (period > 0 && interval > period * LATE) {
+				missedTicks += Math.round((double) interval / period) - 1;
+			}
+		}
+		lastTickStart = start;
+		QualityGovernor q = governor;
+		if (q != null) {
+			q.recordTick(duration);
+		}
+		FrameRecordWriter w = writer;
+		if (w != null) {
+			w.add(FrameRecordWriter.TICK, frame, start, duration);
+		}
+	}
+
+	/**
+	 * Records the steps taken in one tick.
+	 *
+	 * @param model
+	 *            The name of the MotionModel that moved the shapes.
+	 * @param count
+	 *            The number of steps.
+	 * @param shapes
+	 *            The number of shapes moved, over all the steps.
+	 * @param duration
+	 *            How long the steps took, collisions included, in
+	 *            nanoseconds.
+	 */
+	public void recordSteps(String model, int count, long shapes,
+			long duration) {
+		synchronized (steps) {
+			long[] totals = steps.get(model);
+			if (totals == null) {
+				totals = new long[3];
+				steps.put(model, totals);
+			}
+			totals[0] += count;
+			totals[1] += shapes;
+			totals[2] += duration;
+		}
+	}
+
+	/**
+	 * @param model
+	 *            The name of a MotionModel.
+	 * @return The shapes moved per second of stepping by that model, or 0
+	 *         if it has not stepped any.
+	 */
+	public double getStepThroughput(String model) {
+		synchronized (steps) {
+			long[] totals = steps.get(model);
+			return totals == null || totals[2] == 0 ? 0 : totals[1] * 1e9
+					/ totals[2];
+		}
+	}
+
+	/**
+	 * Records one paint.
+	 *
+	 * @param frame
+	 *            The latest frame published when the paint started.
+	 * @param start
+	 *            When the paint started, from System.nanoTime().
+	 * @param duration
+	 *            How long the paint took, in nanoseconds.
+	 */
+	public void recordPaint(long frame, long start, long duration) {
+		paintTimes.record(duration);
+		QualityGovernor q = governor;
+		if (q != null) {
+			q.recordPaint(duration);
+		}
+		FrameRecordWriter w = writer;
+		if (w != null) {
+			w.add(FrameRecordWriter.PAINT, frame, start, duration);
+		}
+	}
+
+	/**
+	 * Marks the clock as stopped, so that the pause is not taken for a late
+	 * tick when it starts again.
+	 */
+	public void clockStopped() {
+		lastTickStart = 0;
+	}
+
+	/**
+	 * @return How long ticks take.
+	 */
+	public LatencyHistogram getTickTimes() {
+		return tickTimes;
+	}
+
+	/**
+	 * @return How long paints take.
+	 */
+	public LatencyHistogram getPaintTimes() {
+		return paintTimes;
+	}
+
+	/**
+	 * @return The time between the starts of successive ticks.
+	 */
+	public LatencyHistogram getTickIntervals() {
+		return tickIntervals;
+	}
+
+	/**
+	 * @return The number of periods in which no tick started at all.
+	 */
+	public long getMissedTicks() {
+		return missedTicks;
+	}
+
+	/**
+	 * Forgets everything recorded so far.
+	 */
+	public void reset() {
+		tickTimes.reset();
+		paintTimes.reset();
+		tickIntervals.reset();
+		missedTicks = 0;
+		synchronized (steps) {
+			steps.clear();
+		}
+	}
+
+	/**
+	 * @return One line per histogram, giving its p50, p99 and maximum in
+	 *         milliseconds, a line of counts, a line per motion model
+	 *         giving the shapes it stepped per second, and the governor's
+	 *         summary if there is one.
+	 */
+	public String[] summarize() {
+		List<String> lines = new ArrayList<String>();
+		lines.add(line("tick  ", tickTimes));
+		lines.add(line("paint ", paintTimes));
+		lines.add(line("period", tickIntervals));
+		lines.add(String.format("%d ticks, %d missed, %d paints",
+				tickTimes.getCount(), missedTicks, paintTimes.getCount()));
+		synchronized (steps) {
+			for (Map.Entry<String, long[]> entry : steps.entrySet()) {
+				long[] totals = entry.getValue();
+				lines.add(String.format("%-7s %8.2f M shapes/s, %d steps",
+						entry.getKey(), totals[2] == 0 ? 0.0 : totals[1]
+								* 1e3 / totals[2], totals[0]));
+			}
+		}
+		QualityGovernor q = governor;
+		if (q != null) {
+			lines.add(q.summarize());
+		}
+		return lines.toArray(new String[lines.size()]);
+	}
+
+	private static String line(String name, LatencyHistogram histogram) {
+		return String.format("%s p50 %6.2f  p99 %6.2f  max %6.2f ms", name,
+				histogram.getPercentile(50) / 1e6,
+				histogram.getPercentile(99) / 1e6, histogram.getMax() / 1e6);
+	}
+}
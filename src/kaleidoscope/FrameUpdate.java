@@ -0,0 +1,78 @@
+package kaleidoscope;
+
+/**
+ * A summary of everything that changed in a ShapeStore since the previous
+ * frame. The store collects individual changes (a shape moving, changing
+ * color, being shown or hidden...) and hands one FrameUpdate to its observers
+ * per completed tick, instead of notifying them once per change.
+ */
+public final class FrameUpdate {
+	// kinds of change, combined in getFlags()
+	public static final int MOVED = 1;
+	public static final int RECOLORED = 2;
+	public static final int VISIBILITY = 4;
+	public static final int RESET = 8;
+	public static final int LIMITS = 16;
+	public static final int SYMMETRY = 32;
+
+	private final long frame;
+	private final int flags;
+	private final int changeCount;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param frame
+	 *            The number of this frame; the first frame is 1.
+	 * @param flags
+	 *            The kinds of change, a combination of MOVED, RECOLORED,
+	 *            VISIBILITY, RESET, LIMITS and SYMMETRY.
+	 * @param changeCount
+	 *            How many individual changes were folded into this frame.
+	 */
+	FrameUpdate(long frame, int flags, int changeCount) {
+		this.frame = frame;
+		this.flags = flags;
+		this.changeCount = changeCount;
+	}
+
+	/**
+	 * @return The number of this frame; the first frame is 1.
+	 */
+	public long getFrame() {
+		return frame;
+	}
+
+	/**
+	 * @return The kinds of change, a combination of MOVED, RECOLORED,
+	 *         VISIBILITY, RESET, LIMITS and SYMMETRY.
+	 */
+	public int getFlags() {
+		return flags;
+	}
+
+	/**
+	 * @param flag
+	 *            One of MOVED, RECOLORED, VISIBILITY, RESET, LIMITS or
+	 *            SYMMETRY.
+	 * @return true if this frame includes that kind of change.
+	 */
+	public boolean has(int flag) {
+		return (flags & flag) != 0;
+	}
+
+	/**
+	 * @return How many individual changes (for example, one per shape moved)
+	 *         were folded into this frame. Each of these used to be a
+	 *         separate notification and repaint request.
+	 */
+	public int getChangeCount() {
+		return changeCount;
+	}
+
+	@Override
+	public String toString() {
+		return "FrameUpdate[frame=" + frame + ", flags=" + flags
+				+ ", changes=" + changeCount + "]";
+	}
+}
@@ -0,0 +1,118 @@
+package kaleidoscope;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Writes frames into a single animated GIF that loops forever. Each frame is
+ * reduced to its own palette by the ImageIO GIF writer, which loses nothing
+ * here since the kaleidoscope draws only a handful of colors.
+ */
+public class GifEncoder implements FrameEncoder {
+	private static final String FORMAT = "javax_imageio_gif_image_1.0";
+
+	private final ImageOutputStream out;
+	private final ImageWriter writer;
+	private final int delay;
+	// metadata for the first frame, which also says to loop, and the rest
+	private IIOMetadata firstMetadata;
+	private IIOMetadata metadata;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file
+	 *            The GIF file; it is replaced if it exists.
+	 * @param frameMillis
+	 *            How long each frame is shown, in milliseconds; GIF rounds
+	 *            this to hundredths of a second.
+	 * @throws IOException
+	 *             If the file cannot be created.
+	 */
+	public GifEncoder(File file, int frameMillis) throws IOException {
+		Iterator<ImageWriter> writers = ImageIO
+				.getImageWritersByFormatName("gif");
+		if (!writers.hasNext()) {
+			throw new IOException("no GIF writer available");
+		}
+		if (file.exists() && !file.delete()) {
+			throw new IOException("cannot replace " + file);
+		}
+		writer = writers.next();
+		out = ImageIO.createImageOutputStream(file);
+		if (out == null) {
+			throw new IOException("cannot create " + file);
+		}
+		writer.setOutput(out);
+		writer.prepareWriteSequence(null);
+		delay = Math.max(1, Math.round(frameMillis / 10f));
+	}
+
+	@Override
+	public void encode(BufferedImage image) throws IOException {
+		IIOMetadata data;
+		if (firstMetadata == null) {
+			firstMetadata = frameMetadata(image, true);
+			metadata = frameMetadata(image, false);
+			data = firstMetadata;
+		} else {
+			data = metadata;
+		}
+		writer.writeToSequence(new IIOImage(image, null, data), null);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			writer.endWriteSequence();
+		} finally {
+			writer.dispose();
+			out.close();
+		}
+	}
+
+	/**
+	 * Builds the metadata for a frame: how long it is shown and, for the
+	 * first frame, that the animation loops forever.
+	 */
+	private IIOMetadata frameMetadata(BufferedImage image, boolean first)
+			throws IOException {
+		IIOMetadata data = writer.getDefaultImageMetadata(
+				ImageTypeSpecifier.createFromRenderedImage(image), null);
+		IIOMetadataNode root = new IIOMetadataNode(FORMAT);
+
+		IIOMetadataNode control = new IIOMetadataNode(
+				"GraphicControlExtension");
+		control.setAttribute("disposalMethod", "none");
+		control.setAttribute("userInputFlag", "FALSE");
+		control.setAttribute("transparentColorFlag", "FALSE");
+		control.setAttribute("delayTime", Integer.toString(delay));
+		control.setAttribute("transparentColorIndex", "0");
+		root.appendChild(control);
+
+		if (first) {
+			IIOMetadataNode loop = new IIOMetadataNode("ApplicationExtension");
+			loop.setAttribute("applicationID", "NETSCAPE");
+			loop.setAttribute("authenticationCode", "2.0");
+			// sub-block 1, then a loop count of 0 (forever), low byte first
+			loop.setUserObject(new byte[] { 1, 0, 0 });
+			IIOMetadataNode extensions = new IIOMetadataNode(
+					"ApplicationExtensions");
+			extensions.appendChild(loop);
+			root.appendChild(extensions);
+		}
+
+		data.mergeTree(FORMAT, root);
+		return data;
+	}
+}
@@ -0,0 +1,60 @@
+package kaleidoscope;
+
+/**
+ * Makes the shapes fall: every step each one speeds up towards the bottom of
+ * the window, and bounces off the floor as off any other wall. Sideways
+ * speeds do not change.
+ */
+public class GravityMotion implements MotionModel {
+	// pixels per step gained every step
+	public static final int DEFAULT_GRAVITY = 1;
+
+	// fastest a shape can rise or fall, in pixels per step
+	public static final int MAX_SPEED = 24;
+
+	private final int gravity;
+
+	/**
+	 * Creates a model with the default gravity.
+	 */
+	public GravityMotion() {
+		this(DEFAULT_GRAVITY);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param gravity
+	 *            Pixels per step gained every step; negative to fall
+	 *            upwards.
+	 */
+	public GravityMotion(int gravity) {
+		this.gravity = gravity;
+	}
+
+	@Override
+	public String getName() {
+		return "gravity";
+	}
+
+	@Override
+	public int step(ShapeStore store, int from, int to, int speedFactor,
+			long step) {
+		int[] x = store.xPosition, y = store.yPosition;
+		int[] dx = store.xDelta, dy = store.yDelta;
+		int[] w = store.figureWidth, h = store.figureHeight;
+		boolean[] run = store.running;
+		int width = store.width, height = store.height;
+		int pull = gravity * speedFactor;
+		int moved = 0;
+		for (int i = from; i < to; i++) {
+			if (run[i]) {
+				dy[i] = LinearMotion.clamp(dy[i] + pull, MAX_SPEED);
+				LinearMotion.move(x, y, dx, dy, i, width - w[i], height
+						- h[i], speedFactor);
+				moved++;
+			}
+		}
+		return moved;
+	}
+}
@@ -0,0 +1,208 @@
+package kaleidoscope;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Runs the kaleidoscope without any windows: the Model is stepped and drawn
+ * into an offscreen BufferedImage as fast as possible, rather than at the 25
+ * ticks a second of the SimulationClock, and every frame is handed to a
+ * callback. Works with java.awt.headless=true, so frames can be generated on
+ * machines with no display.
+ */
+public class HeadlessRenderer {
+
+	/**
+	 * Receives each frame as it is rendered.
+	 */
+	public interface FrameCallback {
+		/**
+		 * Called once per frame. The same image is reused for every frame, so
+		 * it must be copied if it is needed after this method returns.
+		 *
+		 * @param frame
+		 *            The number of the frame, starting from 0.
+		 * @param image
+		 *            The rendered frame.
+		 * @throws IOException
+		 *             If the frame cannot be saved; rendering stops.
+		 */
+		void frameRendered(long frame, BufferedImage image) throws IOException;
+	}
+
+	private final ShapeStore store;
+	private final Renderer renderer;
+	private final BufferedImage image;
+	private int speedFactor = 1;
+
+	// throughput of the most recent run
+	private long framesRendered;
+	private long elapsedNanos;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param store
+	 *            The Model to step and draw; its limits are set to the image
+	 *            size.
+	 * @param width
+	 *            The width of each frame, in pixels.
+	 * @param height
+	 *            The height of each frame, in pixels.
+	 */
+	public HeadlessRenderer(ShapeStore store, int width, int height) {
+		this(store, new ShapeRenderer(store), width, height);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param store
+	 *            The Model to step and draw; its limits are set to the image
+	 *            size.
+	 * @param renderer
+	 *            Draws each frame.
+	 * @param width
+	 *            The width of each frame, in pixels.
+	 * @param height
+	 *            The height of each frame, in pixels.
+	 */
+	public HeadlessRenderer(ShapeStore store, Renderer renderer, int width,
+			int height) {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("frame size must be positive: "
+					+ width + "x" + height);
+		}
+		this.store = store;
+		this.renderer = renderer;
+		this.image = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_RGB);
+		store.setLimits(width, height);
+	}
+
+	/**
+	 * @param speedFactor
+	 *            The number of simulation steps per frame; like the
+	 *            SimulationClock's speed, it makes simulated time pass faster
+	 *            without making the steps bigger.
+	 */
+	public void setSpeedFactor(int speedFactor) {
+		this.speedFactor = speedFactor;
+	}
+
+	/**
+	 * Steps the Model and draws it, once per frame, for the given number of
+	 * frames.
+	 *
+	 * @param frames
+	 *            The number of frames to render.
+	 * @param callback
+	 *            Receives each frame; may be null.
+	 * @throws IOException
+	 *             If the callback fails; the frames up to that point are
+	 *             still counted.
+	 */
+	public void run(long frames, FrameCallback callback) throws IOException {
+		Graphics2D g = image.createGraphics();
+		framesRendered = 0;
+		long start = System.nanoTime();
+		try {
+			for (long frame = 0; frame < frames; frame++) {
+				for (int step = 0; step < speedFactor; step++) {
+					store.makeOneStep(1);
+				}
+				store.publishFrame();
+				renderer.paint(g, image.getWidth(), image.getHeight());
+				if (callback != null) {
+					callback.frameRendered(frame, image);
+				}
+				framesRendered++;
+			}
+		} finally {
+			elapsedNanos = System.nanoTime() - start;
+			g.dispose();
+		}
+	}
+
+	/**
+	 * @return The number of frames rendered by the most recent run.
+	 */
+	public long getFramesRendered() {
+		return framesRendered;
+	}
+
+	/**
+	 * @return The sustained throughput of the most recent run, including the
+	 *         time spent in the callback.
+	 */
+	public double getFramesPerSecond() {
+		return elapsedNanos == 0 ? 0 : framesRendered * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * Renders frames without a display and reports the throughput.
+	 *
+	 * @param args
+	 *            [-renderer name] [width height frames shapes [output]];
+	 *            if an output is given, every frame is exported to it through
+	 *            a FrameExporter: a path ending in ".gif" becomes an animated
+	 *            GIF, anything else a directory of numbered PNG files.
+	 *            Defaults to the java2d renderer, 800 by 700 pixels, 250
+	 *            frames and 16 shapes.
+	 * @throws IOException
+	 *             If a frame cannot be saved.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (System.getProperty("java.awt.headless") == null) {
+			System.setProperty("java.awt.headless", "true");
+		}
+		String rendererName = Renderers.DEFAULT;
+		if (args.length > 1 && args[0].equals("-renderer")) {
+			rendererName = args[1];
+			args = Arrays.copyOfRange(args, 2, args.length);
+		}
+		int width = args.length > 0 ? Integer.parseInt(args[0]) : 800;
+		int height = args.length > 1 ? Integer.parseInt(args[1]) : 700;
+		long frames = args.length > 2 ? Long.parseLong(args[2]) : 250;
+		int shapes = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+		File output = args.length > 4 ? new File(args[4]) : null;
+
+		ShapeStore store = new ShapeStore(shapes);
+		HeadlessRenderer headless = new HeadlessRenderer(store,
+				Renderers.forName(rendererName, store), width, height);
+		store.addShapes(shapes, true);
+		for (int i = 0; i < shapes; i++) {
+			Shape shape = store.get(i);
+			// the starting positions assume an 800 pixel window, so place
+			// and color each shape for this size the way Reset does
+			shape.clear();
+			shape.setShouldBeDrawn(true);
+			shape.start();
+		}
+
+		FrameExporter exporter = null;
+		if (output != null) {
+			// waits for the encoder rather than dropping frames
+			exporter = new FrameExporter(null, FrameEncoders
+					.forPath(output, SimulationClock.DEFAULT_PERIOD), width,
+					height, true, FrameExporter.DEFAULT_POOL_SIZE);
+		}
+		try {
+			headless.run(frames, exporter);
+		} finally {
+			if (exporter != null) {
+				exporter.close();
+			}
+		}
+		System.out.printf("%d frames of %d shapes at %dx%d with %s: "
+				+ "%.1f frames/s%n", headless.getFramesRendered(), shapes,
+				width, height, rendererName, headless.getFramesPerSecond());
+		if (exporter != null) {
+			System.out.println("export to " + output + ": "
+					+ exporter.summarize());
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package kaleidoscope;
+
+import java.util.Arrays;
+
+/**
+ * Counts durations in buckets whose width grows with the duration, so that
+ * anything from a nanosecond to hours can be recorded in a fixed amount of
+ * memory, without allocating, and with every percentile accurate to within
+ * half a percent. Recording and reading may happen on different threads.
+ */
+public class LatencyHistogram {
+	// each power of two is split into 2^SUB_BITS buckets
+	private static final int SUB_BITS = 7;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+	private final long[] counts = new long[BUCKETS];
+	private long count;
+	private long total;
+	private long max;
+
+	/**
+	 * Adds one duration to the histogram.
+	 *
+	 * @param nanos
+	 *            The duration, in nanoseconds; negative values count as 0.
+	 */
+	public synchronized void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts[bucketOf(nanos)]++;
+		count++;
+		total += nanos;
+		if (nanos > max) {
+			max = nanos;
+		}
+	}
+
+	/**
+	 * Forgets every duration recorded so far.
+	 */
+	public synchronized void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		total = 0;
+		max = 0;
+	}
+
+	/**
+	 * @return The number of durations recorded.
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return The longest duration recorded, in nanoseconds.
+	 */
+	public synchronized long getMax() {
+		return max;
+	}
+
+	/**
+	 * @return The mean of the durations recorded, in nanoseconds.
+	 */
+	public synchronized long getMean() {
+		return count == 0 ? 0 : total / count;
+	}
+
+	/**
+	 * @param percentile
+	 *            Between 0 and 100.
+	 * @return The duration that the given percentage of recorded durations do
+	 *         not exceed, in nanoseconds, or 0 if nothing has been recorded.
+	 */
+	public synchronized long getPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(count * Math.min(percentile, 100) / 100);
+		rank = Math.max(rank, 1);
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			seen += counts[b];
+			if (seen >= rank) {
+				return Math.min(middleOf(b), max);
+			}
+		}
+		return max;
+	}
+
+	private static int bucketOf(long value) {
+		int exponent = 63 - Long.numberOfLeadingZeros(value | 1);
+		if (exponent < SUB_BITS) {
+			return (int) value;
+		}
+		int shift = exponent - SUB_BITS;
+		return (shift + 1) * SUB_BUCKETS
+				+ (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	private static long middleOf(int bucket) {
+		int shift = bucket / SUB_BUCKETS - 1;
+		int sub = bucket % SUB_BUCKETS;
+		if (shift < 0) {
+			return sub;
+		}
+		long lowest = (long) (SUB_BUCKETS + sub) << shift;
+		return lowest + (1L << shift >>> 1);
+	}
+}
@@ -0,0 +1,70 @@
+package kaleidoscope;
+
+/**
+ * The motion the shapes have always had: each moves in a straight line at
+ * its own constant speed and bounces off the walls of the window.
+ */
+public class LinearMotion implements MotionModel {
+	// the range of speeds, in pixels per step, that shapes start at
+	public static final int MIN_SPEED = 2;
+	public static final int MAX_SPEED = 9;
+
+	@Override
+	public String getName() {
+		return "linear";
+	}
+
+	@Override
+	public int step(ShapeStore store, int from, int to, int speedFactor,
+			long step) {
+		int[] x = store.xPosition, y = store.yPosition;
+		int[] dx = store.xDelta, dy = store.yDelta;
+		int[] w = store.figureWidth, h = store.figureHeight;
+		boolean[] run = store.running;
+		int width = store.width, height = store.height;
+		int moved = 0;
+		for (int i = from; i < to; i++) {
+			if (run[i]) {
+				move(x, y, dx, dy, i, width - w[i], height - h[i],
+						speedFactor);
+				moved++;
+			}
+		}
+		return moved;
+	}
+
+	/**
+	 * Moves one shape by its speed, turning it back from any wall it
+	 * crosses. The other models use this once they have changed the speed.
+	 */
+	static void move(int[] x, int[] y, int[] dx, int[] dy, int i,
+			int xLimit, int yLimit, int speedFactor) {
+		x[i] += dx[i] * speedFactor;
+		if (x[i] < 0 || x[i] >= xLimit) {
+			dx[i] = -dx[i];
+			x[i] += dx[i] * speedFactor;
+		}
+		y[i] += dy[i] * speedFactor;
+		if (y[i] < 0 || y[i] >= yLimit) {
+			dy[i] = -dy[i];
+			y[i] += dy[i] * speedFactor;
+		}
+	}
+
+	/**
+	 * @return The speed brought to between MIN_SPEED and MAX_SPEED either
+	 *         way, in the same direction; a speed of 0 goes forwards.
+	 */
+	static int ordinary(int speed) {
+		int magnitude = Math.max(MIN_SPEED, Math.min(Math.abs(speed),
+				MAX_SPEED));
+		return speed < 0 ? -magnitude : magnitude;
+	}
+
+	/**
+	 * @return The speed limited to between -max and max.
+	 */
+	static int clamp(int speed, int max) {
+		return Math.max(-max, Math.min(speed, max));
+	}
+}
@@ -0,0 +1,289 @@
+package kaleidoscope;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * A Renderer that takes advantage of the kaleidoscope's symmetry. Every shape
+ * is drawn eight times, mirrored left to right, top to bottom and across the
+ * diagonal, so only one eighth of the window holds anything new. This
+ * renderer rasterizes just that wedge of the top left quadrant and builds the
+ * rest of the frame by copying pixels: first across the diagonal, then to the
+ * right half and finally to the bottom half.
+ * <p>
+ * A window that is not square is only symmetric across the diagonal within
+ * the square at its centre, so the parts of the quadrant outside that square
+ * are rasterized in full and only mirrored left to right and top to bottom.
+ * The wedge itself comes out exactly as the TileRenderer draws it. The
+ * other renderers place EIGHT_FOLD's copies as true mirror images too, but
+ * they sample the edges of ovals and polygons at the same offsets in every
+ * copy, which a mirror image turns around, so their copies can differ from
+ * this renderer's by a pixel along those edges; rectangles come out the
+ * same.
+ * <p>
+ * Only the kaleidoscope's own Symmetry, EIGHT_FOLD, mirrors this way. Under
+ * any other symmetry the whole frame is rasterized, with every copy of
+ * every shape, and nothing is mirrored.
+ */
+public class MirrorRenderer implements Renderer {
+	// height of the bands the wedge is cut into; each band is drawn as a
+	// rectangle, so smaller bands waste less work below the diagonal
+	private static final int BAND = 16;
+
+	private final ShapeStore store;
+	private final Rasterizer rasterizer = new Rasterizer();
+
+	private BufferedImage image;
+	private int[] pixels;
+	private int width, height;
+
+	// the top left quadrant, and the square at the centre of the window that
+	// is symmetric across its diagonal, in pixels
+	private int quadrantWidth, quadrantHeight;
+	private int squareX, squareY, squareSize;
+
+	// the rectangles that are rasterized, four values (x0, y0, x1, y1) each
+	private int[] regions = new int[0];
+	private int regionCount;
+
+	// scratch space
+	private final CopyBuffer copies = new CopyBuffer();
+	private final int[] vertexX = new int[4];
+	private final int[] vertexY = new int[4];
+
+	/**
+	 * Constructor.
+	 *
+	 * @param store
+	 *            The Model whose shapes are to be drawn.
+	 */
+	public MirrorRenderer(ShapeStore store) {
+		this.store = store;
+	}
+
+	@Override
+	public void setQuality(Quality quality) {
+		copies.quality = quality;
+	}
+
+	@Override
+	public boolean canApply(Quality quality) {
+		return !quality.dropsAntialiasing() && !quality.dropsResolution();
+	}
+
+	@Override
+	public void paint(Graphics g, int width, int height) {
+		if (width <= 0 || height <= 0) {
+			return;
+		}
+		render(width, height);
+		g.drawImage(image, 0, 0, null);
+	}
+
+	/**
+	 * Draws a frame into the offscreen image without showing it anywhere.
+	 *
+	 * @param width
+	 *            The width of the frame, in pixels.
+	 * @param height
+	 *            The height of the frame, in pixels.
+	 * @return The image holding the frame; it is reused by the next frame.
+	 */
+	public BufferedImage render(int width, int height) {
+		setSize(width, height);
+		FrameSnapshot frame = store.acquireSnapshot();
+		boolean mirrored;
+		try {
+			copies.update(frame, frame.getInterpolation());
+			mirrored = copies.symmetry == Symmetry.EIGHT_FOLD;
+			if (mirrored) {
+				for (int r = 0; r < regionCount; r++) {
+					target(r);
+					rasterizer.clear(0);
+				}
+			} else {
+				rasterizer.setTarget(pixels, width, 0, 0, width, height);
+				rasterizer.clear(0);
+			}
+			rasterizer.setAlpha(frame.opacity);
+			drawShapes(frame, mirrored);
+		} finally {
+			frame.release();
+		}
+		if (mirrored) {
+			mirrorDiagonal();
+			mirrorQuadrant();
+		}
+		return image;
+	}
+
+	/**
+	 * Makes the offscreen image and the regions to rasterize match the frame
+	 * size.
+	 */
+	private void setSize(int width, int height) {
+		if (image != null && width == this.width && height == this.height) {
+			return;
+		}
+		this.width = width;
+		this.height = height;
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+		quadrantWidth = (width + 1) / 2;
+		quadrantHeight = (height + 1) / 2;
+		squareSize = Math.min(quadrantWidth, quadrantHeight);
+		// the square touches the centre lines of the window, so it sits at
+		// the right of a wide quadrant and at the bottom of a tall one
+		int offset = (width - height) / 2;
+		squareX = Math.max(offset, 0);
+		squareY = Math.max(-offset, 0);
+
+		regions = new int[4 * ((squareSize + BAND - 1) / BAND + 2)];
+		regionCount = 0;
+		// the wedge on and above the diagonal of the square
+		for (int j = 0; j < squareSize; j += BAND) {
+			addRegion(squareX + j, squareY + j, squareX + squareSize, squareY
+					+ Math.min(j + BAND, squareSize));
+		}
+		// the rest of the quadrant, which only has mirror symmetry
+		addRegion(0, 0, squareX, quadrantHeight);
+		addRegion(squareX + squareSize, 0, quadrantWidth, quadrantHeight);
+		addRegion(0, 0, quadrantWidth, squareY);
+		addRegion(0, squareY + squareSize, quadrantWidth, quadrantHeight);
+	}
+
+	private void addRegion(int x0, int y0, int x1, int y1) {
+		if (x0 >= x1 || y0 >= y1) {
+			return;
+		}
+		int r = 4 * regionCount++;
+		regions[r] = x0;
+		regions[r + 1] = y0;
+		regions[r + 2] = x1;
+		regions[r + 3] = y1;
+	}
+
+	private void target(int region) {
+		int r = 4 * region;
+		rasterizer.setTarget(pixels, width, regions[r], regions[r + 1],
+				regions[r + 2], regions[r + 3]);
+	}
+
+	/**
+	 * Draws every copy of every visible shape into the regions it overlaps,
+	 * or into the whole frame if it is not to be mirrored, in the same order
+	 * as the other renderers.
+	 */
+	private void drawShapes(FrameSnapshot frame, boolean mirrored) {
+		int c = copies.copies;
+		int[] ox = copies.x, oy = copies.y;
+		int[] xs = vertexX, ys = vertexY;
+		Symmetry symmetry = copies.symmetry;
+		for (int i = 0, n = frame.size; i < n; i++) {
+			if (!copies.drawn[i]) {
+				continue;
+			}
+			byte type = frame.type[i];
+			int w = frame.figureWidth[i];
+			int h = frame.figureHeight[i];
+			int rgb = frame.color[i];
+			for (int k = 0, j = i * c; k < c; k++, j++) {
+				boolean transposed = symmetry.isTransposed(k);
+				int cw = transposed ? h : w;
+				int ch = transposed ? w : h;
+				int count = 0;
+				int x0, y0, x1, y1;
+				if (type == ShapeStore.CIRCLE || type == ShapeStore.RECTANGLE) {
+					x0 = ox[j];
+					y0 = oy[j];
+					x1 = x0 + cw;
+					y1 = y0 + ch;
+				} else {
+					count = ShapeRenderer.outline(type, transposed,
+							symmetry.isFlipped(k), ox[j], oy[j], w, h, xs, ys);
+					x0 = x1 = xs[0];
+					y0 = y1 = ys[0];
+					for (int v = 1; v < count; v++) {
+						x0 = Math.min(x0, xs[v]);
+						x1 = Math.max(x1, xs[v]);
+						y0 = Math.min(y0, ys[v]);
+						y1 = Math.max(y1, ys[v]);
+					}
+					x1++;
+					y1++;
+				}
+				if (!mirrored) {
+					fill(type, ox[j], oy[j], cw, ch, count, rgb);
+					continue;
+				}
+				if (x0 >= quadrantWidth || y0 >= quadrantHeight) {
+					continue;
+				}
+				for (int r = 0; r < regionCount; r++) {
+					int b = 4 * r;
+					if (x1 <= regions[b] || y1 <= regions[b + 1]
+							|| x0 >= regions[b + 2] || y0 >= regions[b + 3]) {
+						continue;
+					}
+					target(r);
+					fill(type, ox[j], oy[j], cw, ch, count, rgb);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fills one copy into the rasterizer's current target; polygons take
+	 * their vertices from the scratch space.
+	 */
+	private void fill(byte type, int x, int y, int w, int h, int count,
+			int rgb) {
+		switch (type) {
+		case ShapeStore.CIRCLE:
+			rasterizer.fillOval(x, y, w, h, rgb);
+			break;
+		case ShapeStore.RECTANGLE:
+			rasterizer.fillRect(x, y, w, h, rgb);
+			break;
+		default:
+			rasterizer.fillPolygon(vertexX, vertexY, count, rgb);
+		}
+	}
+
+	/**
+	 * Fills the part of the square below its diagonal from the part above.
+	 */
+	private void mirrorDiagonal() {
+		int[] p = pixels;
+		int stride = width;
+		int corner = squareY * stride + squareX;
+		for (int j = 1; j < squareSize; j++) {
+			int row = corner + j * stride;
+			int column = corner + j;
+			for (int i = 0; i < j; i++) {
+				p[row + i] = p[column + i * stride];
+			}
+		}
+	}
+
+	/**
+	 * Fills the right half of the top rows from the left half, then the
+	 * bottom rows from the top ones.
+	 */
+	private void mirrorQuadrant() {
+		int[] p = pixels;
+		int stride = width;
+		for (int y = 0; y < quadrantHeight; y++) {
+			int row = y * stride;
+			for (int x = quadrantWidth; x < width; x++) {
+				p[row + x] = p[row + width - 1 - x];
+			}
+		}
+		for (int y = quadrantHeight; y < height; y++) {
+			System.arraycopy(p, (height - 1 - y) * stride, p, y * stride,
+					width);
+		}
+	}
+}
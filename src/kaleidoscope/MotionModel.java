@@ -0,0 +1,38 @@
+package kaleidoscope;
+
+/**
+ * Decides how the shapes in a ShapeStore move from one step to the next.
+ * Rather than one shape at a time, a model is handed a batch of slots and
+ * moves every running shape in it, reading and writing the store's arrays
+ * directly, so the per-step work is a tight loop. A big store is split into
+ * batches that are stepped at the same time on different threads, so a
+ * model must only touch the slots in its batch, and must move each shape
+ * the same way whichever batch it falls in: where a shape goes may depend
+ * on its own slot, the window and the step number, never on the other
+ * shapes or on state shared between calls.
+ */
+public interface MotionModel {
+
+	/**
+	 * @return The name of the model, as given to MotionModels.forName.
+	 */
+	String getName();
+
+	/**
+	 * Moves every running shape in a batch of slots one step. The positions
+	 * before the step have already been saved by the store.
+	 *
+	 * @param store
+	 *            The Model whose shapes are to be moved.
+	 * @param from
+	 *            The first slot of the batch.
+	 * @param to
+	 *            One past the last slot of the batch.
+	 * @param speedFactor
+	 *            Multiplier applied to the shapes' speeds.
+	 * @param step
+	 *            The number of steps the store has taken before this one.
+	 * @return The number of shapes moved.
+	 */
+	int step(ShapeStore store, int from, int to, int speedFactor, long step);
+}
@@ -0,0 +1,42 @@
+package kaleidoscope;
+
+/**
+ * Creates MotionModels by name, so the way the shapes move can be chosen on
+ * the command line and changed while they run.
+ */
+public final class MotionModels {
+	// the model used if none is named
+	public static final String DEFAULT = "linear";
+
+	// the names accepted by forName, in the order the Motion button goes
+	// through them
+	public static final String[] NAMES = { "linear", "gravity", "attract",
+			"orbit", "noise" };
+
+	private MotionModels() {
+	}
+
+	/**
+	 * @param name
+	 *            One of NAMES.
+	 * @return A new model of the named kind, with its default settings.
+	 */
+	public static MotionModel forName(String name) {
+		if ("linear".equals(name)) {
+			return new LinearMotion();
+		}
+		if ("gravity".equals(name)) {
+			return new GravityMotion();
+		}
+		if ("attract".equals(name)) {
+			return new AttractorMotion();
+		}
+		if ("orbit".equals(name)) {
+			return new OrbitMotion();
+		}
+		if ("noise".equals(name)) {
+			return new NoiseMotion();
+		}
+		throw new IllegalArgumentException("unknown motion model: " + name);
+	}
+}
@@ -0,0 +1,130 @@
+package kaleidoscope;
+
+/**
+ * Lets the shapes drift on a flow field that changes smoothly over the
+ * window and over time. The field's direction at each point comes from
+ * value noise: random numbers on a lattice of points in space and time,
+ * blended smoothly between them. The random numbers are hashes of the
+ * lattice coordinates rather than draws from a shared Random, so every
+ * batch computes the same field without any coordination, and a run steps
+ * the same way however it is split. Each shape moves with the field at a
+ * speed of its own, taken from a hash of its id.
+ */
+public class NoiseMotion implements MotionModel {
+	// pixels between lattice points, and steps between them in time
+	public static final int DEFAULT_SCALE = 160;
+	public static final int STEPS_PER_CHANGE = 50;
+
+	// the slowest a shape moves, and the range of speeds above it, in pixels
+	// per step
+	private static final int MIN_SPEED = 2;
+	private static final int SPEEDS = 4;
+
+	// how many times round the direction turns from the lowest noise value
+	// to the highest, so that the field curls instead of flowing one way
+	private static final float TURNS = 2;
+
+	private final float scale;
+
+	/**
+	 * Creates a model with the default scale.
+	 */
+	public NoiseMotion() {
+		this(DEFAULT_SCALE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param scale
+	 *            The distance between lattice points, in pixels: the size of
+	 *            the field's swirls.
+	 */
+	public NoiseMotion(int scale) {
+		if (scale <= 0) {
+			throw new IllegalArgumentException("scale must be positive: "
+					+ scale);
+		}
+		this.scale = scale;
+	}
+
+	@Override
+	public String getName() {
+		return "noise";
+	}
+
+	@Override
+	public int step(ShapeStore store, int from, int to, int speedFactor,
+			long step) {
+		int[] x = store.xPosition, y = store.yPosition;
+		int[] dx = store.xDelta, dy = store.yDelta;
+		int[] w = store.figureWidth, h = store.figureHeight;
+		int[] id = store.idOf;
+		boolean[] run = store.running;
+		int width = store.width, height = store.height;
+		int time = (int) (step / STEPS_PER_CHANGE);
+		float t = smooth((float) (step % STEPS_PER_CHANGE)
+				/ STEPS_PER_CHANGE);
+		int moved = 0;
+		for (int i = from; i < to; i++) {
+			if (!run[i]) {
+				continue;
+			}
+			float angle = (float) (2 * Math.PI * TURNS)
+					* noise((x[i] + w[i] * 0.5f) / scale,
+							(y[i] + h[i] * 0.5f) / scale, time, t);
+			int speed = MIN_SPEED + (hash(id[i], 0, 0) >>> 8) % SPEEDS;
+			dx[i] = Math.round(speed * (float) Math.cos(angle));
+			dy[i] = Math.round(speed * (float) Math.sin(angle));
+			LinearMotion.move(x, y, dx, dy, i, width - w[i], height - h[i],
+					speedFactor);
+			moved++;
+		}
+		return moved;
+	}
+
+	/**
+	 * @return The noise at a point, between 0 and 1, blended between the
+	 *         lattice points around it in space and the lattice times either
+	 *         side of it, t of the way from one to the next.
+	 */
+	static float noise(float x, float y, int time, float t) {
+		int x0 = (int) Math.floor(x), y0 = (int) Math.floor(y);
+		float fx = smooth(x - x0), fy = smooth(y - y0);
+		float now = plane(x0, y0, fx, fy, time);
+		float next = plane(x0, y0, fx, fy, time + 1);
+		return now + (next - now) * t;
+	}
+
+	private static float plane(int x0, int y0, float fx, float fy, int time) {
+		float top = lerp(value(x0, y0, time), value(x0 + 1, y0, time), fx);
+		float bottom = lerp(value(x0, y0 + 1, time),
+				value(x0 + 1, y0 + 1, time), fx);
+		return lerp(top, bottom, fy);
+	}
+
+	private static float lerp(float a, float b, float t) {
+		return a + (b - a) * t;
+	}
+
+	// eases in and out of each lattice point, so the field has no creases
+	private static float smooth(float t) {
+		return t * t * (3 - 2 * t);
+	}
+
+	/**
+	 * @return The random number at a lattice point, between 0 and 1.
+	 */
+	private static float value(int x, int y, int time) {
+		return (hash(x, y, time) >>> 8) * (1f / (1 << 24));
+	}
+
+	private static int hash(int x, int y, int time) {
+		int h = x * 0x27d4eb2d ^ y * 0x165667b1 ^ time * 0x1b873593;
+		h ^= h >>> 15;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		return h ^ h >>> 16;
+	}
+}
@@ -0,0 +1,69 @@
+package kaleidoscope;
+
+/**
+ * Sends the shapes round the middle of the window in circles. Each keeps
+ * its distance from the middle and travels along its circle at its own
+ * speed, the sum of its speeds along the two axes, anticlockwise if it was
+ * moving right and clockwise if left; its speeds themselves are left alone,
+ * so switching back to another model sets it off as it was. A shape whose
+ * circle would take it out of the window is kept at the edge.
+ */
+public class OrbitMotion implements MotionModel {
+	// the furthest a shape turns in one step, in radians, however near the
+	// middle it is
+	private static final double MAX_TURN = 0.5;
+
+	@Override
+	public String getName() {
+		return "orbit";
+	}
+
+	@Override
+	public int step(ShapeStore store, int from, int to, int speedFactor,
+			long step) {
+		int[] x = store.xPosition, y = store.yPosition;
+		int[] dx = store.xDelta, dy = store.yDelta;
+		int[] w = store.figureWidth, h = store.figureHeight;
+		boolean[] run = store.running;
+		int width = store.width, height = store.height;
+		double middleX = width * 0.5, middleY = height * 0.5;
+		int moved = 0;
+		for (int i = from; i < to; i++) {
+			if (!run[i]) {
+				continue;
+			}
+			double ox = x[i] + w[i] * 0.5 - middleX;
+			double oy = y[i] + h[i] * 0.5 - middleY;
+			double radius = Math.sqrt(ox * ox + oy * oy);
+			if (radius < 1) {
+				// too near the middle to have a direction round it
+				LinearMotion.move(x, y, dx, dy, i, width - w[i], height
+						- h[i], speedFactor);
+				moved++;
+				continue;
+			}
+			int speed = Math.abs(dx[i]) + Math.abs(dy[i]);
+			double turn = Math.min((double) speed * speedFactor / radius,
+					MAX_TURN);
+			if (dx[i] < 0) {
+				turn = -turn;
+			}
+			double cos = Math.cos(turn), sin = Math.sin(turn);
+			double nx = ox * cos + oy * sin;
+			double ny = oy * cos - ox * sin;
+			x[i] = within((int) Math.round(middleX + nx - w[i] * 0.5), width
+					- w[i]);
+			y[i] = within((int) Math.round(middleY + ny - h[i] * 0.5), height
+					- h[i]);
+			moved++;
+		}
+		return moved;
+	}
+
+	/**
+	 * @return The position moved to between 0 and one less than the limit.
+	 */
+	private static int within(int position, int limit) {
+		return Math.max(0, Math.min(position, limit - 1));
+	}
+}
@@ -0,0 +1,45 @@
+package kaleidoscope;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Writes every frame to its own numbered PNG file in a directory:
+ * frame000000.png, frame000001.png and so on.
+ */
+public class PngSequenceEncoder implements FrameEncoder {
+	private final File directory;
+	private long frame;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param directory
+	 *            Where to write the files; created if it does not exist.
+	 * @throws IOException
+	 *             If the directory cannot be created.
+	 */
+	public PngSequenceEncoder(File directory) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("cannot create " + directory);
+		}
+		this.directory = directory;
+	}
+
+	@Override
+	public void encode(BufferedImage image) throws IOException {
+		File file = new File(directory, String.format("frame%06d.png", frame));
+		if (!ImageIO.write(image, "png", file)) {
+			throw new IOException("no PNG writer available");
+		}
+		frame++;
+	}
+
+	@Override
+	public void close() {
+		// every frame is a complete file already
+	}
+}
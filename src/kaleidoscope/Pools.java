@@ -0,0 +1,52 @@
+package kaleidoscope;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * The ForkJoinPool that the renderers and the store share when they are not
+ * given a pool of their own, so that however many of them are created there
+ * is only ever one set of worker threads, one per processor. The pool is
+ * never shut down: its threads are daemons, started only when work is
+ * handed to it and stopped again once they have been idle for a while, so
+ * it neither keeps the program running nor holds threads it does not use.
+ * <p>
+ * A pool passed to a constructor instead belongs to the caller, who shuts
+ * it down once everything using it is finished with. Long jobs that run
+ * beside the interactive ones, such as posters, get a background pool, so
+ * that they neither queue ahead of a frame in the shared pool nor take
+ * every processor from it.
+ */
+public final class Pools {
+	public static final ForkJoinPool SHARED = new ForkJoinPool();
+
+	private Pools() {
+	}
+
+	/**
+	 * Creates a pool for long background work: one worker fewer than there
+	 * are processors, though at least one, each at the lowest priority, so
+	 * that the clock, the painting and the shared pool keep up while it
+	 * runs.
+	 *
+	 * @param name
+	 *            The start of the workers' thread names.
+	 * @return The pool, which the caller shuts down.
+	 */
+	public static ForkJoinPool newBackground(final String name) {
+		int workers = Math.max(1,
+				Runtime.getRuntime().availableProcessors() - 1);
+		return new ForkJoinPool(workers,
+				new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+					@Override
+					public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+						ForkJoinWorkerThread thread = new ForkJoinWorkerThread(
+								pool) {
+						};
+						thread.setName(name + "-" + thread.getPoolIndex());
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				}, null, false);
+	}
+}
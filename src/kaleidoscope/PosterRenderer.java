@@ -0,0 +1,495 @@
+package kaleidoscope;
+
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Draws the Model as it is at one moment at any size, for printing, without
+ * ever holding the whole picture in memory. The shapes are scaled up to the
+ * poster, keeping the shape of the window and centred on the poster, and
+ * the poster is drawn in horizontal bands of about DEFAULT_BAND_PIXELS
+ * pixels each by Rasterizers, as the TileRenderer draws its tiles.
+ * <p>
+ * The bands are handed to an ImageIO writer as a RenderedImage that draws
+ * them as the writer asks for rows, top to bottom. A few band buffers are
+ * allocated for each poster and reused in turn: while the writer encodes
+ * one band, the next ones are drawn in parallel on a ForkJoinPool, one
+ * buffer per thread. So the memory used depends on the width of the poster
+ * and the number of shapes, but not on its height or its number of pixels.
+ * <p>
+ * A path ending in ".tif" or ".tiff" is written as TIFF, which needs a Java
+ * with a TIFF writer; anything else is written as PNG.
+ */
+public class PosterRenderer {
+	// the longer side of a poster if no size is given, in pixels
+	public static final int DEFAULT_SIZE = 16384;
+
+	// where posters are written if no path is given
+	public static final String DEFAULT_PATH = "kaleidoscope-poster.png";
+
+	// pixels in each band buffer, unless the poster is wider than that
+	public static final int DEFAULT_BAND_PIXELS = 1 << 21;
+
+	private static final int[] MASKS = { 0xff0000, 0x00ff00, 0x0000ff };
+	private static final ColorModel COLOR_MODEL = new DirectColorModel(24,
+			MASKS[0], MASKS[1], MASKS[2]);
+
+	private final ShapeStore store;
+	private final int bandPixels;
+	private final ForkJoinPool pool;
+
+	// the shapes scaled up to the poster, and where their copies go; the
+	// band tasks read them
+	private final FrameSnapshot frame = new FrameSnapshot();
+	private final CopyBuffer copies = new CopyBuffer();
+	// per copy, indexed like the copies: the first row it touches and the
+	// row after the last
+	private int[] copyTop = new int[0];
+	private int[] copyBottom = new int[0];
+
+	// the poster being drawn, and the rows in each band
+	private int width, height;
+	private int bandRows;
+
+	// scratch space for working out the rows a copy touches
+	private final int[] vertexX = new int[4];
+	private final int[] vertexY = new int[4];
+
+	// the most recent poster
+	private int bands;
+	private int bufferCount;
+	private long elapsedNanos;
+
+	/**
+	 * Creates a renderer using the default band size, drawing bands in
+	 * Pools.SHARED. That suits a program doing nothing else while the poster
+	 * is drawn; one that is also showing the shapes should give the renderer
+	 * a pool from Pools.newBackground() instead, as the Controller does.
+	 *
+	 * @param store
+	 *            The Model whose shapes are to be drawn.
+	 */
+	public PosterRenderer(ShapeStore store) {
+		this(store, DEFAULT_BAND_PIXELS, Pools.SHARED);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param store
+	 *            The Model whose shapes are to be drawn.
+	 * @param bandPixels
+	 *            The number of pixels in each band buffer; a band is always
+	 *            at least one row, however wide the poster.
+	 * @param pool
+	 *            The pool in which the bands are drawn; the caller shuts it
+	 *            down once the renderer is finished with.
+	 */
+	public PosterRenderer(ShapeStore store, int bandPixels, ForkJoinPool pool) {
+		if (bandPixels <= 0) {
+			throw new IllegalArgumentException("band size must be positive: "
+					+ bandPixels);
+		}
+		this.store = store;
+		this.bandPixels = bandPixels;
+		this.pool = pool;
+	}
+
+	/**
+	 * Draws the shapes as they are now into an image file.
+	 *
+	 * @param file
+	 *            The file to write; replaced if it exists.
+	 * @param width
+	 *            The width of the poster, in pixels.
+	 * @param height
+	 *            The height of the poster, in pixels.
+	 * @throws IOException
+	 *             If there is no writer for the file's format, or the file
+	 *             cannot be written.
+	 */
+	public synchronized void render(File file, int width, int height)
+			throws IOException {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("poster size must be positive: "
+					+ width + "x" + height);
+		}
+		String name = file.getName().toLowerCase();
+		String format = name.endsWith(".tif") || name.endsWith(".tiff") ? "tiff"
+				: "png";
+		Iterator<ImageWriter> writers = ImageIO
+				.getImageWritersByFormatName(format);
+		if (!writers.hasNext()) {
+			throw new IOException("no image writer for " + format);
+		}
+		ImageWriter writer = writers.next();
+		long start = System.nanoTime();
+		place(width, height);
+		if (file.exists() && !file.delete()) {
+			throw new IOException("cannot replace " + file);
+		}
+		ImageOutputStream out = ImageIO.createImageOutputStream(file);
+		if (out == null) {
+			writer.dispose();
+			throw new IOException("cannot create " + file);
+		}
+		Bands image = new Bands();
+		try {
+			writer.setOutput(out);
+			writer.write(image);
+		} finally {
+			image.finish();
+			writer.dispose();
+			out.close();
+		}
+		elapsedNanos = System.nanoTime() - start;
+	}
+
+	/**
+	 * Scales the current frame up to the poster and works out where every
+	 * copy of every shape goes, and which rows it touches.
+	 */
+	private void place(int width, int height) {
+		this.width = width;
+		this.height = height;
+		bandRows = Math.max(1, Math.min(bandPixels / width, height));
+		FrameSnapshot source = store.acquireSnapshot();
+		try {
+			double scale = Math.min((double) width
+					/ Math.max(1, source.width), (double) height
+					/ Math.max(1, source.height));
+			frame.copyScaled(source, source.getInterpolation(), scale);
+		} finally {
+			source.release();
+		}
+		copies.update(frame, 1);
+		int n = frame.size;
+		int c = copies.copies;
+		int[] ox = copies.x, oy = copies.y;
+		Symmetry symmetry = copies.symmetry;
+		boolean[] drawn = copies.drawn;
+		if (copyTop.length < n * c) {
+			copyTop = new int[n * c];
+			copyBottom = new int[n * c];
+		}
+		// the picture keeps the window's shape, so one pair of sides is
+		// left blank
+		int dx = (width - frame.width) / 2;
+		int dy = (height - frame.height) / 2;
+		for (int i = 0; i < n; i++) {
+			if (!drawn[i]) {
+				continue;
+			}
+			int w = frame.figureWidth[i];
+			int h = frame.figureHeight[i];
+			for (int k = 0; k < c; k++) {
+				int copy = i * c + k;
+				ox[copy] += dx;
+				oy[copy] += dy;
+				boolean transposed = symmetry.isTransposed(k);
+				byte type = frame.type[i];
+				if (type == ShapeStore.CIRCLE || type == ShapeStore.RECTANGLE) {
+					copyTop[copy] = oy[copy];
+					copyBottom[copy] = oy[copy] + (transposed ? w : h);
+				} else {
+					int count = ShapeRenderer.outline(type, transposed,
+							symmetry.isFlipped(k), ox[copy], oy[copy], w, h,
+							vertexX, vertexY);
+					int y0 = vertexY[0], y1 = vertexY[0];
+					for (int v = 1; v < count; v++) {
+						y0 = Math.min(y0, vertexY[v]);
+						y1 = Math.max(y1, vertexY[v]);
+					}
+					copyTop[copy] = y0;
+					copyBottom[copy] = y1 + 1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Clears one band and fills every copy that touches it, in the order
+	 * the copies are drawn on screen.
+	 *
+	 * @param band
+	 *            The number of the band, from the top.
+	 * @param pixels
+	 *            The band's rows, each as wide as the poster; the first is
+	 *            row 0 of the band.
+	 */
+	private void renderBand(int band, int[] pixels) {
+		int top = band * bandRows;
+		int bottom = Math.min(top + bandRows, height);
+		Rasterizer r = new Rasterizer();
+		r.setTarget(pixels, width, 0, 0, width, bottom - top);
+		r.clear(0);
+		r.setAlpha(frame.opacity);
+		int[] xs = new int[4], ys = new int[4];
+		int n = frame.size;
+		int c = copies.copies;
+		Symmetry symmetry = copies.symmetry;
+		boolean[] drawn = copies.drawn;
+		for (int i = 0; i < n; i++) {
+			if (!drawn[i]) {
+				continue;
+			}
+			int w = frame.figureWidth[i];
+			int h = frame.figureHeight[i];
+			int rgb = frame.color[i];
+			for (int k = 0; k < c; k++) {
+				int copy = i * c + k;
+				if (copyBottom[copy] <= top || copyTop[copy] >= bottom) {
+					continue;
+				}
+				// the band's first row is row 0 of its buffer
+				int x = copies.x[copy], y = copies.y[copy] - top;
+				boolean transposed = symmetry.isTransposed(k);
+				switch (frame.type[i]) {
+				case ShapeStore.CIRCLE:
+					r.fillOval(x, y, transposed ? h : w, transposed ? w : h,
+							rgb);
+					break;
+				case ShapeStore.RECTANGLE:
+					r.fillRect(x, y, transposed ? h : w, transposed ? w : h,
+							rgb);
+					break;
+				default:
+					int count = ShapeRenderer.outline(frame.type[i],
+							transposed, symmetry.isFlipped(k), x, y, w, h, xs,
+							ys);
+					r.fillPolygon(xs, ys, count, rgb);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return A one-line summary of the most recent poster.
+	 */
+	public synchronized String summarize() {
+		return String.format("%dx%d in %d bands of %d rows, %.1f MB of band"
+				+ " buffers, %.1f s", width, height, bands, bandRows,
+				bufferCount * 4.0 * width * bandRows / (1 << 20),
+				elapsedNanos / 1e9);
+	}
+
+	/**
+	 * Draws one band into its buffer.
+	 */
+	private class BandTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int band;
+		private final int[] pixels;
+
+		BandTask(int band, int[] pixels) {
+			this.band = band;
+			this.pixels = pixels;
+		}
+
+		@Override
+		protected void compute() {
+			renderBand(band, pixels);
+		}
+	}
+
+	/**
+	 * The poster as the image writer sees it: an image whose tiles are the
+	 * bands, drawn only when the writer asks for their rows. Rows must be
+	 * asked for from the top down, as the PNG and TIFF writers do, since a
+	 * band's buffer is reused once rows below it are wanted.
+	 */
+	private class Bands implements RenderedImage {
+		private final int[][] buffers;
+		private final BandTask[] tasks;
+		// the oldest band still in a buffer, and the next band to start
+		private int first, next;
+
+		Bands() {
+			bands = (height + bandRows - 1) / bandRows;
+			int count = Math.min(pool.getParallelism() + 1, bands);
+			// two bands at once, for reads that cross from one to the next
+			count = Math.max(count, Math.min(2, bands));
+			bufferCount = count;
+			buffers = new int[count][width * bandRows];
+			tasks = new BandTask[count];
+		}
+
+		/**
+		 * @param band
+		 *            The band wanted.
+		 * @return The buffer holding the band, once it is drawn.
+		 */
+		private int[] band(int band) {
+			if (band < first) {
+				throw new IllegalStateException("rows read out of order: band "
+						+ band + " is gone");
+			}
+			// the writer has finished with the bands whose buffers are
+			// needed to get this one
+			while (band >= first + buffers.length) {
+				tasks[first % buffers.length].join();
+				first++;
+			}
+			while (next < bands && next < first + buffers.length) {
+				int slot = next % buffers.length;
+				tasks[slot] = new BandTask(next, buffers[slot]);
+				pool.execute(tasks[slot]);
+				next++;
+			}
+			int slot = band % buffers.length;
+			tasks[slot].join();
+			return buffers[slot];
+		}
+
+		/**
+		 * Waits for the bands still being drawn, so that none is drawn
+		 * after the poster is done with.
+		 */
+		void finish() {
+			for (int b = first; b < next; b++) {
+				tasks[b % buffers.length].quietlyJoin();
+			}
+		}
+
+		@Override
+		public Raster getData(Rectangle rect) {
+			WritableRaster raster = Raster.createPackedRaster(
+					DataBuffer.TYPE_INT, rect.width, rect.height, MASKS,
+					new Point(rect.x, rect.y));
+			int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+			for (int y = 0; y < rect.height; y++) {
+				int row = rect.y + y;
+				int[] pixels = band(row / bandRows);
+				System.arraycopy(pixels, row % bandRows * width + rect.x, data,
+						y * rect.width, rect.width);
+			}
+			return raster;
+		}
+
+		@Override
+		public Raster getData() {
+			return getData(new Rectangle(0, 0, width, height));
+		}
+
+		@Override
+		public Raster getTile(int tileX, int tileY) {
+			int top = tileY * bandRows;
+			return getData(new Rectangle(0, top, width, Math.min(bandRows,
+					height - top)));
+		}
+
+		@Override
+		public WritableRaster copyData(WritableRaster raster) {
+			if (raster == null) {
+				return (WritableRaster) getData();
+			}
+			raster.setRect(getData(raster.getBounds()));
+			return raster;
+		}
+
+		@Override
+		public Vector<RenderedImage> getSources() {
+			return null;
+		}
+
+		@Override
+		public Object getProperty(String name) {
+			return Image.UndefinedProperty;
+		}
+
+		@Override
+		public String[] getPropertyNames() {
+			return null;
+		}
+
+		@Override
+		public ColorModel getColorModel() {
+			return COLOR_MODEL;
+		}
+
+		@Override
+		public SampleModel getSampleModel() {
+			return COLOR_MODEL.createCompatibleSampleModel(width, bandRows);
+		}
+
+		@Override
+		public int getWidth() {
+			return width;
+		}
+
+		@Override
+		public int getHeight() {
+			return height;
+		}
+
+		@Override
+		public int getMinX() {
+			return 0;
+		}
+
+		@Override
+		public int getMinY() {
+			return 0;
+		}
+
+		@Override
+		public int getNumXTiles() {
+			return 1;
+		}
+
+		@Override
+		public int getNumYTiles() {
+			return bands;
+		}
+
+		@Override
+		public int getMinTileX() {
+			return 0;
+		}
+
+		@Override
+		public int getMinTileY() {
+			return 0;
+		}
+
+		@Override
+		public int getTileWidth() {
+			return width;
+		}
+
+		@Override
+		public int getTileHeight() {
+			return bandRows;
+		}
+
+		@Override
+		public int getTileGridXOffset() {
+			return 0;
+		}
+
+		@Override
+		public int getTileGridYOffset() {
+			return 0;
+		}
+	}
+}
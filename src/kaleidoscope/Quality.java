@@ -0,0 +1,116 @@
+package kaleidoscope;
+
+/**
+ * How much detail a Renderer draws. The levels run from full quality down,
+ * each giving up one more thing to draw a frame faster: antialiasing, then
+ * most of the copies of each shape, then half of the shapes, then half of
+ * the resolution. Only the SpriteRenderer antialiases, so only it has
+ * anything to give up at the first level, and only the ShapeRenderer gives
+ * up resolution, by drawing into a smaller image and stretching it over the
+ * window; the raster renderers fill every pixel themselves at full size.
+ * Each Renderer reports through canApply() whether it has anything to give
+ * up at a level, and a QualityGovernor passes over the levels it has not.
+ * <p>
+ * The shapes left out are every other slot, and the copies left out are all
+ * but FEWER_COPIES of them, so what is drawn is still a symmetric picture of
+ * the same Model, only sparser.
+ */
+public final class Quality {
+	// copies drawn of each shape at the levels that draw fewer
+	public static final int FEWER_COPIES = 4;
+
+	private static final Symmetry FEWER = Symmetry.of(FEWER_COPIES);
+
+	// every level, from the best to the fastest
+	public static final Quality[] LEVELS = {
+			new Quality(0, "full", true, Symmetry.MAX_ORDER, 1, 1),
+			new Quality(1, "no antialiasing", false, Symmetry.MAX_ORDER, 1, 1),
+			new Quality(2, FEWER_COPIES + " copies", false, FEWER_COPIES, 1,
+					1),
+			new Quality(3, "half the shapes", false, FEWER_COPIES, 2, 1),
+			new Quality(4, "half resolution", false, FEWER_COPIES, 2, 2) };
+
+	public static final Quality FULL = LEVELS[0];
+
+	private final int level;
+	private final String name;
+	private final boolean antialiased;
+	private final int maxCopies;
+	private final int shapeStride;
+	private final int scale;
+
+	private Quality(int level, String name, boolean antialiased,
+			int maxCopies, int shapeStride, int scale) {
+		this.level = level;
+		this.name = name;
+		this.antialiased = antialiased;
+		this.maxCopies = maxCopies;
+		this.shapeStride = shapeStride;
+		this.scale = scale;
+	}
+
+	/**
+	 * @return The index of this level in LEVELS: 0 for full quality.
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return Whether the edges of shapes are antialiased.
+	 */
+	public boolean isAntialiased() {
+		return antialiased;
+	}
+
+	/**
+	 * @return The most copies of each shape drawn.
+	 */
+	public int getMaxCopies() {
+		return maxCopies;
+	}
+
+	/**
+	 * @return 1 if every shape is drawn, n if only every nth slot is.
+	 */
+	public int getShapeStride() {
+		return shapeStride;
+	}
+
+	/**
+	 * @return How many window pixels each drawn pixel covers, across and
+	 *         down.
+	 */
+	public int getScale() {
+		return scale;
+	}
+
+	/**
+	 * @return Whether this level draws without the antialiasing that the
+	 *         level above it draws with.
+	 */
+	public boolean dropsAntialiasing() {
+		return level > 0 && LEVELS[level - 1].antialiased && !antialiased;
+	}
+
+	/**
+	 * @return Whether this level draws fewer pixels than the level above it.
+	 */
+	public boolean dropsResolution() {
+		return level > 0 && scale > LEVELS[level - 1].scale;
+	}
+
+	/**
+	 * @param symmetry
+	 *            The symmetry of the frame being drawn.
+	 * @return The symmetry to draw it with at this level.
+	 */
+	Symmetry limit(Symmetry symmetry) {
+		return symmetry.getOrder() <= maxCopies ? symmetry : FEWER;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
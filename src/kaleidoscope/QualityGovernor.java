@@ -0,0 +1,231 @@
+package kaleidoscope;
+
+import java.util.Observable;
+
+/**
+ * Holds the frame rate up by lowering the Quality a renderer draws at when
+ * frames cost too much, and raising it again once there is time to spare.
+ * The cost of a frame is the running average of a tick plus that of a
+ * paint, as FrameStats passes them on; the budget is the time between
+ * frames at the target frame rate.
+ * <p>
+ * The level drops one step once DEGRADE_FRAMES frames in a row have used
+ * more than HIGH of the budget, and rises one step once frames have used
+ * less than LOW of it for long enough. So that the level does not see-saw
+ * between one that is too slow and one that is fast enough, the wait before
+ * rising doubles every time a rise has to be undone, and goes back to
+ * RESTORE_FRAMES once a rise has lasted. After every change, the averages
+ * are given SETTLE_FRAMES frames to catch up before anything else is
+ * decided.
+ * <p>
+ * Given the Renderer it governs, the governor steps straight past the
+ * levels that the renderer cannot apply, since they would cost a wait at a
+ * level that draws no faster than the one before it.
+ * <p>
+ * Observers are told of every change, with the new Quality, on the thread
+ * that recorded the paint.
+ */
+public class QualityGovernor extends Observable {
+	// the frame rate of the simulation clock
+	public static final int DEFAULT_TARGET_FPS = 1000
+			/ SimulationClock.DEFAULT_PERIOD;
+
+	// shares of the budget above which frames are too slow, and below which
+	// there is time to spare
+	public static final double HIGH = 0.9;
+	public static final double LOW = 0.5;
+
+	// frames in a row over budget before the level drops, and the fewest
+	// frames with time to spare before it rises
+	public static final int DEGRADE_FRAMES = 5;
+	public static final int RESTORE_FRAMES = 50;
+	// the longest the wait before rising can grow to
+	private static final int MAX_RESTORE_FRAMES = 1600;
+	private static final int SETTLE_FRAMES = 16;
+
+	// the weight of each new duration in the running averages
+	private static final double WEIGHT = 1 / 8.0;
+
+	private final int targetFps;
+	private final long budget;
+	// the renderer governed, or null to use every level
+	private final Renderer renderer;
+
+	// all guarded by this
+	private double tickCost = -1;
+	private double paintCost = -1;
+	private int level;
+	private int framesAtLevel;
+	private int overBudget;
+	private int underBudget;
+	private int restoreFrames = RESTORE_FRAMES;
+	// whether the latest change was a rise that has not yet lasted
+	private boolean restored;
+	private long changes;
+
+	/**
+	 * Creates a governor that uses every level; starts at full quality.
+	 *
+	 * @param targetFps
+	 *            The number of frames per second to hold.
+	 */
+	public QualityGovernor(int targetFps) {
+		this(targetFps, null);
+	}
+
+	/**
+	 * Constructor; starts at full quality.
+	 *
+	 * @param targetFps
+	 *            The number of frames per second to hold.
+	 * @param renderer
+	 *            The renderer whose quality is governed, which only the
+	 *            levels it can apply are used for; null to use every level.
+	 */
+	public QualityGovernor(int targetFps, Renderer renderer) {
+		if (targetFps <= 0) {
+			throw new IllegalArgumentException("frame rate must be positive: "
+					+ targetFps);
+		}
+		this.targetFps = targetFps;
+		this.renderer = renderer;
+		budget = 1000000000L / targetFps;
+	}
+
+	/**
+	 * Records one tick.
+	 *
+	 * @param duration
+	 *            How long the tick took, in nanoseconds.
+	 */
+	public synchronized void recordTick(long duration) {
+		tickCost = average(tickCost, duration);
+	}
+
+	/**
+	 * Records one paint, and changes the level if it is time to.
+	 *
+	 * @param duration
+	 *            How long the paint took, in nanoseconds.
+	 */
+	public void recordPaint(long duration) {
+		Quality changed;
+		synchronized (this) {
+			paintCost = average(paintCost, duration);
+			changed = decide();
+		}
+		if (changed != null) {
+			setChanged();
+			notifyObservers(changed);
+		}
+	}
+
+	private static double average(double average, long duration) {
+		return average < 0 ? duration : average + (duration - average)
+				* WEIGHT;
+	}
+
+	/**
+	 * @return The new level, or null if it stays as it is.
+	 */
+	private Quality decide() {
+		framesAtLevel++;
+		if (restored && framesAtLevel >= restoreFrames) {
+			// the rise has lasted
+			restored = false;
+			restoreFrames = RESTORE_FRAMES;
+		}
+		if (framesAtLevel < SETTLE_FRAMES) {
+			return null;
+		}
+		double cost = getFrameCost();
+		if (cost > budget * HIGH) {
+			overBudget++;
+			underBudget = 0;
+			int lower = nextLevel(1);
+			if (overBudget >= DEGRADE_FRAMES && lower >= 0) {
+				if (restored) {
+					restoreFrames = Math.min(restoreFrames * 2,
+							MAX_RESTORE_FRAMES);
+					restored = false;
+				}
+				return setLevel(lower);
+			}
+		} else if (cost < budget * LOW) {
+			underBudget++;
+			overBudget = 0;
+			int higher = nextLevel(-1);
+			if (underBudget >= restoreFrames && higher >= 0) {
+				restored = true;
+				return setLevel(higher);
+			}
+		} else {
+			overBudget = 0;
+			underBudget = 0;
+		}
+		return null;
+	}
+
+	/**
+	 * @param step
+	 *            1 to look below the current level, -1 to look above it.
+	 * @return The nearest level that way that the renderer can apply, or -1
+	 *         if there is none.
+	 */
+	private int nextLevel(int step) {
+		for (int l = level + step; l >= 0 && l < Quality.LEVELS.length;
+				l += step) {
+			if (renderer == null || renderer.canApply(Quality.LEVELS[l])) {
+				return l;
+			}
+		}
+		return -1;
+	}
+
+	private Quality setLevel(int level) {
+		this.level = level;
+		framesAtLevel = 0;
+		overBudget = 0;
+		underBudget = 0;
+		changes++;
+		return Quality.LEVELS[level];
+	}
+
+	/**
+	 * @return The level renderers should draw at now.
+	 */
+	public synchronized Quality getQuality() {
+		return Quality.LEVELS[level];
+	}
+
+	/**
+	 * @return The number of frames per second held.
+	 */
+	public int getTargetFps() {
+		return targetFps;
+	}
+
+	/**
+	 * @return The running average cost of a frame, tick and paint, in
+	 *         nanoseconds.
+	 */
+	public synchronized double getFrameCost() {
+		return Math.max(tickCost, 0) + Math.max(paintCost, 0);
+	}
+
+	/**
+	 * @return The number of times the level has changed.
+	 */
+	public synchronized long getChanges() {
+		return changes;
+	}
+
+	/**
+	 * @return A one-line summary of the level and what frames cost.
+	 */
+	public synchronized String summarize() {
+		return String.format("quality %d (%s), frame %.1f of %.1f ms,"
+				+ " %d changes", level, Quality.LEVELS[level],
+				getFrameCost() / 1e6, budget / 1e6, changes);
+	}
+}
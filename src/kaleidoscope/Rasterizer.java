@@ -0,0 +1,226 @@
+package kaleidoscope;
+
+import java.util.Arrays;
+
+/**
+ * Fills shapes directly into an int[] of packed RGB pixels, clipped to a
+ * rectangle of that buffer, one horizontal span at a time. The sampling rules
+ * follow Java2D's non-antialiased fills: rectangles come out exactly the same
+ * as fillRect, and ovals and polygons differ from fillOval and fillPolygon by
+ * at most the odd edge pixel, so frames drawn either way can be compared.
+ * <p>
+ * Opaque spans are filled with Arrays.fill, which HotSpot compiles to a
+ * vectorized store loop. Shapes drawn with less than full opacity are
+ * blended into the buffer with blend() instead, as the TrailBuffer fades its
+ * trails; it works on the red and blue channels together in one int and on
+ * green in another, so each pixel takes two multiplies rather than three, in
+ * a plain loop that HotSpot can unroll and vectorize too.
+ * <p>
+ * A Rasterizer is not thread-safe, but any number of them may draw into
+ * disjoint clip rectangles of the same buffer at once.
+ */
+final class Rasterizer {
+	// Java2D samples polygon edges a quarter of a pixel in from the pixel
+	// corners, and ovals at the corners themselves
+	private static final double POLYGON_SAMPLE = 0.25;
+
+	private int[] pixels;
+	private int stride;
+	private int clipX0, clipY0, clipX1, clipY1;
+
+	// opacity of the shapes drawn, from 0 to 256 so that a blend can divide
+	// by shifting; 256 is opaque
+	private int opacity = 256;
+
+	/**
+	 * Sets the buffer to draw into and the part of it that may be changed.
+	 *
+	 * @param pixels
+	 *            The pixels, row by row.
+	 * @param stride
+	 *            The number of pixels in each row.
+	 * @param x0
+	 *            The left edge of the clip rectangle.
+	 * @param y0
+	 *            The top edge of the clip rectangle.
+	 * @param x1
+	 *            The right edge of the clip rectangle (exclusive).
+	 * @param y1
+	 *            The bottom edge of the clip rectangle (exclusive).
+	 */
+	void setTarget(int[] pixels, int stride, int x0, int y0, int x1, int y1) {
+		this.pixels = pixels;
+		this.stride = stride;
+		this.clipX0 = x0;
+		this.clipY0 = y0;
+		this.clipX1 = x1;
+		this.clipY1 = y1;
+	}
+
+	/**
+	 * Sets how opaque the shapes drawn from now on are; clear() is always
+	 * opaque.
+	 *
+	 * @param alpha
+	 *            The opacity, from 0 (invisible) to 255 (opaque).
+	 */
+	void setAlpha(int alpha) {
+		alpha = Math.max(0, Math.min(alpha, 255));
+		// 255 maps to 256, so opaque stays exact
+		opacity = alpha + (alpha >> 7);
+	}
+
+	/**
+	 * Fills the whole clip rectangle.
+	 *
+	 * @param rgb
+	 *            The packed color.
+	 */
+	void clear(int rgb) {
+		for (int y = clipY0; y < clipY1; y++) {
+			int row = y * stride;
+			Arrays.fill(pixels, row + clipX0, row + clipX1, rgb);
+		}
+	}
+
+	/**
+	 * Fills a rectangle, like Graphics.fillRect.
+	 *
+	 * @param x
+	 * @param y
+	 * @param w
+	 * @param h
+	 * @param rgb
+	 *            The packed color.
+	 */
+	void fillRect(int x, int y, int w, int h, int rgb) {
+		int top = Math.max(y, clipY0);
+		int bottom = Math.min(y + h, clipY1);
+		for (int row = top; row < bottom; row++) {
+			span(row, x, x + w, rgb);
+		}
+	}
+
+	/**
+	 * Fills the oval that fits in a rectangle, like Graphics.fillOval.
+	 *
+	 * @param x
+	 * @param y
+	 * @param w
+	 * @param h
+	 * @param rgb
+	 *            The packed color.
+	 */
+	void fillOval(int x, int y, int w, int h, int rgb) {
+		if (w <= 0 || h <= 0) {
+			return;
+		}
+		double rx = w / 2.0, ry = h / 2.0;
+		double cx = x + rx, cy = y + ry;
+		// a row is filled where it passes strictly inside the oval
+		int top = Math.max(y + 1, clipY0);
+		int bottom = Math.min(y + h, clipY1);
+		for (int row = top; row < bottom; row++) {
+			double dy = (row - cy) / ry;
+			double half = rx * Math.sqrt(1 - dy * dy);
+			int left = (int) Math.floor(cx - half) + 1;
+			int right = (int) Math.ceil(cx + half);
+			span(row, left, right, rgb);
+		}
+	}
+
+	/**
+	 * Fills a convex polygon, like Graphics.fillPolygon.
+	 *
+	 * @param xs
+	 *            The x coordinates of the vertices.
+	 * @param ys
+	 *            The y coordinates of the vertices.
+	 * @param n
+	 *            The number of vertices.
+	 * @param rgb
+	 *            The packed color.
+	 */
+	void fillPolygon(int[] xs, int[] ys, int n, int rgb) {
+		int minY = ys[0], maxY = ys[0];
+		for (int v = 1; v < n; v++) {
+			minY = Math.min(minY, ys[v]);
+			maxY = Math.max(maxY, ys[v]);
+		}
+		int top = Math.max((int) Math.ceil(minY - POLYGON_SAMPLE), clipY0);
+		int bottom = Math.min((int) Math.ceil(maxY - POLYGON_SAMPLE), clipY1);
+		for (int row = top; row < bottom; row++) {
+			double sy = row + POLYGON_SAMPLE;
+			double left = Double.MAX_VALUE, right = -Double.MAX_VALUE;
+			for (int v = 0; v < n; v++) {
+				int x0 = xs[v], y0 = ys[v];
+				int w = v + 1 == n ? 0 : v + 1;
+				int x1 = xs[w], y1 = ys[w];
+				if (y0 == y1 || sy < Math.min(y0, y1)
+						|| sy >= Math.max(y0, y1)) {
+					continue;
+				}
+				double cross = x0 + (sy - y0) * (x1 - x0) / (y1 - y0);
+				left = Math.min(left, cross);
+				right = Math.max(right, cross);
+			}
+			if (left <= right) {
+				span(row, (int) Math.ceil(left - POLYGON_SAMPLE),
+						(int) Math.ceil(right - POLYGON_SAMPLE), rgb);
+			}
+		}
+	}
+
+	/**
+	 * Fills part of one row, clipped to the clip rectangle.
+	 *
+	 * @param row
+	 *            The row, already known to be inside the clip rectangle.
+	 * @param x0
+	 *            The first pixel to fill.
+	 * @param x1
+	 *            The pixel after the last one to fill.
+	 * @param rgb
+	 *            The packed color.
+	 */
+	private void span(int row, int x0, int x1, int rgb) {
+		x0 = Math.max(x0, clipX0);
+		x1 = Math.min(x1, clipX1);
+		if (x0 >= x1) {
+			return;
+		}
+		int offset = row * stride;
+		if (opacity == 256) {
+			Arrays.fill(pixels, offset + x0, offset + x1, rgb);
+		} else if (opacity > 0) {
+			blend(pixels, offset + x0, offset + x1, rgb, opacity);
+		}
+	}
+
+	/**
+	 * Blends a color over part of a buffer.
+	 *
+	 * @param pixels
+	 *            The buffer.
+	 * @param from
+	 *            The first index to blend.
+	 * @param to
+	 *            The index after the last one to blend.
+	 * @param rgb
+	 *            The packed color.
+	 * @param opacity
+	 *            The color's weight, from 0 to 256.
+	 */
+	static void blend(int[] pixels, int from, int to, int rgb, int opacity) {
+		int keep = 256 - opacity;
+		// the color's share of each channel, worked out once per span; red
+		// and blue are 16 bits apart, so their products cannot overlap
+		int redBlue = (rgb & 0xff00ff) * opacity;
+		int green = (rgb & 0x00ff00) * opacity;
+		for (int i = from; i < to; i++) {
+			int p = pixels[i];
+			pixels[i] = ((redBlue + (p & 0xff00ff) * keep) >>> 8 & 0xff00ff)
+					| ((green + (p & 0x00ff00) * keep) >>> 8 & 0x00ff00);
+		}
+	}
+}
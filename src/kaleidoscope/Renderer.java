@@ -0,0 +1,46 @@
+package kaleidoscope;
+
+import java.awt.Graphics;
+
+/**
+ * Something that can draw the kaleidoscope: the background and every visible
+ * shape in a ShapeStore, with all their reflections. The Views, the
+ * HeadlessRenderer and the other outputs all draw through a Renderer, so the
+ * way the picture is produced can be swapped without changing them.
+ */
+public interface Renderer {
+
+	/**
+	 * Clears the given area to the background color and draws every visible
+	 * shape.
+	 * 
+	 * @param g
+	 *            The Graphics on which to paint things.
+	 * @param width
+	 *            The width of the area to paint, in pixels.
+	 * @param height
+	 *            The height of the area to paint, in pixels.
+	 */
+	void paint(Graphics g, int width, int height);
+
+	/**
+	 * Changes how much detail is drawn, from the next paint on. Renderers
+	 * start at Quality.FULL.
+	 *
+	 * @param quality
+	 *            The level to draw at.
+	 */
+	void setQuality(Quality quality);
+
+	/**
+	 * Tells whether drawing at a level would change anything, so that a
+	 * QualityGovernor need not spend frames trying a level that draws the
+	 * same as the one above it.
+	 *
+	 * @param quality
+	 *            The level.
+	 * @return Whether this renderer gives up what the level gives up; always
+	 *         true of Quality.FULL.
+	 */
+	boolean canApply(Quality quality);
+}
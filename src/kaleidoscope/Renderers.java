@@ -0,0 +1,40 @@
+package kaleidoscope;
+
+/**
+ * Creates Renderers by name, so the drawing path can be chosen on the command
+ * line.
+ */
+public final class Renderers {
+	// the renderer used if none is named
+	public static final String DEFAULT = "java2d";
+
+	// the names accepted by forName
+	public static final String[] NAMES = { "java2d", "tiles", "mirror",
+			"sprites" };
+
+	private Renderers() {
+	}
+
+	/**
+	 * @param name
+	 *            One of NAMES.
+	 * @param store
+	 *            The Model whose shapes are to be drawn.
+	 * @return A new renderer of the named kind.
+	 */
+	public static Renderer forName(String name, ShapeStore store) {
+		if ("java2d".equals(name)) {
+			return new ShapeRenderer(store);
+		}
+		if ("tiles".equals(name)) {
+			return new TileRenderer(store);
+		}
+		if ("mirror".equals(name)) {
+			return new MirrorRenderer(store);
+		}
+		if ("sprites".equals(name)) {
+			return new SpriteRenderer(store);
+		}
+		throw new IllegalArgumentException("unknown renderer: " + name);
+	}
+}
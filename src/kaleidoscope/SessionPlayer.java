@@ -0,0 +1,208 @@
+package kaleidoscope;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.swing.JFrame;
+
+/**
+ * Plays a recorded session into a ShapeStore, forward or backward at any
+ * speed, so that a View shows the run exactly as it was. Like the
+ * SimulationClock, the player ticks once per period; each tick moves the
+ * playback position by the speed, in frames, and shows the frame it lands
+ * on, with the shapes drawn on their way there from the frame shown before.
+ * The period is the one the clock was stepping at when the frame shown was
+ * recorded, so a session plays back at the rate it was recorded, including
+ * any changes of speed made during it. Playback stops at either end of the
+ * session.
+ */
+public class SessionPlayer {
+	private final SessionReader reader;
+	private final ShapeStore store;
+
+	private Timer timer;
+	private TimerTask tick;
+	// the period of the frame shown, kept while frames recorded with the
+	// clock stopped are shown
+	private int period = SimulationClock.DEFAULT_PERIOD;
+
+	// frames moved per tick, negative to play backward; the position is
+	// fractional so that slow speeds show each frame for several ticks
+	private double speed = 1;
+	private double position;
+	private int shown = -1;
+
+	/**
+	 * Constructor; shows the first frame.
+	 *
+	 * @param reader
+	 *            The session to play.
+	 * @param store
+	 *            The store to play it into; it should not be changed in any
+	 *            other way.
+	 */
+	public SessionPlayer(SessionReader reader, ShapeStore store) {
+		this.reader = reader;
+		this.store = store;
+		if (reader.getFrameCount() > 0) {
+			seek(0);
+		}
+	}
+
+	/**
+	 * @param speed
+	 *            The number of frames to move per tick: 1 plays at the
+	 *            recorded rate, 2 at twice it, -1 backward, 0.5 at half speed.
+	 */
+	public synchronized void setSpeed(double speed) {
+		this.speed = speed;
+	}
+
+	/**
+	 * @return The number of frames moved per tick.
+	 */
+	public synchronized double getSpeed() {
+		return speed;
+	}
+
+	/**
+	 * @return The time between ticks, in milliseconds.
+	 */
+	public synchronized int getPeriod() {
+		return period;
+	}
+
+	/**
+	 * Shows one frame straight away.
+	 *
+	 * @param frame
+	 *            The number of the frame, from 0 to the session's frame
+	 *            count - 1.
+	 */
+	public synchronized void seek(int frame) {
+		position = frame;
+		show(frame);
+	}
+
+	/**
+	 * @return The number of the frame shown.
+	 */
+	public synchronized int getPosition() {
+		return shown;
+	}
+
+	/**
+	 * Starts (or resumes) playing. Does nothing if already playing.
+	 */
+	public synchronized void start() {
+		if (tick != null) {
+			return;
+		}
+		if (timer == null) {
+			timer = new Timer("SessionPlayer", true);
+		}
+		schedule();
+	}
+
+	/**
+	 * Starts the timer task at the current period.
+	 */
+	private void schedule() {
+		tick = new TimerTask() {
+			@Override
+			public void run() {
+				tick();
+			}
+		};
+		timer.scheduleAtFixedRate(tick, period, period);
+	}
+
+	/**
+	 * Stops playing; the frame shown stays.
+	 */
+	public synchronized void pause() {
+		if (tick != null) {
+			tick.cancel();
+			tick = null;
+			timer.purge();
+			store.setStepTiming(0, 0);
+			store.publishFrame();
+		}
+	}
+
+	/**
+	 * @return true if the session is playing.
+	 */
+	public synchronized boolean isPlaying() {
+		return tick != null;
+	}
+
+	private synchronized void tick() {
+		int last = reader.getFrameCount() - 1;
+		position = Math.max(0, Math.min(position + speed, last));
+		int frame = (int) position;
+		if (frame != shown) {
+			show(frame);
+		}
+		if (speed > 0 && frame == last || speed < 0 && frame == 0) {
+			pause();
+		}
+	}
+
+	/**
+	 * Shows a frame, and ticks from now on at the period it was recorded at.
+	 */
+	private void show(int frame) {
+		long nanos = reader.getNanosPerStep(frame);
+		if (nanos > 0) {
+			int recorded = (int) Math.max(1, nanos / 1000000);
+			if (recorded != period) {
+				period = recorded;
+				if (tick != null) {
+					tick.cancel();
+					schedule();
+				}
+			}
+		}
+		if (tick != null) {
+			store.setStepTiming(System.nanoTime(), period * 1000000L);
+		}
+		reader.load(frame, store);
+		shown = frame;
+	}
+
+	/**
+	 * Plays a recorded session in a window of its own.
+	 *
+	 * @param args
+	 *            "file [speed]": the session file, and the frames to move per
+	 *            tick (1 if omitted; negative plays from the end backward).
+	 * @throws IOException
+	 *             If the session cannot be read.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("usage: SessionPlayer file [speed]");
+			return;
+		}
+		SessionReader reader = new SessionReader(new File(args[0]));
+		double speed = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+		ShapeStore store = new ShapeStore();
+		View view = new View(store, Renderers.forName(Renderers.DEFAULT,
+				store));
+		store.addObserver(view);
+		SessionPlayer player = new SessionPlayer(reader, store);
+		player.setSpeed(speed);
+		if (speed < 0 && reader.getFrameCount() > 0) {
+			player.seek(reader.getFrameCount() - 1);
+		}
+		JFrame frame = new JFrame("Kaleidoscope - " + args[0]);
+		frame.add(view);
+		frame.setSize(800, 800);
+		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		frame.setVisible(true);
+		player.start();
+	}
+}
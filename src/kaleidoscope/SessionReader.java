@@ -0,0 +1,188 @@
+package kaleidoscope;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a session written by a SessionRecorder, one frame at a time in any
+ * order. The session file and its index are memory-mapped, so seeking costs
+ * one lookup in the index and the decoding of the records from the nearest
+ * keyframe before it, never more than a keyframe interval of them. Reading
+ * the frame after the one just read decodes a single record, so playing
+ * forward costs no more than recording did; playing backward goes back to
+ * the keyframe each time.
+ * <p>
+ * A reader is not safe for use by more than one thread at a time.
+ */
+public class SessionReader implements Closeable {
+	private final RandomAccessFile logFile;
+	private final RandomAccessFile indexFile;
+	private final MappedByteBuffer log;
+	private final MappedByteBuffer index;
+	private final int frames;
+	private final int keyframeInterval;
+
+	// the frame last decoded and the one before it, which may be the base of
+	// the next; the number of the frame last decoded, -1 for none
+	private ShapeState current = new ShapeState();
+	private ShapeState spare = new ShapeState();
+	private int position = -1;
+
+	/**
+	 * Opens a session file and its index.
+	 *
+	 * @param file
+	 *            The session file.
+	 * @throws IOException
+	 *             If either file cannot be read, is not a session, or is
+	 *             too large to map.
+	 */
+	public SessionReader(File file) throws IOException {
+		logFile = new RandomAccessFile(file, "r");
+		try {
+			indexFile = new RandomAccessFile(new File(file.getPath()
+					+ SessionRecorder.INDEX_SUFFIX), "r");
+		} catch (IOException e) {
+			logFile.close();
+			throw e;
+		}
+		try {
+			log = map(logFile);
+			index = map(indexFile);
+			if (log.limit() < SessionRecorder.HEADER_SIZE
+					|| log.getInt(0) != SessionRecorder.MAGIC) {
+				throw new IOException(file + " is not a kaleidoscope session");
+			}
+			if (log.getInt(4) != SessionRecorder.VERSION) {
+				throw new IOException(file + " is version " + log.getInt(4)
+						+ ", not " + SessionRecorder.VERSION);
+			}
+			keyframeInterval = log.getInt(8);
+			// records whose offset was written but which were not finished
+			// are left out
+			int count = index.limit() / 8;
+			while (count > 0 && !complete(count - 1)) {
+				count--;
+			}
+			frames = count;
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	private static MappedByteBuffer map(RandomAccessFile file)
+			throws IOException {
+		long length = file.length();
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("sessions over 2 GB cannot be mapped");
+		}
+		return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+				length);
+	}
+
+	private boolean complete(int frame) {
+		long offset = index.getLong(frame * 8);
+		return offset + SessionRecorder.LENGTH_SIZE <= log.limit()
+				&& offset + SessionRecorder.LENGTH_SIZE
+						+ log.getInt((int) offset) <= log.limit();
+	}
+
+	/**
+	 * @return The number of frames in the session.
+	 */
+	public int getFrameCount() {
+		return frames;
+	}
+
+	/**
+	 * Decodes one frame of the session.
+	 *
+	 * @param frame
+	 *            The number of the frame, from 0 to getFrameCount() - 1.
+	 * @return The frame; it is reused by the next call.
+	 */
+	ShapeState read(int frame) {
+		if (frame < 0 || frame >= frames) {
+			throw new IndexOutOfBoundsException("frame " + frame + " of "
+					+ frames);
+		}
+		if (frame == position) {
+			return current;
+		}
+		int keyframe = frame - frame % keyframeInterval;
+		// carries on from the frame last read when that is nearer than the
+		// keyframe
+		int from = position >= keyframe && position < frame ? position + 1
+				: keyframe;
+		for (int f = from; f <= frame; f++) {
+			ShapeState next = spare;
+			next.readDelta(f == keyframe ? null : current, record(f));
+			spare = current;
+			current = next;
+			position = f;
+		}
+		return current;
+	}
+
+	/**
+	 * @return The record of one frame, positioned at its delta.
+	 */
+	private ByteBuffer record(int frame) {
+		int offset = (int) index.getLong(frame * 8);
+		ByteBuffer record = log.duplicate();
+		int length = record.getInt(offset);
+		record.limit(offset + SessionRecorder.LENGTH_SIZE + length);
+		record.position(offset + SessionRecorder.LENGTH_SIZE);
+		return record;
+	}
+
+	/**
+	 * Makes a store show one frame of the session, and publishes it.
+	 *
+	 * @param frame
+	 *            The number of the frame, from 0 to getFrameCount() - 1.
+	 * @param store
+	 *            The store to show it in, as StateClient does.
+	 */
+	public void load(int frame, ShapeStore store) {
+		store.load(read(frame));
+		store.publishFrame();
+	}
+
+	/**
+	 * @param frame
+	 *            The number of a frame in the session.
+	 * @return The number the recorded store gave that frame when it was
+	 *         published.
+	 */
+	public long getPublishedFrame(int frame) {
+		return read(frame).sequence;
+	}
+
+	/**
+	 * @param frame
+	 *            The number of a frame in the session.
+	 * @return The time a step lasted when that frame was published, in
+	 *         nanoseconds, or 0 if the clock was stopped.
+	 */
+	public long getNanosPerStep(int frame) {
+		return read(frame).nanosPerStep;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			logFile.close();
+		} finally {
+			if (indexFile != null) {
+				indexFile.close();
+			}
+		}
+	}
+}
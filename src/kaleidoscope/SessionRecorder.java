@@ -0,0 +1,282 @@
+package kaleidoscope;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Records every frame a ShapeStore publishes to a session file, so that a
+ * run can be played back exactly with a SessionReader. The shapes' random
+ * starting positions, sizes and colours cannot be reproduced from a seed,
+ * so what is recorded is the state itself: every shape's position, size,
+ * colour, type and visibility, the window size and the symmetry.
+ * <p>
+ * The publishing thread only copies the frame into a ShapeState from a
+ * fixed pool and hands it to a writer thread, which encodes and writes it;
+ * if the writer falls so far behind that the pool is empty, the frame is
+ * dropped and counted, and the next frame recorded is encoded against the
+ * last one written.
+ * <p>
+ * The session file is append-only: a header (MAGIC, VERSION and the
+ * keyframe interval, as ints), then one record per frame, each a four-byte
+ * length followed by a ShapeState delta. Every KEYFRAME_INTERVAL-th record
+ * is a keyframe; the others are deltas against the record before. Beside it
+ * an index file, named after it with INDEX_SUFFIX, holds the offset of
+ * every record as a long, so a reader finds any record in one lookup and
+ * decodes at most a keyframe interval of records to reach it.
+ */
+public class SessionRecorder implements Observer, Closeable {
+	public static final int MAGIC = 0x4b414c53;
+	public static final int VERSION = 1;
+	public static final String INDEX_SUFFIX = ".idx";
+
+	// records between keyframes
+	public static final int KEYFRAME_INTERVAL = 16;
+
+	// frames that can be waiting to be written
+	public static final int DEFAULT_POOL_SIZE = 16;
+
+	// bytes of the header, and of each record's length
+	static final int HEADER_SIZE = 12;
+	static final int LENGTH_SIZE = 4;
+
+	// offsets gathered before they are written to the index
+	private static final int INDEX_BATCH = 512;
+
+	private final FileChannel log;
+	private final FileChannel index;
+
+	// frames ready to copy into, and frames waiting to be written
+	private final BlockingQueue<ShapeState> free;
+	private final BlockingQueue<ShapeState> filled;
+	// put on the filled queue to stop the writer thread
+	private final ShapeState end = new ShapeState();
+	private final Thread thread;
+
+	// used only by the writer thread: the frame last written, which is not
+	// in the pool
+	private ShapeState previous = new ShapeState();
+	private ByteBuffer record = ByteBuffer.allocate(0);
+	private final ByteBuffer offsets = ByteBuffer.allocate(INDEX_BATCH * 8);
+	private long position = HEADER_SIZE;
+
+	private volatile boolean closed;
+	private volatile long recorded;
+	private volatile long dropped;
+	private volatile long bytesWritten;
+	private volatile IOException failure;
+
+	/**
+	 * Creates a session file and its index, replacing any that exist, and
+	 * starts the thread that writes them.
+	 *
+	 * @param file
+	 *            The session file.
+	 * @throws IOException
+	 *             If either file cannot be created.
+	 */
+	public SessionRecorder(File file) throws IOException {
+		this(file, DEFAULT_POOL_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file
+	 *            The session file.
+	 * @param poolSize
+	 *            The number of frames that can be waiting to be written.
+	 * @throws IOException
+	 *             If either file cannot be created.
+	 */
+	public SessionRecorder(File file, int poolSize) throws IOException {
+		if (poolSize <= 0) {
+			throw new IllegalArgumentException("pool size must be positive: "
+					+ poolSize);
+		}
+		log = open(file);
+		try {
+			index = open(new File(file.getPath() + INDEX_SUFFIX));
+		} catch (IOException e) {
+			log.close();
+			throw e;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).putInt(KEYFRAME_INTERVAL);
+		header.flip();
+		while (header.hasRemaining()) {
+			log.write(header);
+		}
+		free = new ArrayBlockingQueue<ShapeState>(poolSize);
+		filled = new ArrayBlockingQueue<ShapeState>(poolSize + 1);
+		for (int i = 0; i < poolSize; i++) {
+			free.add(new ShapeState());
+		}
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeAll();
+			}
+		}, "SessionRecorder");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static FileChannel open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		return raf.getChannel();
+	}
+
+	/**
+	 * Copies the frame just published and queues it for writing; never waits
+	 * for the file.
+	 *
+	 * @see java.util.Observer#update(java.util.Observable, java.lang.Object)
+	 */
+	@Override
+	public synchronized void update(Observable obs, Object arg) {
+		if (closed) {
+			return;
+		}
+		ShapeState state = free.poll();
+		if (state == null) {
+			dropped++;
+			return;
+		}
+		FrameSnapshot frame = ((ShapeStore) obs).acquireSnapshot();
+		try {
+			state.copy(frame, frame.getFrame());
+		} finally {
+			frame.release();
+		}
+		filled.add(state);
+	}
+
+	/**
+	 * The writer thread: encodes and writes frames in the order they were
+	 * published, until told to stop.
+	 */
+	private void writeAll() {
+		try {
+			while (true) {
+				ShapeState state = filled.take();
+				if (state == end) {
+					return;
+				}
+				try {
+					if (failure == null) {
+						write(state);
+						// the frame just written is the base of the next
+						ShapeState written = previous;
+						previous = state;
+						state = written;
+					}
+				} catch (IOException e) {
+					failure = e;
+				} finally {
+					free.add(state);
+				}
+			}
+		} catch (InterruptedException e) {
+			// stopping anyway
+		}
+	}
+
+	private void write(ShapeState state) throws IOException {
+		int capacity = LENGTH_SIZE + ShapeState.maxDeltaSize(state.size);
+		if (record.capacity() < capacity) {
+			record = ByteBuffer.allocate(Math.max(capacity,
+					record.capacity() * 2));
+		}
+		record.clear();
+		record.position(LENGTH_SIZE);
+		boolean keyframe = recorded % KEYFRAME_INTERVAL == 0;
+		state.writeDelta(keyframe ? null : previous, record);
+		record.putInt(0, record.position() - LENGTH_SIZE);
+		record.flip();
+		int length = record.remaining();
+		while (record.hasRemaining()) {
+			log.write(record);
+		}
+		offsets.putLong(position);
+		if (!offsets.hasRemaining()) {
+			flushIndex();
+		}
+		position += length;
+		bytesWritten = position;
+		recorded++;
+	}
+
+	private void flushIndex() throws IOException {
+		offsets.flip();
+		while (offsets.hasRemaining()) {
+			index.write(offsets);
+		}
+		offsets.clear();
+	}
+
+	/**
+	 * Stops recording, writes every frame already copied, and closes the
+	 * files.
+	 *
+	 * @throws IOException
+	 *             If any frame could not be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			filled.put(end);
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			if (failure == null) {
+				flushIndex();
+			}
+		} catch (IOException e) {
+			failure = e;
+		}
+		log.close();
+		index.close();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * @return The number of frames written.
+	 */
+	public long getRecordedFrames() {
+		return recorded;
+	}
+
+	/**
+	 * @return The number of frames dropped because the writer was behind.
+	 */
+	public long getDroppedFrames() {
+		return dropped;
+	}
+
+	/**
+	 * @return A one-line summary of the recording so far.
+	 */
+	public String summarize() {
+		long frames = recorded;
+		return String.format("%d frames recorded, %d dropped, %.1f bytes/frame",
+				frames, dropped, frames == 0 ? 0.0 : (double) (bytesWritten
+						- HEADER_SIZE) / frames);
+	}
+}
@@ -1,242 +1,235 @@
 package kaleidoscope;
 
-import java.util.Observable;
-import java.util.Random;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.awt.Color;
 
 /**
- * This is the Model class for a kaleidoscope program. It is an Observable,
- * which means that it can notifyObservers that something in the
- * model has changed, and they should take appropriate actions.
+ * A handle onto one shape in a {@link ShapeStore}. The shape's state lives in
+ * the store's arrays; this class only remembers the shape's id, which the
+ * store maps to whichever slot the shape is in now. The store keeps one
+ * handle per id and hands it out again when the id is reused, so a handle
+ * must not be used once its shape has been removed.
  *
  * @author Josh Kessler
  * @author Kelley Loder
   * @author David Matuszek
  */
-public class Shape extends Observable {
-    private int xPosition;
-    private int yPosition;
-    public int xLimit, yLimit;
-    private int xDelta;
-    private int yDelta;
-    private Timer timer;
-
-    public int figureWidth = 20;
-    public int figureHeight = 20;
-    
-    //Multiplier used with xDelta and yDelta to speed up/slow down shapes.
-    public int speedFactor = 1;
-    //Used to determine when to randomize colors on objects.
-    public boolean colorChangeClicked;
-    public int colorR, colorG, colorB;
-    
-    //Used in shape constructor to tell it how to draw a particular shape
-    public String shapeType;
-    
-    //Used to determine how many shapes should appear on-screen.
-    public boolean shouldBeDrawn;
-
-    /*
-     */
-    
-    /**
-     * Constructor for figures to draw on screen; randomizes figure's location, size, and speed.
-     * @param shapeType
-     * @param shouldBeDrawn
-     */
-    public Shape(String shapeType, boolean shouldBeDrawn) {
-    	this.shapeType = shapeType;
-    	this.shouldBeDrawn = shouldBeDrawn;
-    	
-    	Random r = new Random();
-        //Starting x and y positions are hard-coded relative to starting size of window
-        //so reflections will appear in correct portion of the screen.
-    	xPosition = r.nextInt(405) + 390;
-    	yPosition = r.nextInt(390) + 5;
-    	xDelta = r.nextInt(8) + 2;
-    	yDelta = r.nextInt(8) + 2;
-    	figureWidth = r.nextInt(30) + 20;
-    	figureHeight = r.nextInt(30) + 20;
-    }    
-    
-    /**
-     * Sets the "walls" that the shape should bounce off from.
-     * 
+public class Shape {
+    private final ShapeStore store;
+    private final int id;
+
+    /**
+     * Creates a handle; use {@link ShapeStore#add(byte, boolean)} to create
+     * a new shape.
+     * @param store The store that holds the shape's state.
+     * @param id The id of the shape in the store.
+     */
+    Shape(ShapeStore store, int id) {
+    	this.store = store;
+    	this.id = id;
+    }
+
+    /**
+     * @return The slot that this shape is in now; it changes when another
+     *         shape is removed.
+     */
+    public int getIndex() {
+        return store.slotOf[id];
+    }
+
+    /**
+     * @return The id of this shape, which stays the same while it is in the
+     *         store.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Removes the shape from its store; this handle must not be used again.
+     */
+    public void remove() {
+        store.remove(getIndex());
+    }
+
+    /**
+     * Sets the "walls" that every shape in the store should bounce off from.
+     *
      * @param xLimit The position (in pixels) of the wall on the right.
      * @param yLimit The position (in pixels) of the floor.
      */
     public void setLimits(int xLimit, int yLimit) {
-        this.xLimit = xLimit - figureWidth;
-        this.yLimit = yLimit - figureHeight;
-        xPosition = Math.min(xPosition, xLimit);
-        yPosition = Math.min(yPosition, yLimit);
+        store.setLimits(xLimit, yLimit);
     }
 
     /**
      * @return The shape's X position.
      */
     public int getX() {
-        return xPosition;
+        return store.xPosition[getIndex()];
     }
 
     /**
      * @return The shape's Y position.
      */
     public int getY() {
-        return yPosition;
+        return store.yPosition[getIndex()];
     }
-    
+
+    /**
+     * @return The shape's width, in pixels.
+     */
+    public int getFigureWidth() {
+        return store.figureWidth[getIndex()];
+    }
+
+    /**
+     * @return The shape's height, in pixels.
+     */
+    public int getFigureHeight() {
+        return store.figureHeight[getIndex()];
+    }
+
+    /**
+     * @return The shape's color.
+     */
+    public Color getColor() {
+        return new Color(store.color[getIndex()]);
+    }
+
+    /**
+     * @return One of "circle", "rectangle", "triangle" or "diamond".
+     */
+    public String getShapeType() {
+        return ShapeStore.TYPE_NAMES[store.type[getIndex()]];
+    }
+
+    /**
+     * @return Whether the shape appears on screen.
+     */
+    public boolean shouldBeDrawn() {
+        return store.shouldBeDrawn[getIndex()];
+    }
+
+    /**
+     * @param shouldBeDrawn Whether the shape should appear on screen.
+     */
+    public void setShouldBeDrawn(boolean shouldBeDrawn) {
+        store.setShouldBeDrawn(getIndex(), shouldBeDrawn);
+    }
+
     /**
      * @return The shape's horizontal distance from the midline of the window.
      */
     public int getLenFromXOrigin() {
-    	return xPosition - (xLimit - figureWidth)/ 2;
+    	return store.getLenFromXOrigin(getIndex());
     }
-    
+
     /**
      * @return The shape's vertical distance from the midline of the window.
      */
     public int getLenFromYOrigin() {
-    	return yPosition - (yLimit - figureHeight) / 2;
+    	return store.getLenFromYOrigin(getIndex());
     }
-    
+
     /**
 	 * @return returns a reflected x coordinate
-	 *         
+	 *
 	 */
     public int getNegX() {
-    	return xLimit / 2 - getLenFromXOrigin();
+    	return store.getNegX(getIndex());
     }
-    
+
     /**
 	 * @return returns a reflected y coordinate
-	 *         
+	 *
 	 */
     public int getNegY() {
-    	return yLimit / 2 - getLenFromYOrigin();
+    	return store.getNegY(getIndex());
     }
-    
+
     /**
 	 * @return returns a reflected x coordinate
-	 *         
+	 *
 	 */
     public int getInvX() {
-    	return yLimit / 2 - getLenFromXOrigin();
+    	return store.getInvX(getIndex());
     }
-    
+
     /**
 	 * @return returns a reflected y coordinate
-	 *         
+	 *
 	 */
     public int getInvY() {
-    	return xLimit / 2 - getLenFromYOrigin();
+    	return store.getInvY(getIndex());
     }
-    
+
     /**
 	 * @return returns a reflected x coordinate
-	 *         
+	 *
 	 */
     public int getNegInvX() {
-    	return yLimit / 2 + getLenFromXOrigin();
+    	return store.getNegInvX(getIndex());
     }
-    
+
     /**
 	 * @return returns a reflected y coordinate
-	 *         
+	 *
 	 */
     public int getNegInvY() {
-    	return xLimit / 2 + getLenFromYOrigin();
+    	return store.getNegInvY(getIndex());
     }
-    
+
    /**
-     * Tells shapes to start moving using Timer and TimerTask and calls makeOneStep
-     * 
+     * Tells the shape to start moving; the clock that steps the store moves
+     * it on every tick.
+     *
      */
     public void start() {
-        timer = new Timer(true);
-        timer.schedule(new Strobe(), 0, 40); // 25 times a second  
+        store.running[getIndex()] = true;
     }
-    
+
     /**
-     * Tells each shape to stop where it is.
+     * Tells the shape to stop where it is.
      */
     public void pause() {
-    	timer.cancel();
+    	store.running[getIndex()] = false;
     }
-    
+
     /**
-     * Tells each shape to advance one step in the direction that it is moving.
+     * Advances the shape one step in the direction that it is moving.
      * If it hits a wall, its direction of movement changes.
+     *
+     * @param speedFactor Multiplier applied to the shape's xDelta and yDelta.
      */
-    public void makeOneStep() {
-        // Do the work
-        xPosition += xDelta * speedFactor;
-        if (xPosition < 0 || xPosition >= xLimit) {
-            xDelta = -xDelta;
-            xPosition += xDelta * speedFactor;
-        }
-        yPosition += yDelta * speedFactor;
-        if (yPosition < 0 || yPosition >= yLimit) {
-            yDelta = -yDelta;
-            yPosition += yDelta * speedFactor;
-        }
-        // Notify observers
-        setChanged();
-        notifyObservers();
-    }
-    
-    /**
-     * Speeds up movement of each shape.
-     */
-    public void speedUp() {
-    	this.speedFactor++;
-    }
-    
-    /**
-     * Slows down movement of each shape.
-     */
-    public void slowDown() {
-    	this.speedFactor--;
+    public void makeOneStep(int speedFactor) {
+        store.makeOneStep(getIndex(), speedFactor);
     }
-    
+
     /**
-     * Randomly generate new colors for each shape.
+     * Randomly generate a new color for the shape.
      */
     public void changeColors() {
-    	Random r = new Random();
-    	this.colorR = r.nextInt(256);
-    	this.colorB = r.nextInt(256);
-    	this.colorG = r.nextInt(256);    	
-    }
-    
-    /**
-     * Tells the model to advance one "step."
-     */
-    private class Strobe extends TimerTask {
-        @Override
-        public void run() {
-            makeOneStep();
-        }
+    	store.changeColors(getIndex());
     }
 
     /**
-     * Re-draw background of display with no shapes and sets variables back to initial values
+     * Hides and stops the shape and sets its variables back to initial values.
      */
 	public void clear() {
-		timer.cancel();
-		shouldBeDrawn = false;
-		setChanged();
-        notifyObservers();
-        Random r = new Random();
-    	xPosition = r.nextInt(xLimit / 2 + 5) + xLimit / 2 - 10;
-		yPosition = r.nextInt(yLimit / 2 - 10) + 5;
-		xDelta = r.nextInt(8) + 2;
-		yDelta = r.nextInt(8) + 2;
-		figureWidth = r.nextInt(30) + 2;
-		figureHeight = r.nextInt(30) + 2;
-		speedFactor = 1;
-		changeColors();
-		
+		store.clear(getIndex());
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Shape)) {
+			return false;
+		}
+		Shape other = (Shape) obj;
+		return store == other.store && id == other.id;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * System.identityHashCode(store) + id;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,412 @@
+package kaleidoscope;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Draws the shapes in a ShapeStore, with all their reflections, onto any
+ * Graphics using Java2D's fill methods. This is the default Renderer. Each
+ * paint draws the store's latest FrameSnapshot, with the copies of every
+ * shape placed at once by a CopyBuffer.
+ * Copies that lie entirely outside the Graphics' clip are skipped, so
+ * painting a small part of the view costs little more than the shapes in
+ * it.
+ * <p>
+ * At the Quality levels that draw at a lower resolution, the frame is drawn
+ * into an image a fraction of the size of the window, with every coordinate
+ * divided down rather than through a scaling transform, which would take
+ * Java2D off its fast paths, and the image is stretched over the window.
+ * <p>
+ * Once its scratch space has grown to fit, painting a frame allocates
+ * nothing of its own. Java2D still allocates a few small objects inside
+ * every oval and polygon it fills, to describe and iterate over the shape,
+ * so a frame of them is not free: MAX_OVAL_BYTES and MAX_POLYGON_BYTES
+ * bound that per copy drawn, and rectangles cost nothing. The raster
+ * renderers fill their own pixels and so avoid it.
+ */
+public class ShapeRenderer implements Renderer {
+	// the most Java2D allocates inside one fillOval and one fillPolygon, in
+	// bytes; measured on HotSpot as 304 and 24
+	static final int MAX_OVAL_BYTES = 320;
+	static final int MAX_POLYGON_BYTES = 32;
+
+	ShapeStore store;
+
+	// scratch space reused on every frame so that painting allocates nothing:
+	// the origins of every copy of every shape, the polygon vertices of the
+	// copy being drawn, and one Color per shape slot (with the RGB it was
+	// made for)
+	private final CopyBuffer copies = new CopyBuffer();
+	private final int[] vertexX = new int[4];
+	private final int[] vertexY = new int[4];
+	private Color[] colors = new Color[16];
+	private int[] colorKeys = new int[16];
+
+	// the snapshot being painted, and how far between their previous and
+	// current positions its shapes are drawn
+	private FrameSnapshot frame;
+	private float alpha = 1;
+
+	// the clip of the Graphics being painted, as left, top, right, bottom
+	private final Rectangle clipBounds = new Rectangle();
+	private int clipLeft, clipTop, clipRight, clipBottom;
+
+	// the frame at a lower resolution, for the levels that draw one, and
+	// the window pixels across each of its pixels while it is drawn (1 while
+	// drawing at full size)
+	private BufferedImage scaled;
+	private int scale = 1;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param store
+	 *            The Model whose shapes are to be drawn.
+	 */
+	public ShapeRenderer(ShapeStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Clears the given area to the background color and draws every visible
+	 * shape.
+	 * 
+	 * @param g
+	 *            The Graphics on which to paint things.
+	 * @param width
+	 *            The width of the area to paint, in pixels.
+	 * @param height
+	 *            The height of the area to paint, in pixels.
+	 */
+	@Override
+	public void paint(Graphics g, int width, int height) {
+		Quality quality = copies.quality;
+		int scale = quality.getScale();
+		if (scale > 1 && width > 0 && height > 0) {
+			paintScaled(g, width, height, quality);
+		} else {
+			paintShapes(g, width, height);
+		}
+	}
+
+	@Override
+	public void setQuality(Quality quality) {
+		copies.quality = quality;
+	}
+
+	@Override
+	public boolean canApply(Quality quality) {
+		// only the sprites are antialiased
+		return !quality.dropsAntialiasing();
+	}
+
+	/**
+	 * Draws the frame into the smaller image, as much of it as the clip
+	 * needs, and stretches the image over the window.
+	 */
+	private void paintScaled(Graphics g, int width, int height,
+			Quality quality) {
+		int scale = quality.getScale();
+		int w = (width + scale - 1) / scale;
+		int h = (height + scale - 1) / scale;
+		if (scaled == null || scaled.getWidth() != w
+				|| scaled.getHeight() != h) {
+			scaled = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+		}
+		Rectangle clip = g.getClipBounds();
+		if (clip == null) {
+			clip = new Rectangle(0, 0, width, height);
+		}
+		Graphics2D sg = scaled.createGraphics();
+		try {
+			// with a small pixel to spare on each side, so that the pixels
+			// stretched over the edge of the clip are up to date
+			sg.clipRect(clip.x / scale - 1, clip.y / scale - 1, clip.width
+					/ scale + 3, clip.height / scale + 3);
+			this.scale = scale;
+			paintShapes(sg, w, h);
+		} finally {
+			this.scale = 1;
+			sg.dispose();
+		}
+		g.drawImage(scaled, 0, 0, w * scale, h * scale, null);
+	}
+
+	private void paintShapes(Graphics g, int width, int height) {
+		// sets background over which shapes move
+		g.setColor(Color.black);
+		g.fillRect(0, 0, width, height);
+
+		// draws shapes; with no clip every copy is drawn
+		clipBounds.setBounds(Integer.MIN_VALUE / 2, Integer.MIN_VALUE / 2,
+				Integer.MAX_VALUE, Integer.MAX_VALUE);
+		g.getClipBounds(clipBounds);
+		// in window pixels, while drawing at a lower resolution
+		clipLeft = clipBounds.x * scale;
+		clipTop = clipBounds.y * scale;
+		clipRight = (clipBounds.x + clipBounds.width) * scale;
+		clipBottom = (clipBounds.y + clipBounds.height) * scale;
+		frame = store.acquireSnapshot();
+		Composite composite = applyOpacity(g, frame.opacity);
+		try {
+			drawShapes(g);
+		} finally {
+			((Graphics2D) g).setComposite(composite);
+			frame.release();
+			frame = null;
+		}
+	}
+
+	/**
+	 * Makes the shapes drawn from now on as opaque as a snapshot says.
+	 *
+	 * @param g
+	 *            The Graphics on which the shapes are drawn.
+	 * @param opacity
+	 *            The opacity, from 0 (invisible) to 255 (opaque).
+	 * @return The composite to put back once the shapes are drawn.
+	 */
+	static Composite applyOpacity(Graphics g, int opacity) {
+		Graphics2D g2 = (Graphics2D) g;
+		Composite composite = g2.getComposite();
+		if (opacity < 255) {
+			g2.setComposite(AlphaComposite.getInstance(
+					AlphaComposite.SRC_OVER, opacity / 255f));
+		}
+		return composite;
+	}
+
+	private void drawShapes(Graphics g) {
+		alpha = frame.getInterpolation();
+		copies.update(frame, alpha);
+		boolean[] drawn = copies.drawn;
+		byte[] type = frame.type;
+		int n = frame.size;
+		for (int i = 0; i < n; i++) {
+			if (drawn[i]) {
+				switch (type[i]) {
+				case ShapeStore.CIRCLE:
+					drawCircle(g, i);
+					break;
+				case ShapeStore.RECTANGLE:
+					drawRectangle(g, i);
+					break;
+				case ShapeStore.TRIANGLE:
+					drawTriangle(g, i);
+					break;
+				default:
+					drawDiamond(g, i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Draws a circle and its reflections
+	 * 
+	 * @param g
+	 * @param i
+	 *            The slot of the shape in the snapshot being painted.
+	 */
+	public void drawCircle(Graphics g, int i) {
+		drawBoxes(g, i, true);
+	}
+
+	/**
+	 * Draws a rectangle and its reflections
+	 * 
+	 * @param g
+	 * @param i
+	 *            The slot of the shape in the snapshot being painted.
+	 */
+	public void drawRectangle(Graphics g, int i) {
+		drawBoxes(g, i, false);
+	}
+
+	private void drawBoxes(Graphics g, int i, boolean oval) {
+		int w = frame.figureWidth[i];
+		int h = frame.figureHeight[i];
+		int s = scale;
+		int c = copies.copies;
+		int[] ox = copies.x, oy = copies.y;
+		Symmetry symmetry = copies.symmetry;
+		g.setColor(colorOf(i));
+		for (int k = 0, j = i * c; k < c; k++, j++) {
+			// transposed copies are drawn across the diagonal
+			boolean transposed = symmetry.isTransposed(k);
+			int bw = transposed ? h : w;
+			int bh = transposed ? w : h;
+			if (!inClip(ox[j], oy[j], bw, bh)) {
+				continue;
+			}
+			int x = ox[j] / s, y = oy[j] / s;
+			if (oval) {
+				g.fillOval(x, y, (ox[j] + bw) / s - x, (oy[j] + bh) / s - y);
+			} else {
+				g.fillRect(x, y, (ox[j] + bw) / s - x, (oy[j] + bh) / s - y);
+			}
+		}
+	}
+
+	/**
+	 * Draws a triangle and its reflections
+	 * 
+	 * @param g
+	 * @param i
+	 *            The slot of the shape in the snapshot being painted.
+	 */
+	public void drawTriangle(Graphics g, int i) {
+		drawPolygons(g, i, ShapeStore.TRIANGLE);
+	}
+
+	/**
+	 * Draws a diamond and its reflections
+	 * 
+	 * @param g
+	 * @param i
+	 *            The slot of the shape in the snapshot being painted.
+	 */
+	public void drawDiamond(Graphics g, int i) {
+		drawPolygons(g, i, ShapeStore.DIAMOND);
+	}
+
+	private void drawPolygons(Graphics g, int i, byte type) {
+		int w = frame.figureWidth[i];
+		int h = frame.figureHeight[i];
+		int s = scale;
+		int c = copies.copies;
+		int[] ox = copies.x, oy = copies.y;
+		int[] xs = vertexX, ys = vertexY;
+		Symmetry symmetry = copies.symmetry;
+		g.setColor(colorOf(i));
+		for (int k = 0, j = i * c; k < c; k++, j++) {
+			int n = outline(type, symmetry.isTransposed(k),
+					symmetry.isFlipped(k), ox[j], oy[j], w, h, xs, ys);
+			int minX = xs[0], maxX = minX, minY = ys[0], maxY = minY;
+			for (int v = 1; v < n; v++) {
+				minX = Math.min(minX, xs[v]);
+				maxX = Math.max(maxX, xs[v]);
+				minY = Math.min(minY, ys[v]);
+				maxY = Math.max(maxY, ys[v]);
+			}
+			if (inClip(minX, minY, maxX - minX, maxY - minY)) {
+				if (s > 1) {
+					for (int v = 0; v < n; v++) {
+						xs[v] /= s;
+						ys[v] /= s;
+					}
+				}
+				g.fillPolygon(xs, ys, n);
+			}
+		}
+	}
+
+	/**
+	 * @return Whether any of the given box, with a pixel to spare on each
+	 *         side, lies inside the clip of the Graphics being painted.
+	 */
+	private boolean inClip(int x, int y, int w, int h) {
+		return x - 1 < clipRight && x + w + 1 > clipLeft && y - 1 < clipBottom
+				&& y + h + 1 > clipTop;
+	}
+
+	/**
+	 * Computes the vertices of one copy of a triangle or diamond, drawn
+	 * whichever way a Symmetry says.
+	 * 
+	 * @param type
+	 *            ShapeStore.TRIANGLE or ShapeStore.DIAMOND.
+	 * @param transposed
+	 *            Whether the copy is drawn across the diagonal.
+	 * @param flipped
+	 *            Whether the copy, if a triangle, is drawn upside down.
+	 * @param x
+	 *            The x coordinate of the copy's origin.
+	 * @param y
+	 *            The y coordinate of the copy's origin.
+	 * @param w
+	 *            The shape's figure width.
+	 * @param h
+	 *            The shape's figure height.
+	 * @param xs
+	 *            Receives the x coordinates; must hold four values.
+	 * @param ys
+	 *            Receives the y coordinates; must hold four values.
+	 * @return The number of vertices.
+	 */
+	static int outline(byte type, boolean transposed, boolean flipped, int x,
+			int y, int w, int h, int[] xs, int[] ys) {
+		if (type == ShapeStore.TRIANGLE) {
+			// the point of the triangle is at the origin and its base one
+			// figure-height above it, or below it when the copy is flipped
+			int tip = flipped ? h : 0;
+			int base = h - tip;
+			if (!transposed) {
+				xs[0] = x;
+				xs[1] = x + w / 2;
+				xs[2] = x - w / 2;
+				ys[0] = y - tip;
+				ys[1] = y - base;
+				ys[2] = ys[1];
+			} else {
+				xs[0] = x - tip;
+				xs[1] = x - base;
+				xs[2] = xs[1];
+				ys[0] = y;
+				ys[1] = y + w / 2;
+				ys[2] = y - w / 2;
+			}
+			return 3;
+		}
+		if (!transposed) {
+			xs[0] = x;
+			xs[1] = x + w / 2;
+			xs[2] = x;
+			xs[3] = x - w / 2;
+			ys[0] = y;
+			ys[1] = y - h / 2;
+			ys[2] = y - h;
+			ys[3] = y - h / 2;
+		} else {
+			xs[0] = x;
+			xs[1] = x - h / 2;
+			xs[2] = x - h;
+			xs[3] = x - h / 2;
+			ys[0] = y;
+			ys[1] = y + w / 2;
+			ys[2] = y;
+			ys[3] = y - w / 2;
+		}
+		return 4;
+	}
+
+	/**
+	 * Returns the Color for a shape, creating a new Color object only when the
+	 * shape's color has changed since the last frame.
+	 * 
+	 * @param i
+	 *            The slot of the shape in the snapshot being painted.
+	 * @return The shape's color.
+	 */
+	private Color colorOf(int i) {
+		if (i >= colors.length) {
+			int capacity = Math.max(i + 1, colors.length * 2);
+			colors = Arrays.copyOf(colors, capacity);
+			colorKeys = Arrays.copyOf(colorKeys, capacity);
+		}
+		int rgb = frame.color[i];
+		Color c = colors[i];
+		if (c == null || colorKeys[i] != rgb) {
+			c = new Color(rgb);
+			colors[i] = c;
+			colorKeys[i] = rgb;
+		}
+		return c;
+	}
+}
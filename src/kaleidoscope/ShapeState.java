@@ -0,0 +1,335 @@
+package kaleidoscope;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Everything a viewer needs to draw one frame of a ShapeStore somewhere
+ * else, and the compact binary form in which it is sent there. A state is
+ * written as a delta against a base state the receiver already has: only
+ * the shapes that changed are written, and of those only the fields that
+ * changed, each as the difference from the base in a zigzag varint, so a
+ * small move costs a byte or two. A state written against no base at all is
+ * a keyframe, complete in itself.
+ * <p>
+ * A delta is laid out as varints: the state's sequence number, the base's
+ * (0 for none), the number of shapes, the width and height of the window,
+ * the order of the symmetry and the nanoseconds a step lasts; then the
+ * number of changed shapes, and for each of them the number of unchanged
+ * shapes skipped since the previous one, a byte with one bit per changed
+ * field and the differences themselves. Shapes beyond the end of the base
+ * are written against zeros.
+ */
+final class ShapeState {
+	// one bit per field in the mask of a changed shape
+	private static final int X = 1;
+	private static final int Y = 2;
+	private static final int WIDTH = 4;
+	private static final int HEIGHT = 8;
+	private static final int COLOR = 16;
+	// the shape's type, and whether it is drawn, in one field
+	private static final int KIND = 32;
+	private static final int FIELDS = 6;
+
+	// the longest a varint of an int or a long can be, in bytes
+	private static final int MAX_INT_VARINT = 5;
+	private static final int MAX_LONG_VARINT = 10;
+
+	// added to the type in the KIND field of a shape that is drawn
+	private static final int DRAWN = 4;
+
+	// numbers the states of one stream in order, from 1; 0 means no state
+	long sequence;
+
+	int size;
+	int width, height;
+	int order = Symmetry.EIGHT_FOLD.getOrder();
+	long nanosPerStep;
+	int[] x = new int[0];
+	int[] y = new int[0];
+	int[] figureWidth = new int[0];
+	int[] figureHeight = new int[0];
+	int[] color = new int[0];
+	byte[] type = new byte[0];
+	boolean[] shouldBeDrawn = new boolean[0];
+
+	/**
+	 * Makes room for the given number of shapes, keeping those already held.
+	 */
+	void ensureCapacity(int capacity) {
+		if (capacity <= x.length) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, x.length * 2);
+		x = Arrays.copyOf(x, newCapacity);
+		y = Arrays.copyOf(y, newCapacity);
+		figureWidth = Arrays.copyOf(figureWidth, newCapacity);
+		figureHeight = Arrays.copyOf(figureHeight, newCapacity);
+		color = Arrays.copyOf(color, newCapacity);
+		type = Arrays.copyOf(type, newCapacity);
+		shouldBeDrawn = Arrays.copyOf(shouldBeDrawn, newCapacity);
+	}
+
+	/**
+	 * Copies the current positions and everything else drawn from a
+	 * snapshot.
+	 *
+	 * @param frame
+	 *            The snapshot, acquired by the caller.
+	 * @param sequence
+	 *            The number to give the state.
+	 */
+	void copy(FrameSnapshot frame, long sequence) {
+		int n = frame.size;
+		ensureCapacity(n);
+		System.arraycopy(frame.xPosition, 0, x, 0, n);
+		System.arraycopy(frame.yPosition, 0, y, 0, n);
+		System.arraycopy(frame.figureWidth, 0, figureWidth, 0, n);
+		System.arraycopy(frame.figureHeight, 0, figureHeight, 0, n);
+		System.arraycopy(frame.color, 0, color, 0, n);
+		System.arraycopy(frame.type, 0, type, 0, n);
+		System.arraycopy(frame.shouldBeDrawn, 0, shouldBeDrawn, 0, n);
+		size = n;
+		width = frame.width;
+		height = frame.height;
+		order = frame.symmetry.getOrder();
+		nanosPerStep = frame.getNanosPerStep();
+		this.sequence = sequence;
+	}
+
+	/**
+	 * Copies another state.
+	 */
+	void copy(ShapeState other) {
+		int n = other.size;
+		ensureCapacity(n);
+		System.arraycopy(other.x, 0, x, 0, n);
+		System.arraycopy(other.y, 0, y, 0, n);
+		System.arraycopy(other.figureWidth, 0, figureWidth, 0, n);
+		System.arraycopy(other.figureHeight, 0, figureHeight, 0, n);
+		System.arraycopy(other.color, 0, color, 0, n);
+		System.arraycopy(other.type, 0, type, 0, n);
+		System.arraycopy(other.shouldBeDrawn, 0, shouldBeDrawn, 0, n);
+		size = n;
+		width = other.width;
+		height = other.height;
+		order = other.order;
+		nanosPerStep = other.nanosPerStep;
+		sequence = other.sequence;
+	}
+
+	/**
+	 * @param shapes
+	 *            The number of shapes in a state.
+	 * @return The most bytes that writeDelta() can write for the state.
+	 */
+	static int maxDeltaSize(int shapes) {
+		return 3 * MAX_LONG_VARINT + 6 * MAX_INT_VARINT + shapes
+				* (MAX_INT_VARINT + 1 + FIELDS * MAX_INT_VARINT);
+	}
+
+	/**
+	 * Writes this state as a delta against another.
+	 *
+	 * @param base
+	 *            A state the reader already has, or null to write a
+	 *            keyframe.
+	 * @param out
+	 *            Receives the delta; must have maxDeltaSize() bytes left.
+	 */
+	void writeDelta(ShapeState base, ByteBuffer out) {
+		int baseSize = base == null ? 0 : base.size;
+		putVarint(out, sequence);
+		putVarint(out, base == null ? 0 : base.sequence);
+		putVarint(out, size);
+		putVarint(out, zigzag(width));
+		putVarint(out, zigzag(height));
+		putVarint(out, order);
+		putVarint(out, nanosPerStep);
+		// the count of changed shapes goes first, so leave room for it
+		int countAt = out.position();
+		out.position(countAt + MAX_INT_VARINT);
+		int changed = 0;
+		int last = -1;
+		for (int i = 0; i < size; i++) {
+			int kind = type[i] + (shouldBeDrawn[i] ? DRAWN : 0);
+			int dx, dy, dw, dh, dc, dk;
+			if (i < baseSize) {
+				dx = x[i] - base.x[i];
+				dy = y[i] - base.y[i];
+				dw = figureWidth[i] - base.figureWidth[i];
+				dh = figureHeight[i] - base.figureHeight[i];
+				dc = color[i] - base.color[i];
+				dk = kind - base.type[i] - (base.shouldBeDrawn[i] ? DRAWN : 0);
+			} else {
+				dx = x[i];
+				dy = y[i];
+				dw = figureWidth[i];
+				dh = figureHeight[i];
+				dc = color[i];
+				dk = kind;
+			}
+			int mask = (dx != 0 ? X : 0) | (dy != 0 ? Y : 0)
+					| (dw != 0 ? WIDTH : 0) | (dh != 0 ? HEIGHT : 0)
+					| (dc != 0 ? COLOR : 0) | (dk != 0 ? KIND : 0);
+			if (mask == 0) {
+				continue;
+			}
+			putVarint(out, i - last - 1);
+			out.put((byte) mask);
+			if (dx != 0) {
+				putVarint(out, zigzag(dx));
+			}
+			if (dy != 0) {
+				putVarint(out, zigzag(dy));
+			}
+			if (dw != 0) {
+				putVarint(out, zigzag(dw));
+			}
+			if (dh != 0) {
+				putVarint(out, zigzag(dh));
+			}
+			if (dc != 0) {
+				putVarint(out, zigzag(dc));
+			}
+			if (dk != 0) {
+				putVarint(out, zigzag(dk));
+			}
+			last = i;
+			changed++;
+		}
+		// a fixed-width count, so the shapes need not be moved up
+		int end = out.position();
+		out.position(countAt);
+		putPaddedVarint(out, changed);
+		out.position(end);
+	}
+
+	/**
+	 * Makes this state the one a delta describes.
+	 *
+	 * @param base
+	 *            The state the delta was written against; null for a
+	 *            keyframe. May not be this state.
+	 * @param in
+	 *            The delta, positioned at its start; left after its end.
+	 */
+	void readDelta(ShapeState base, ByteBuffer in) {
+		long sequence = getVarint(in);
+		long baseSequence = getVarint(in);
+		if (baseSequence != (base == null ? 0 : base.sequence)) {
+			throw new IllegalArgumentException("delta is against state "
+					+ baseSequence + ", not "
+					+ (base == null ? 0 : base.sequence));
+		}
+		int n = (int) getVarint(in);
+		ensureCapacity(n);
+		int baseSize = base == null ? 0 : Math.min(base.size, n);
+		if (baseSize > 0) {
+			System.arraycopy(base.x, 0, x, 0, baseSize);
+			System.arraycopy(base.y, 0, y, 0, baseSize);
+			System.arraycopy(base.figureWidth, 0, figureWidth, 0, baseSize);
+			System.arraycopy(base.figureHeight, 0, figureHeight, 0, baseSize);
+			System.arraycopy(base.color, 0, color, 0, baseSize);
+			System.arraycopy(base.type, 0, type, 0, baseSize);
+			System.arraycopy(base.shouldBeDrawn, 0, shouldBeDrawn, 0,
+					baseSize);
+		}
+		for (int i = baseSize; i < n; i++) {
+			x[i] = 0;
+			y[i] = 0;
+			figureWidth[i] = 0;
+			figureHeight[i] = 0;
+			color[i] = 0;
+			type[i] = 0;
+			shouldBeDrawn[i] = false;
+		}
+		this.sequence = sequence;
+		size = n;
+		width = unzigzag(getVarint(in));
+		height = unzigzag(getVarint(in));
+		order = (int) getVarint(in);
+		nanosPerStep = getVarint(in);
+		int changed = (int) getVarint(in);
+		int i = -1;
+		for (int c = 0; c < changed; c++) {
+			i += (int) getVarint(in) + 1;
+			int mask = in.get();
+			if ((mask & X) != 0) {
+				x[i] += unzigzag(getVarint(in));
+			}
+			if ((mask & Y) != 0) {
+				y[i] += unzigzag(getVarint(in));
+			}
+			if ((mask & WIDTH) != 0) {
+				figureWidth[i] += unzigzag(getVarint(in));
+			}
+			if ((mask & HEIGHT) != 0) {
+				figureHeight[i] += unzigzag(getVarint(in));
+			}
+			if ((mask & COLOR) != 0) {
+				color[i] += unzigzag(getVarint(in));
+			}
+			if ((mask & KIND) != 0) {
+				int kind = type[i] + (shouldBeDrawn[i] ? DRAWN : 0)
+						+ unzigzag(getVarint(in));
+				type[i] = (byte) (kind % DRAWN);
+				shouldBeDrawn[i] = kind >= DRAWN;
+			}
+		}
+	}
+
+	/**
+	 * @return A signed int folded into an unsigned one, so that values near
+	 *         zero either way have short varints.
+	 */
+	static int zigzag(int value) {
+		return value << 1 ^ value >> 31;
+	}
+
+	static int unzigzag(long value) {
+		int v = (int) value;
+		return v >>> 1 ^ -(v & 1);
+	}
+
+	/**
+	 * Writes an int, taken as unsigned, as a varint.
+	 */
+	static void putVarint(ByteBuffer out, int value) {
+		putVarint(out, value & 0xffffffffL);
+	}
+
+	/**
+	 * Writes a value seven bits to a byte, lowest first, with the top bit of
+	 * every byte but the last set.
+	 */
+	static void putVarint(ByteBuffer out, long value) {
+		while ((value & ~0x7fL) != 0) {
+			out.put((byte) (value & 0x7f | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte) value);
+	}
+
+	/**
+	 * Writes an int as a varint of exactly MAX_INT_VARINT bytes.
+	 */
+	private static void putPaddedVarint(ByteBuffer out, int value) {
+		for (int b = 0; b < MAX_INT_VARINT - 1; b++) {
+			out.put((byte) (value & 0x7f | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte) value);
+	}
+
+	static long getVarint(ByteBuffer in) {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = in.get();
+			value |= (long) (b & 0x7f) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+	}
+}
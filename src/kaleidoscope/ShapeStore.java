@@ -0,0 +1,1042 @@
+package kaleidoscope;
+
+import java.util.Arrays;
+import java.util.Observable;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This is the Model for the kaleidoscope program. Rather than one object per
+ * shape, the state of every shape is kept in parallel primitive arrays, one
+ * slot per shape, so that stepping and drawing are tight loops over
+ * contiguous memory. A {@link Shape} is just a handle onto one shape.
+ * <p>
+ * The arrays are package-private so that the View can read them directly;
+ * only the first {@link #size} slots are in use, and every one of them holds
+ * a live shape. Removing a shape moves the last shape into its slot, so
+ * adding and removing take constant time and stepping and drawing never
+ * pass over removed shapes. Because shapes change slot, each has an id that
+ * stays the same while it lives; the ids and handles of removed shapes are
+ * reused for shapes added later.
+ * <p>
+ * Changes are not sent to observers as they happen. They are collected and
+ * published together by {@link #publishFrame()}, which the clock calls once
+ * per tick, so observers see one {@link FrameUpdate} per frame no matter how
+ * many shapes changed. Each published frame is also copied into a
+ * {@link FrameSnapshot}, which renderers draw from instead of the arrays
+ * here, so that painting on another thread always sees one whole step. The
+ * latest snapshot is handed over through a single volatile field; the
+ * snapshots are reused once released, so neither side ever waits for the
+ * other.
+ * <p>
+ * Everything that adds or removes shapes, grows the arrays, or steps or
+ * changes the shapes holds the store's lock, as publishFrame() does while it
+ * takes the snapshot. So the clock's steps and the Controller's changes take
+ * turns: a step never sees a slot moved or the arrays replaced under it.
+ * Callers that make several changes which belong together, such as removing
+ * every shape and adding new ones, hold the lock around all of them.
+ */
+public class ShapeStore extends Observable {
+	// type ordinals stored in the type array
+	public static final byte CIRCLE = 0;
+	public static final byte RECTANGLE = 1;
+	public static final byte TRIANGLE = 2;
+	public static final byte DIAMOND = 3;
+
+	// names of the type ordinals, in order
+	static final String[] TYPE_NAMES = { "circle", "rectangle", "triangle",
+			"diamond" };
+
+	// number of copies of each shape drawn on screen; copies from
+	// FIRST_TRANSPOSED on are mirrored across the diagonal, so their width
+	// and height are swapped
+	public static final int REFLECTIONS = 8;
+	public static final int FIRST_TRANSPOSED = 4;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	// shapes in each batch when a step is split between threads; a store
+	// with fewer than two batches' worth is stepped on the calling thread
+	public static final int STEP_BATCH = 4096;
+
+	// number of slots in use; this and the arrays are guarded by this
+	int size;
+
+	int[] xPosition;
+	int[] yPosition;
+	// positions before the latest step, for drawing in between steps
+	int[] previousX;
+	int[] previousY;
+	int[] xDelta;
+	int[] yDelta;
+	int[] figureWidth;
+	int[] figureHeight;
+	// packed 0xRRGGBB colour of each shape
+	int[] color;
+	// one of CIRCLE, RECTANGLE, TRIANGLE or DIAMOND
+	byte[] type;
+	// whether the shape should appear on screen
+	boolean[] shouldBeDrawn;
+	// whether the shape moves when the model is stepped
+	boolean[] running;
+
+	// the id of the shape in each slot, and the slot of each live id (-1 once
+	// removed); ids index handles, which are created the first time a shape
+	// is asked for and reused with the id
+	int[] idOf;
+	int[] slotOf;
+	private Shape[] handles;
+	// ids released by remove(), waiting to be reused
+	private int[] freeIds;
+	private int freeCount;
+	// ids handed out so far, including released ones
+	private int ids;
+
+	// size of the window, in pixels; each shape bounces off the walls at
+	// these limits less its own size
+	int width, height;
+
+	private final Random random = new Random();
+
+	// changes collected since the last published frame; guarded by this
+	private int pendingFlags;
+	private int pendingChanges;
+	private long frameCount;
+
+	// when the current positions were reached, as System.nanoTime(), and how
+	// long a step lasts on screen; guarded by this. While stepTime is 0 the
+	// current positions are drawn as they are.
+	private long stepTime;
+	private long nanosPerStep;
+
+	// moves the running shapes every step, and the pool in which the
+	// batches are stepped (null to step them all on the calling thread);
+	// unless given one, the shared pool, whose threads only start once a
+	// store is big enough to need them
+	private volatile MotionModel motion = new LinearMotion();
+	private volatile ForkJoinPool stepPool = Pools.SHARED;
+	// steps taken so far, passed to the motion model
+	private long steps;
+
+	// makes the shapes bounce off each other after every step, if set
+	private volatile CollisionGrid collisions;
+
+	// how many copies of each shape are drawn, and where
+	private volatile Symmetry symmetry = Symmetry.EIGHT_FOLD;
+	// how opaque every shape is drawn, from 0 to 255
+	private volatile int opacity = 255;
+
+	// the latest published frame, for renderers, and every snapshot made so
+	// far; the pool is guarded by this. Three snapshots are enough while
+	// each reader releases its snapshot before acquiring the next one: the
+	// latest, one still being drawn, and one to copy into.
+	private volatile FrameSnapshot snapshot;
+	private FrameSnapshot[] snapshots;
+	// whether the step timing changed since the latest snapshot
+	private boolean timingChanged;
+
+	/**
+	 * Creates an empty store.
+	 */
+	public ShapeStore() {
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty store with room for the given number of shapes before
+	 * it has to grow.
+	 *
+	 * @param capacity
+	 *            The number of slots to allocate up front.
+	 */
+	public ShapeStore(int capacity) {
+		capacity = Math.max(capacity, 1);
+		xPosition = new int[capacity];
+		yPosition = new int[capacity];
+		previousX = new int[capacity];
+		previousY = new int[capacity];
+		xDelta = new int[capacity];
+		yDelta = new int[capacity];
+		figureWidth = new int[capacity];
+		figureHeight = new int[capacity];
+		color = new int[capacity];
+		type = new byte[capacity];
+		shouldBeDrawn = new boolean[capacity];
+		running = new boolean[capacity];
+		idOf = new int[capacity];
+		slotOf = new int[capacity];
+		handles = new Shape[capacity];
+		freeIds = new int[capacity];
+		snapshot = new FrameSnapshot();
+		snapshots = new FrameSnapshot[] { snapshot };
+	}
+
+	/**
+	 * Adds a shape with a random location, size, and speed.
+	 *
+	 * @param shapeType
+	 *            One of CIRCLE, RECTANGLE, TRIANGLE or DIAMOND.
+	 * @param shouldBeDrawn
+	 *            Whether the shape appears on screen straight away.
+	 * @return A handle onto the new shape.
+	 */
+	public synchronized Shape add(byte shapeType, boolean shouldBeDrawn) {
+		if (shapeType < CIRCLE || shapeType > DIAMOND) {
+			throw new IllegalArgumentException("unknown shape type: "
+					+ shapeType);
+		}
+		ensureCapacity(size + 1);
+		int i = allocate();
+		type[i] = shapeType;
+		this.shouldBeDrawn[i] = shouldBeDrawn;
+		running[i] = false;
+		// Starting x and y positions are hard-coded relative to starting size
+		// of window so reflections will appear in correct portion of the
+		// screen.
+		xPosition[i] = random.nextInt(405) + 390;
+		yPosition[i] = random.nextInt(390) + 5;
+		previousX[i] = xPosition[i];
+		previousY[i] = yPosition[i];
+		xDelta[i] = random.nextInt(8) + 2;
+		yDelta[i] = random.nextInt(8) + 2;
+		figureWidth[i] = random.nextInt(30) + 20;
+		figureHeight[i] = random.nextInt(30) + 20;
+		color[i] = 0;
+		if (shouldBeDrawn) {
+			markChanged(FrameUpdate.VISIBILITY, 1);
+		}
+		return handle(idOf[i]);
+	}
+
+	/**
+	 * Adds many shapes at once, cycling through the four types in order, each
+	 * with a random location, size, speed and color as add() gives it. No
+	 * handles are created; use get() for the shapes that need one.
+	 *
+	 * @param count
+	 *            The number of shapes to add.
+	 * @param shouldBeDrawn
+	 *            Whether the shapes appear on screen straight away.
+	 */
+	public synchronized void addShapes(int count, boolean shouldBeDrawn) {
+		if (count <= 0) {
+			return;
+		}
+		ensureCapacity(size + count);
+		for (int n = 0; n < count; n++) {
+			int i = allocate();
+			type[i] = (byte) (i % TYPE_NAMES.length);
+			this.shouldBeDrawn[i] = shouldBeDrawn;
+			running[i] = false;
+			xPosition[i] = random.nextInt(405) + 390;
+			yPosition[i] = random.nextInt(390) + 5;
+			previousX[i] = xPosition[i];
+			previousY[i] = yPosition[i];
+			xDelta[i] = random.nextInt(8) + 2;
+			yDelta[i] = random.nextInt(8) + 2;
+			figureWidth[i] = random.nextInt(30) + 20;
+			figureHeight[i] = random.nextInt(30) + 20;
+			color[i] = random.nextInt(0x1000000);
+		}
+		if (shouldBeDrawn) {
+			markChanged(FrameUpdate.VISIBILITY, count);
+		}
+	}
+
+	/**
+	 * Takes the next slot and gives it an id, reusing a released id if there
+	 * is one. The arrays must already have room.
+	 *
+	 * @return The new slot.
+	 */
+	private int allocate() {
+		int i = size;
+		int id = freeCount > 0 ? freeIds[--freeCount] : ids++;
+		idOf[i] = id;
+		slotOf[id] = i;
+		size = i + 1;
+		return i;
+	}
+
+	/**
+	 * Removes one shape, moving the last shape into its slot. The removed
+	 * shape's handle must not be used afterwards: it is given to the next
+	 * shape added.
+	 *
+	 * @param index
+	 *            The slot of the shape.
+	 */
+	public synchronized void remove(int index) {
+		checkIndex(index);
+		int id = idOf[index];
+		int last = size - 1;
+		if (index != last) {
+			moveSlot(last, index);
+		}
+		size = last;
+		release(id);
+		markChanged(FrameUpdate.VISIBILITY, 1);
+	}
+
+	/**
+	 * Removes one shape.
+	 *
+	 * @param shape
+	 *            A live shape in this store.
+	 */
+	public void remove(Shape shape) {
+		remove(shape.getIndex());
+	}
+
+	/**
+	 * Removes every shape.
+	 */
+	public synchronized void removeAll() {
+		int n = size;
+		for (int i = n - 1; i >= 0; i--) {
+			release(idOf[i]);
+		}
+		size = 0;
+		if (n > 0) {
+			markChanged(FrameUpdate.VISIBILITY, n);
+		}
+	}
+
+	private void release(int id) {
+		slotOf[id] = -1;
+		freeIds[freeCount++] = id;
+	}
+
+	/**
+	 * Copies every field of one slot to another, and moves its id along.
+	 */
+	private void moveSlot(int from, int to) {
+		xPosition[to] = xPosition[from];
+		yPosition[to] = yPosition[from];
+		previousX[to] = previousX[from];
+		previousY[to] = previousY[from];
+		xDelta[to] = xDelta[from];
+		yDelta[to] = yDelta[from];
+		figureWidth[to] = figureWidth[from];
+		figureHeight[to] = figureHeight[from];
+		color[to] = color[from];
+		type[to] = type[from];
+		shouldBeDrawn[to] = shouldBeDrawn[from];
+		running[to] = running[from];
+		int id = idOf[from];
+		idOf[to] = id;
+		slotOf[id] = to;
+	}
+
+	private Shape handle(int id) {
+		Shape shape = handles[id];
+		if (shape == null) {
+			shape = new Shape(this, id);
+			handles[id] = shape;
+		}
+		return shape;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index " + index + ", size "
+					+ size);
+		}
+	}
+
+	/**
+	 * @param index
+	 *            The slot of a shape in this store.
+	 * @return A handle onto the shape in that slot.
+	 */
+	public Shape get(int index) {
+		checkIndex(index);
+		return handle(idOf[index]);
+	}
+
+	/**
+	 * @return The number of shapes in the store.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Grows the arrays, if necessary, so that they hold at least the given
+	 * number of shapes.
+	 *
+	 * @param capacity
+	 *            The number of slots needed.
+	 */
+	public synchronized void ensureCapacity(int capacity) {
+		if (capacity <= xPosition.length) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, xPosition.length * 2);
+		xPosition = Arrays.copyOf(xPosition, newCapacity);
+		yPosition = Arrays.copyOf(yPosition, newCapacity);
+		previousX = Arrays.copyOf(previousX, newCapacity);
+		previousY = Arrays.copyOf(previousY, newCapacity);
+		xDelta = Arrays.copyOf(xDelta, newCapacity);
+		yDelta = Arrays.copyOf(yDelta, newCapacity);
+		figureWidth = Arrays.copyOf(figureWidth, newCapacity);
+		figureHeight = Arrays.copyOf(figureHeight, newCapacity);
+		color = Arrays.copyOf(color, newCapacity);
+		type = Arrays.copyOf(type, newCapacity);
+		shouldBeDrawn = Arrays.copyOf(shouldBeDrawn, newCapacity);
+		running = Arrays.copyOf(running, newCapacity);
+		idOf = Arrays.copyOf(idOf, newCapacity);
+		slotOf = Arrays.copyOf(slotOf, newCapacity);
+		handles = Arrays.copyOf(handles, newCapacity);
+		freeIds = Arrays.copyOf(freeIds, newCapacity);
+	}
+
+	/**
+	 * Sets the "walls" that the shapes should bounce off from.
+	 *
+	 * @param width
+	 *            The position (in pixels) of the wall on the right.
+	 * @param height
+	 *            The position (in pixels) of the floor.
+	 */
+	public synchronized void setLimits(int width, int height) {
+		this.width = width;
+		this.height = height;
+		for (int i = 0; i < size; i++) {
+			xPosition[i] = Math.min(xPosition[i], width);
+			yPosition[i] = Math.min(yPosition[i], height);
+			previousX[i] = Math.min(previousX[i], width);
+			previousY[i] = Math.min(previousY[i], height);
+		}
+		markChanged(FrameUpdate.LIMITS, 1);
+	}
+
+	/**
+	 * Advances every running shape one step, as the motion model moves it.
+	 * Unless the store is small, the slots are split into batches of
+	 * STEP_BATCH that are stepped in parallel in the step pool. Then, if
+	 * collisions are on, shapes that touch bounce off each other. The
+	 * positions from before the step are kept for interpolation.
+	 *
+	 * @param speedFactor
+	 *            Multiplier applied to each shape's xDelta and yDelta.
+	 * @return The number of shapes moved.
+	 */
+	public synchronized int makeOneStep(int speedFactor) {
+		int n = size;
+		System.arraycopy(xPosition, 0, previousX, 0, n);
+		System.arraycopy(yPosition, 0, previousY, 0, n);
+		MotionModel model = motion;
+		ForkJoinPool pool = stepPool;
+		int moved;
+		if (pool == null || n < 2 * STEP_BATCH) {
+			moved = model.step(this, 0, n, speedFactor, steps);
+		} else {
+			moved = pool.invoke(new StepTask(model, 0, n, speedFactor,
+					steps));
+		}
+		steps++;
+		CollisionGrid grid = collisions;
+		if (grid != null && moved > 0) {
+			grid.resolve(this);
+		}
+		if (moved > 0) {
+			markChanged(FrameUpdate.MOVED, moved);
+		}
+		return moved;
+	}
+
+	/**
+	 * Steps a range of slots, splitting it in half until each half is no
+	 * more than a batch.
+	 */
+	private class StepTask extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+
+		private final MotionModel model;
+		private final int from, to;
+		private final int speedFactor;
+		private final long step;
+
+		StepTask(MotionModel model, int from, int to, int speedFactor,
+				long step) {
+			this.model = model;
+			this.from = from;
+			this.to = to;
+			this.speedFactor = speedFactor;
+			this.step = step;
+		}
+
+		@Override
+		protected Integer compute() {
+			if (to - from <= STEP_BATCH) {
+				return model.step(ShapeStore.this, from, to, speedFactor,
+						step);
+			}
+			int middle = (from + to) >>> 1;
+			StepTask first = new StepTask(model, from, middle, speedFactor,
+					step);
+			first.fork();
+			int moved = new StepTask(model, middle, to, speedFactor, step)
+					.compute();
+			return moved + first.join();
+		}
+	}
+
+	/**
+	 * Changes how the shapes move, from the next step on. The models that
+	 * accelerate the shapes leave their speeds changed, and may even stop
+	 * them, so on a change every shape's speed along each axis is brought
+	 * back within the range that clear() starts shapes at, keeping its
+	 * direction.
+	 *
+	 * @param motion
+	 *            The model that moves the running shapes.
+	 */
+	public synchronized void setMotionModel(MotionModel motion) {
+		if (motion == null) {
+			throw new IllegalArgumentException("motion must not be null");
+		}
+		if (motion == this.motion) {
+			return;
+		}
+		this.motion = motion;
+		for (int i = 0; i < size; i++) {
+			xDelta[i] = LinearMotion.ordinary(xDelta[i]);
+			yDelta[i] = LinearMotion.ordinary(yDelta[i]);
+		}
+	}
+
+	/**
+	 * @return The model that moves the running shapes.
+	 */
+	public MotionModel getMotionModel() {
+		return motion;
+	}
+
+	/**
+	 * @param pool
+	 *            The pool in which the batches of a step are moved; null to
+	 *            move every shape on the thread that steps the store.
+	 */
+	public void setStepPool(ForkJoinPool pool) {
+		this.stepPool = pool;
+	}
+
+	/**
+	 * Turns collisions between shapes on or off. They are checked after every
+	 * step of the whole store, on the thread that steps it.
+	 *
+	 * @param collisions
+	 *            The grid used to find touching shapes; null to let shapes
+	 *            pass through each other.
+	 */
+	public void setCollisions(CollisionGrid collisions) {
+		this.collisions = collisions;
+	}
+
+	/**
+	 * @return The grid used to find touching shapes, or null if shapes pass
+	 *         through each other.
+	 */
+	public CollisionGrid getCollisions() {
+		return collisions;
+	}
+
+	/**
+	 * Changes how many copies of each shape are drawn. Renderers pick it up
+	 * from the next published frame.
+	 *
+	 * @param symmetry
+	 *            The symmetry to draw the shapes with.
+	 */
+	public void setSymmetry(Symmetry symmetry) {
+		if (symmetry == null) {
+			throw new IllegalArgumentException("symmetry must not be null");
+		}
+		this.symmetry = symmetry;
+		markChanged(FrameUpdate.SYMMETRY, 1);
+	}
+
+	/**
+	 * @return How many copies of each shape are drawn, and where.
+	 */
+	public Symmetry getSymmetry() {
+		return symmetry;
+	}
+
+	/**
+	 * Changes how opaque the shapes are drawn; below 255 the shapes under
+	 * each one show through it. Renderers pick it up from the next
+	 * published frame.
+	 *
+	 * @param opacity
+	 *            The opacity, from 0 (invisible) to 255 (opaque).
+	 */
+	public void setOpacity(int opacity) {
+		if (opacity < 0 || opacity > 255) {
+			throw new IllegalArgumentException(
+					"opacity must be from 0 to 255: " + opacity);
+		}
+		this.opacity = opacity;
+		markChanged(FrameUpdate.RECOLORED, 1);
+	}
+
+	/**
+	 * @return How opaque the shapes are drawn, from 0 to 255.
+	 */
+	public int getOpacity() {
+		return opacity;
+	}
+
+	/**
+	 * Advances a single shape one step, as the motion model moves it,
+	 * whether or not it is running.
+	 *
+	 * @param index
+	 *            The slot of the shape.
+	 * @param speedFactor
+	 *            Multiplier applied to the shape's xDelta and yDelta.
+	 */
+	public synchronized void makeOneStep(int index, int speedFactor) {
+		previousX[index] = xPosition[index];
+		previousY[index] = yPosition[index];
+		// the model only moves running shapes
+		boolean wasRunning = running[index];
+		running[index] = true;
+		motion.step(this, index, index + 1, speedFactor, steps);
+		running[index] = wasRunning;
+		markChanged(FrameUpdate.MOVED, 1);
+	}
+
+	/**
+	 * Randomly generates a new color for one shape.
+	 *
+	 * @param index
+	 *            The slot of the shape.
+	 */
+	public synchronized void changeColors(int index) {
+		color[index] = random.nextInt(0x1000000);
+		markChanged(FrameUpdate.RECOLORED, 1);
+	}
+
+	/**
+	 * Shows or hides one shape.
+	 *
+	 * @param index
+	 *            The slot of the shape.
+	 * @param shouldBeDrawn
+	 *            Whether the shape should appear on screen.
+	 */
+	public synchronized void setShouldBeDrawn(int index,
+			boolean shouldBeDrawn) {
+		if (this.shouldBeDrawn[index] != shouldBeDrawn) {
+			this.shouldBeDrawn[index] = shouldBeDrawn;
+			markChanged(FrameUpdate.VISIBILITY, 1);
+		}
+	}
+
+	/**
+	 * Hides and stops one shape and sets its variables back to random initial
+	 * values.
+	 *
+	 * @param index
+	 *            The slot of the shape.
+	 */
+	public synchronized void clear(int index) {
+		running[index] = false;
+		shouldBeDrawn[index] = false;
+		markChanged(FrameUpdate.RESET, 1);
+		int xLimit = width - figureWidth[index];
+		int yLimit = height - figureHeight[index];
+		// the bounds stay positive however small the window is
+		xPosition[index] = random.nextInt(Math.max(1, xLimit / 2 + 5))
+				+ xLimit / 2 - 10;
+		yPosition[index] = random.nextInt(Math.max(1, yLimit / 2 - 10)) + 5;
+		previousX[index] = xPosition[index];
+		previousY[index] = yPosition[index];
+		xDelta[index] = random.nextInt(8) + 2;
+		yDelta[index] = random.nextInt(8) + 2;
+		figureWidth[index] = random.nextInt(30) + 2;
+		figureHeight[index] = random.nextInt(30) + 2;
+		changeColors(index);
+	}
+
+	/**
+	 * Makes this store a copy of a state received from another, so that a
+	 * viewer can draw the other store's shapes as its own. The current
+	 * positions become the previous ones, for interpolation; shapes that
+	 * are new start where they are. Nothing moves by itself in such a store:
+	 * none of its shapes are running.
+	 *
+	 * @param state
+	 *            The shapes, window size and symmetry to take on.
+	 */
+	synchronized void load(ShapeState state) {
+		int n = state.size;
+		int old = size;
+		ensureCapacity(n);
+		while (size < n) {
+			allocate();
+		}
+		if (size > n) {
+			for (int i = size - 1; i >= n; i--) {
+				release(idOf[i]);
+			}
+			size = n;
+		}
+		int moved = 0, recolored = 0, visibility = Math.abs(n - old);
+		boolean reset = false;
+		for (int i = 0; i < n; i++) {
+			boolean fresh = i >= old;
+			previousX[i] = fresh ? state.x[i] : xPosition[i];
+			previousY[i] = fresh ? state.y[i] : yPosition[i];
+			if (state.x[i] != xPosition[i] || state.y[i] != yPosition[i]) {
+				moved++;
+			}
+			if (state.color[i] != color[i]) {
+				recolored++;
+			}
+			if (state.shouldBeDrawn[i] != shouldBeDrawn[i]) {
+				visibility++;
+			}
+			reset |= !fresh && (state.type[i] != type[i]
+					|| state.figureWidth[i] != figureWidth[i]
+					|| state.figureHeight[i] != figureHeight[i]);
+			xPosition[i] = state.x[i];
+			yPosition[i] = state.y[i];
+			figureWidth[i] = state.figureWidth[i];
+			figureHeight[i] = state.figureHeight[i];
+			color[i] = state.color[i];
+			type[i] = state.type[i];
+			shouldBeDrawn[i] = state.shouldBeDrawn[i];
+			running[i] = false;
+			xDelta[i] = 0;
+			yDelta[i] = 0;
+		}
+		if (moved > 0) {
+			markChanged(FrameUpdate.MOVED, moved);
+		}
+		if (recolored > 0) {
+			markChanged(FrameUpdate.RECOLORED, recolored);
+		}
+		if (visibility > 0) {
+			markChanged(FrameUpdate.VISIBILITY, visibility);
+		}
+		if (reset) {
+			markChanged(FrameUpdate.RESET, 1);
+		}
+		if (state.width != width || state.height != height) {
+			width = state.width;
+			height = state.height;
+			markChanged(FrameUpdate.LIMITS, 1);
+		}
+		if (state.order != symmetry.getOrder()) {
+			setSymmetry(Symmetry.of(state.order));
+		}
+	}
+
+	/**
+	 * Records that something changed, to be included in the next frame.
+	 *
+	 * @param flag
+	 *            The kind of change, one of the FrameUpdate constants.
+	 * @param count
+	 *            How many individual changes of that kind were made.
+	 */
+	private synchronized void markChanged(int flag, int count) {
+		pendingFlags |= flag;
+		pendingChanges += count;
+	}
+
+	/**
+	 * Sends everything that has changed since the previous frame to the
+	 * observers as a single {@link FrameUpdate}. Does nothing if nothing has
+	 * changed.
+	 *
+	 * @return The update sent, or null if there was nothing to send.
+	 */
+	public FrameUpdate publishFrame() {
+		FrameUpdate update;
+		synchronized (this) {
+			if (pendingFlags == 0) {
+				if (timingChanged) {
+					takeSnapshot();
+				}
+				return null;
+			}
+			update = new FrameUpdate(++frameCount, pendingFlags,
+					pendingChanges);
+			pendingFlags = 0;
+			pendingChanges = 0;
+			takeSnapshot();
+			setChanged();
+		}
+		notifyObservers(update);
+		return update;
+	}
+
+	/**
+	 * Copies the shapes into a snapshot nobody is drawing from and makes it
+	 * the latest. Called with the lock held.
+	 */
+	private void takeSnapshot() {
+		FrameSnapshot next = null;
+		for (FrameSnapshot s : snapshots) {
+			if (s != snapshot && s.tryClaim()) {
+				next = s;
+				break;
+			}
+		}
+		if (next == null) {
+			// every snapshot is being drawn from
+			next = new FrameSnapshot();
+			next.tryClaim();
+			snapshots = Arrays.copyOf(snapshots, snapshots.length + 1);
+			snapshots[snapshots.length - 1] = next;
+		}
+		next.copy(this, frameCount, stepTime, nanosPerStep);
+		timingChanged = false;
+		snapshot = next;
+	}
+
+	/**
+	 * Takes the latest published frame for drawing. Never blocks: if the
+	 * store has just started rewriting the snapshot that was the latest, a
+	 * newer one has already taken its place.
+	 *
+	 * @return The snapshot, which must be released once drawn.
+	 */
+	public FrameSnapshot acquireSnapshot() {
+		for (;;) {
+			FrameSnapshot s = snapshot;
+			if (s.tryAcquire()) {
+				return s;
+			}
+		}
+	}
+
+	/**
+	 * @return The number of frames published so far.
+	 */
+	public synchronized long getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Tells the store when its current positions were reached, so that
+	 * renderers can draw the shapes part of the way between their previous and
+	 * current positions.
+	 *
+	 * @param stepTime
+	 *            When the latest step was due, as System.nanoTime(); 0 to
+	 *            draw the current positions as they are, e.g. while paused.
+	 * @param nanosPerStep
+	 *            How much real time one step stands for.
+	 */
+	public synchronized void setStepTiming(long stepTime, long nanosPerStep) {
+		this.stepTime = stepTime;
+		this.nanosPerStep = nanosPerStep;
+		timingChanged = true;
+	}
+
+	/**
+	 * @return How far the display should be between the previous positions
+	 *         (0) and the current ones (1) right now.
+	 */
+	public float getInterpolation() {
+		return getInterpolation(System.nanoTime());
+	}
+
+	/**
+	 * @param now
+	 *            The time of the frame being drawn, as System.nanoTime().
+	 * @return How far the display should be between the previous positions
+	 *         (0) and the current ones (1) at that time.
+	 */
+	public synchronized float getInterpolation(long now) {
+		return interpolation(now, stepTime, nanosPerStep);
+	}
+
+	static float interpolation(long now, long stepTime, long nanosPerStep) {
+		if (stepTime == 0 || nanosPerStep <= 0) {
+			return 1;
+		}
+		float alpha = (float) (now - stepTime) / nanosPerStep;
+		return Math.max(0, Math.min(alpha, 1));
+	}
+
+	/**
+	 * @param index
+	 *            The slot of a shape.
+	 * @return The shape's horizontal distance from the midline of the window.
+	 */
+	public int getLenFromXOrigin(int index) {
+		return xPosition[index] - (width - 2 * figureWidth[index]) / 2;
+	}
+
+	/**
+	 * @param index
+	 *            The slot of a shape.
+	 * @return The shape's vertical distance from the midline of the window.
+	 */
+	public int getLenFromYOrigin(int index) {
+		return yPosition[index] - (height - 2 * figureHeight[index]) / 2;
+	}
+
+	/**
+	 * @param index
+	 *            The slot of a shape.
+	 * @return returns a reflected x coordinate
+	 */
+	public int getNegX(int index) {
+		return (width - figureWidth[index]) / 2 - getLenFromXOrigin(index);
+	}
+
+	/**
+	 * @param index
+	 *            The slot of a shape.
+	 * @return returns a reflected y coordinate
+	 */
+	public int getNegY(int index) {
+		return (height - figureHeight[index]) / 2 - getLenFromYOrigin(index);
+	}
+
+	/**
+	 * @param index
+	 *            The slot of a shape.
+	 * @return returns a reflected x coordinate
+	 */
+	public int getInvX(int index) {
+		return (height - figureHeight[index]) / 2 - getLenFromXOrigin(index);
+	}
+
+	/**
+	 * @param index
+	 *            The slot of a shape.
+	 * @return returns a reflected y coordinate
+	 */
+	public int getInvY(int index) {
+		return (width - figureWidth[index]) / 2 - getLenFromYOrigin(index);
+	}
+
+	/**
+	 * @param index
+	 *            The slot of a shape.
+	 * @return returns a reflected x coordinate
+	 */
+	public int getNegInvX(int index) {
+		return (height - figureHeight[index]) / 2 + getLenFromXOrigin(index);
+	}
+
+	/**
+	 * @param index
+	 *            The slot of a shape.
+	 * @return returns a reflected y coordinate
+	 */
+	public int getNegInvY(int index) {
+		return (width - figureWidth[index]) / 2 + getLenFromYOrigin(index);
+	}
+
+	/**
+	 * Computes the origins of all eight copies of a shape at once, in the
+	 * order (x, y), (negX, y), (x, negY), (negX, negY), (negInvY, negInvX),
+	 * (invY, negInvX), (negInvY, invX), (invY, invX). This gives the same
+	 * values as the individual getters without repeating their arithmetic.
+	 *
+	 * @param index
+	 *            The slot of a shape.
+	 * @param xs
+	 *            Receives the x coordinates; must hold at least REFLECTIONS
+	 *            values.
+	 * @param ys
+	 *            Receives the y coordinates; must hold at least REFLECTIONS
+	 *            values.
+	 */
+	public void reflect(int index, int[] xs, int[] ys) {
+		reflect(index, 1, xs, ys);
+	}
+
+	/**
+	 * Computes the origins of all eight copies of a shape, as reflect(index,
+	 * xs, ys) does, for the shape drawn part of the way between its previous
+	 * and current positions.
+	 *
+	 * @param index
+	 *            The slot of a shape.
+	 * @param alpha
+	 *            How far between the previous position (0) and the current
+	 *            one (1) the shape is drawn; see getInterpolation().
+	 * @param xs
+	 *            Receives the x coordinates; must hold at least REFLECTIONS
+	 *            values.
+	 * @param ys
+	 *            Receives the y coordinates; must hold at least REFLECTIONS
+	 *            values.
+	 */
+	public void reflect(int index, float alpha, int[] xs, int[] ys) {
+		int x = xPosition[index];
+		int y = yPosition[index];
+		if (alpha < 1) {
+			int px = previousX[index];
+			int py = previousY[index];
+			x = px + Math.round((x - px) * alpha);
+			y = py + Math.round((y - py) * alpha);
+		}
+		reflect(x, y, figureWidth[index], figureHeight[index], width, height,
+				xs, ys, 0);
+	}
+
+	/**
+	 * Computes the origins of all eight copies of a shape at a position.
+	 *
+	 * @param x
+	 *            The x coordinate of the shape.
+	 * @param y
+	 *            The y coordinate of the shape.
+	 * @param w
+	 *            The shape's figure width.
+	 * @param h
+	 *            The shape's figure height.
+	 * @param width
+	 *            The width of the window.
+	 * @param height
+	 *            The height of the window.
+	 * @param xs
+	 *            Receives the x coordinates.
+	 * @param ys
+	 *            Receives the y coordinates.
+	 * @param offset
+	 *            Where in xs and ys to put the REFLECTIONS coordinates.
+	 */
+	static void reflect(int x, int y, int w, int h, int width, int height,
+			int[] xs, int[] ys, int offset) {
+		int halfX = (width - w) / 2;
+		int halfY = (height - h) / 2;
+		int lenX = x - (width - 2 * w) / 2;
+		int lenY = y - (height - 2 * h) / 2;
+		int negX = halfX - lenX;
+		int negY = halfY - lenY;
+		int invX = halfY - lenX;
+		int invY = halfX - lenY;
+		int negInvX = halfY + lenX;
+		int negInvY = halfX + lenY;
+		xs[offset + 0] = x;
+		ys[offset + 0] = y;
+		xs[offset + 1] = negX;
+		ys[offset + 1] = y;
+		xs[offset + 2] = x;
+		ys[offset + 2] = negY;
+		xs[offset + 3] = negX;
+		ys[offset + 3] = negY;
+		xs[offset + 4] = negInvY;
+		ys[offset + 4] = negInvX;
+		xs[offset + 5] = invY;
+		ys[offset + 5] = negInvX;
+		xs[offset + 6] = negInvY;
+		ys[offset + 6] = invX;
+		xs[offset + 7] = invY;
+		ys[offset + 7] = invX;
+	}
+}
@@ -0,0 +1,291 @@
+package kaleidoscope;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * A single clock that drives every running Shape. Rather than each Shape
+ * owning its own Timer thread, the clock advances every running shape in its
+ * ShapeStore in one pass per step. Pausing, resuming and changing speed are
+ * all done here, once, for the whole kaleidoscope.
+ * <p>
+ * The simulation runs on a fixed timestep: every step moves each shape by
+ * its own xDelta and yDelta and stands for one period of simulated time.
+ * Real time elapsed between ticks is collected in an accumulator and spent
+ * one whole step at a time, so uneven timer wake-ups do not change how fast
+ * the shapes move. The speed factor makes simulated time pass faster rather
+ * than making the steps bigger, and the store is told when each step was due
+ * so that renderers can draw the shapes in between steps, at any frame rate.
+ */
+public class SimulationClock {
+	// simulated time per step, in milliseconds (25 steps a second at normal
+	// speed)
+	public static final int DEFAULT_PERIOD = 40;
+
+	// at most this many steps are taken in one tick to catch up after a
+	// stall; any further backlog is dropped
+	private static final int MAX_STEPS_PER_TICK = 50;
+
+	// the shapes to move; only those started with Shape.start() move
+	private final ShapeStore store;
+
+	// the one and only timer thread, created the first time the clock starts
+	private Timer timer;
+	private TimerTask tick;
+	private int period = DEFAULT_PERIOD;
+
+	// how many times faster than real time simulated time passes
+	private volatile int speedFactor = 1;
+	private volatile long tickCount;
+	private volatile long stepCount;
+
+	// simulated time not yet spent on steps (negative when the simulation
+	// is ahead), and when it was last topped up, in nanoseconds; used only by
+	// the timer thread once it is running
+	private long accumulator;
+	private long lastTickTime;
+
+	// receives the timing of every tick, if set
+	private volatile FrameStats stats;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param store
+	 *            The shapes that this clock moves.
+	 */
+	public SimulationClock(ShapeStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * @param stats
+	 *            Receives the timing of every tick from now on; null to stop
+	 *            timing.
+	 */
+	public synchronized void setStats(FrameStats stats) {
+		this.stats = stats;
+		if (stats != null) {
+			stats.setExpectedPeriod(getTickPeriod());
+		}
+	}
+
+	/**
+	 * Starts (or resumes) ticking. Does nothing if the clock is already
+	 * running.
+	 */
+	public synchronized void start() {
+		if (tick != null) {
+			return;
+		}
+		if (timer == null) {
+			timer = new Timer("SimulationClock", true);
+		}
+		accumulator = 0;
+		lastTickTime = System.nanoTime();
+		schedule();
+	}
+
+	/**
+	 * Stops ticking; every shape stays where it is. The timer
+	 * thread itself is kept so that resuming does not create a new one.
+	 */
+	public synchronized void pause() {
+		if (tick != null) {
+			tick.cancel();
+			tick = null;
+			timer.purge();
+			// shows the shapes where they are rather than a step behind
+			store.setStepTiming(0, 0);
+			store.publishFrame();
+			if (stats != null) {
+				stats.clockStopped();
+			}
+		}
+	}
+
+	/**
+	 * @return true if the clock is currently ticking.
+	 */
+	public synchronized boolean isRunning() {
+		return tick != null;
+	}
+
+	/**
+	 * Changes the amount of simulated time that one step stands for, and so
+	 * how often the shapes move. If the clock is running it is rescheduled
+	 * with the new period straight away.
+	 *
+	 * @param period
+	 *            The simulated time per step, in milliseconds.
+	 */
+	public synchronized void setPeriod(int period) {
+		if (period <= 0) {
+			throw new IllegalArgumentException("period must be positive: "
+					+ period);
+		}
+		this.period = period;
+		reschedule();
+	}
+
+	/**
+	 * @return The simulated time per step, in milliseconds.
+	 */
+	public synchronized int getPeriod() {
+		return period;
+	}
+
+	/**
+	 * @return The real time between ticks, in milliseconds: one step's worth
+	 *         at the current speed, so that each tick normally takes one step.
+	 */
+	public synchronized int getTickPeriod() {
+		return Math.max(1, period / speedFactor);
+	}
+
+	/**
+	 * Speeds up movement of every shape.
+	 */
+	public synchronized void speedUp() {
+		speedFactor++;
+		reschedule();
+	}
+
+	/**
+	 * Slows down movement of every shape, down to real time.
+	 */
+	public synchronized void slowDown() {
+		if (speedFactor > 1) {
+			speedFactor--;
+			reschedule();
+		}
+	}
+
+	/**
+	 * @param speedFactor
+	 *            How many times faster than real time simulated time passes;
+	 *            at least 1.
+	 */
+	public synchronized void setSpeedFactor(int speedFactor) {
+		if (speedFactor < 1) {
+			throw new IllegalArgumentException(
+					"speed factor must be at least 1: " + speedFactor);
+		}
+		this.speedFactor = speedFactor;
+		reschedule();
+	}
+
+	/**
+	 * @return How many times faster than real time simulated time passes.
+	 */
+	public int getSpeedFactor() {
+		return speedFactor;
+	}
+
+	/**
+	 * @return The number of ticks performed since the clock was created.
+	 */
+	public long getTickCount() {
+		return tickCount;
+	}
+
+	/**
+	 * @return The number of steps taken since the clock was created.
+	 */
+	public long getStepCount() {
+		return stepCount;
+	}
+
+	/**
+	 * Makes sure that changes made to the model outside a tick (by the
+	 * buttons, for example) reach its observers. While the clock is running
+	 * they go out together with the next tick; otherwise they are published
+	 * straight away.
+	 */
+	public void publishChanges() {
+		if (!isRunning()) {
+			store.publishFrame();
+		}
+	}
+
+	/**
+	 * Starts the timer task at the tick period for the current speed.
+	 */
+	private void schedule() {
+		tick = new Tick();
+		int tickPeriod = getTickPeriod();
+		timer.scheduleAtFixedRate(tick, 0, tickPeriod);
+		if (stats != null) {
+			stats.setExpectedPeriod(tickPeriod);
+		}
+	}
+
+	/**
+	 * Restarts the timer task, if it is running, after the period or speed
+	 * has changed. The accumulated time carries over.
+	 */
+	private void reschedule() {
+		if (tick != null) {
+			tick.cancel();
+			timer.purge();
+			schedule();
+		}
+	}
+
+	/**
+	 * Adds the real time since the previous tick, scaled by the speed, to the
+	 * accumulator and takes as many whole steps as it holds, then publishes
+	 * everything that changed as one frame.
+	 */
+	void tick() {
+		long start = System.nanoTime();
+		int speed = speedFactor;
+		long stepNanos;
+		synchronized (this) {
+			stepNanos = period * 1000000L;
+			accumulator += (start - lastTickTime) * speed;
+			lastTickTime = start;
+		}
+		// a step is taken once half of it is due, so that a tick which comes
+		// a little early does not leave the shapes standing still for a
+		// whole period; the simulation may run up to half a step ahead
+		int steps = 0;
+		long moved = 0;
+		MotionModel model = store.getMotionModel();
+		long stepStart = System.nanoTime();
+		while (accumulator >= stepNanos / 2 && steps < MAX_STEPS_PER_TICK) {
+			moved += store.makeOneStep(1);
+			accumulator -= stepNanos;
+			steps++;
+		}
+		long stepDuration = System.nanoTime() - stepStart;
+		if (accumulator >= stepNanos / 2) {
+			accumulator = 0;
+		}
+		stepCount += steps;
+		tickCount++;
+		// the current positions were due when the time left over began, so
+		// they are reached on screen a step later
+		store.setStepTiming(start - accumulator / speed, stepNanos / speed);
+		FrameUpdate update = store.publishFrame();
+		FrameStats s = stats;
+		if (s != null) {
+			if (steps > 0) {
+				s.recordSteps(model.getName(), steps, moved, stepDuration);
+			}
+			long frame = update != null ? update.getFrame() : store
+					.getFrameCount();
+			s.recordTick(frame, start, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Tells the model to advance one "step."
+	 */
+	private class Tick extends TimerTask {
+		@Override
+		public void run() {
+			tick();
+		}
+	}
+}
@@ -0,0 +1,333 @@
+package kaleidoscope;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+
+/**
+ * Holds antialiased images of shapes, so that a shape is rasterized once and
+ * then copied to the screen for as long as its type, size, color and
+ * orientation stay the same. Sprites are looked up by a key packing all five;
+ * a shape given a new size or color by changeColors() or clear() simply asks
+ * for a different key, and the sprites it no longer uses age out.
+ * <p>
+ * The images take at most a fixed number of bytes between them. When a new
+ * sprite would go over that budget, the sprites used least recently are
+ * dropped until it fits, but never one already used in the frame being
+ * drawn: shapes are drawn in the same order every frame, so once a frame's
+ * sprites outgrow the budget, plain LRU would evict each sprite just before
+ * it was needed again and every lookup would miss. Instead the sprites that
+ * do not fit are drawn and handed out without being kept, and the rest keep
+ * hitting. The sprites are also the nodes of the list that
+ * keeps them in order of use, so a caller that holds on to a sprite can
+ * mark it used again without a lookup, and nothing is allocated unless a
+ * sprite has to be drawn.
+ * <p>
+ * The images are ordinary BufferedImages, which Java2D copies to video
+ * memory by itself once they have been drawn a few times unchanged.
+ */
+public class SpriteCache {
+	// the budget used if none is given, in bytes
+	public static final long DEFAULT_BUDGET = 32L << 20;
+
+	// the largest width or height a key can hold; bigger shapes are not
+	// cached
+	public static final int MAX_SIZE = (1 << 14) - 1;
+
+	// orientations of a sprite, ORed together: mirrored across the diagonal,
+	// and upside down (only triangles have an up)
+	public static final int TRANSPOSED = 2;
+	public static final int FLIPPED = 1;
+
+	/**
+	 * One cached image, and its place in the order of use.
+	 */
+	public static final class Sprite {
+		final long key;
+		// null once the sprite has been evicted
+		BufferedImage image;
+		// false once evicted, or if it was never kept
+		boolean cached;
+		// where the image goes relative to the shape's origin
+		final int offsetX, offsetY;
+		final int bytes;
+		// the latest frame the sprite was used in
+		long frame;
+		// neighbours in the order of use, most recent first
+		Sprite newer, older;
+
+		Sprite(long key, BufferedImage image, int offsetX, int offsetY) {
+			this.key = key;
+			this.image = image;
+			this.offsetX = offsetX;
+			this.offsetY = offsetY;
+			this.bytes = image.getWidth() * image.getHeight() * 4;
+		}
+
+		/**
+		 * @return Whether the sprite is still in the cache; an evicted
+		 *         sprite has no image.
+		 */
+		public boolean isCached() {
+			return cached;
+		}
+	}
+
+	private final long budget;
+	private final HashMap<Long, Sprite> sprites = new HashMap<Long, Sprite>();
+	// ends of the order of use; head is the most recently used
+	private Sprite head, tail;
+	private long bytes;
+	// counts calls to beginFrame()
+	private long frame;
+
+	// scratch space for outlines
+	private final int[] vertexX = new int[4];
+	private final int[] vertexY = new int[4];
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param budget
+	 *            The most bytes the images may take between them.
+	 */
+	public SpriteCache(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Starts a new frame; sprites used before it may be evicted again.
+	 */
+	public void beginFrame() {
+		frame++;
+	}
+
+	/**
+	 * Packs the description of a sprite into a key.
+	 *
+	 * @param type
+	 *            One of the ShapeStore type ordinals.
+	 * @param orientation
+	 *            TRANSPOSED and FLIPPED ORed together, or 0.
+	 * @param w
+	 *            The shape's figure width, at most MAX_SIZE.
+	 * @param h
+	 *            The shape's figure height, at most MAX_SIZE.
+	 * @param rgb
+	 *            The shape's color, as 0xRRGGBB.
+	 * @return The key.
+	 */
+	public static long key(byte type, int orientation, int w, int h, int rgb) {
+		return (long) type << 54 | (long) orientation << 52 | (long) w << 38
+				| (long) h << 24 | rgb & 0xffffffL;
+	}
+
+	/**
+	 * Finds a sprite, drawing it if it is not cached, and marks it as the
+	 * most recently used.
+	 *
+	 * @param key
+	 *            The sprite's key, from key().
+	 * @return The sprite, which may be evicted by a later call.
+	 */
+	public Sprite get(long key) {
+		Sprite sprite = sprites.get(key);
+		if (sprite != null) {
+			touch(sprite);
+			return sprite;
+		}
+		misses++;
+		sprite = draw(key);
+		sprite.frame = frame;
+		while (bytes + sprite.bytes > budget) {
+			if (tail == null || tail.frame == frame) {
+				// the frame's sprites fill the budget; handed out without
+				// being kept
+				return sprite;
+			}
+			evict(tail);
+		}
+		sprite.cached = true;
+		sprites.put(key, sprite);
+		link(sprite);
+		bytes += sprite.bytes;
+		return sprite;
+	}
+
+	/**
+	 * Uses again a sprite the caller already holds, without a lookup, if it
+	 * is still cached or was handed out in this frame, and marks it as the
+	 * most recently used.
+	 *
+	 * @param sprite
+	 *            A sprite returned by get().
+	 * @return false if the sprite has to be looked up again.
+	 */
+	public boolean reuse(Sprite sprite) {
+		if (sprite.cached) {
+			touch(sprite);
+			return true;
+		}
+		if (sprite.frame == frame && sprite.image != null) {
+			hits++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Drops every sprite.
+	 */
+	public void clear() {
+		while (tail != null) {
+			evict(tail);
+		}
+	}
+
+	/**
+	 * @return The number of times a cached sprite was used.
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return The number of sprites that had to be drawn.
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return The number of sprites dropped to stay within the budget.
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return The number of sprites cached.
+	 */
+	public int size() {
+		return sprites.size();
+	}
+
+	/**
+	 * @return The bytes taken by the cached images.
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return One line giving the hit rate, evictions and memory in use.
+	 */
+	public String summarize() {
+		long uses = hits + misses;
+		return String.format("sprites %5.1f%% hits, %d evicted, %d cached in "
+				+ "%d of %d KB", uses == 0 ? 0 : 100.0 * hits / uses,
+				evictions, sprites.size(), bytes >> 10, budget >> 10);
+	}
+
+	private void touch(Sprite sprite) {
+		hits++;
+		sprite.frame = frame;
+		if (sprite != head) {
+			unlink(sprite);
+			link(sprite);
+		}
+	}
+
+	private void evict(Sprite sprite) {
+		unlink(sprite);
+		sprites.remove(sprite.key);
+		bytes -= sprite.bytes;
+		sprite.image.flush();
+		sprite.image = null;
+		sprite.cached = false;
+		evictions++;
+	}
+
+	private void link(Sprite sprite) {
+		sprite.newer = null;
+		sprite.older = head;
+		if (head != null) {
+			head.newer = sprite;
+		} else {
+			tail = sprite;
+		}
+		head = sprite;
+	}
+
+	private void unlink(Sprite sprite) {
+		if (sprite.newer != null) {
+			sprite.newer.older = sprite.older;
+		} else {
+			head = sprite.older;
+		}
+		if (sprite.older != null) {
+			sprite.older.newer = sprite.newer;
+		} else {
+			tail = sprite.newer;
+		}
+		sprite.newer = null;
+		sprite.older = null;
+	}
+
+	/**
+	 * Rasterizes the sprite a key describes.
+	 */
+	private Sprite draw(long key) {
+		byte type = (byte) (key >>> 54 & 3);
+		int orientation = (int) (key >>> 52 & 3);
+		int w = (int) (key >>> 38 & MAX_SIZE);
+		int h = (int) (key >>> 24 & MAX_SIZE);
+		Color color = new Color((int) key & 0xffffff);
+		boolean transposed = (orientation & TRANSPOSED) != 0;
+		if (type == ShapeStore.CIRCLE || type == ShapeStore.RECTANGLE) {
+			int width = transposed ? h : w;
+			int height = transposed ? w : h;
+			// antialiased edges may reach into the pixel past the box
+			BufferedImage image = new BufferedImage(width + 1, height + 1,
+					BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = begin(image, color);
+			if (type == ShapeStore.CIRCLE) {
+				g.fillOval(0, 0, width, height);
+			} else {
+				g.fillRect(0, 0, width, height);
+			}
+			g.dispose();
+			return new Sprite(key, image, 0, 0);
+		}
+		int n = ShapeRenderer.outline(type, transposed,
+				(orientation & FLIPPED) != 0, 0, 0, w, h, vertexX, vertexY);
+		int minX = vertexX[0], maxX = minX, minY = vertexY[0], maxY = minY;
+		for (int v = 1; v < n; v++) {
+			minX = Math.min(minX, vertexX[v]);
+			maxX = Math.max(maxX, vertexX[v]);
+			minY = Math.min(minY, vertexY[v]);
+			maxY = Math.max(maxY, vertexY[v]);
+		}
+		BufferedImage image = new BufferedImage(maxX - minX + 2, maxY - minY
+				+ 2, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = begin(image, color);
+		g.translate(-minX, -minY);
+		g.fillPolygon(vertexX, vertexY, n);
+		g.dispose();
+		return new Sprite(key, image, minX, minY);
+	}
+
+	private static Graphics2D begin(BufferedImage image, Color color) {
+		Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+				RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setColor(color);
+		return g;
+	}
+}
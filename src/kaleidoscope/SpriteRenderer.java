@@ -0,0 +1,247 @@
+package kaleidoscope;
+
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * A Renderer that draws circles, triangles and diamonds as antialiased
+ * sprites from a SpriteCache, so each is rasterized once rather than once
+ * per copy a frame, and copied to the screen with drawImage. Copies are
+ * clipped and interpolated as by the ShapeRenderer. Rectangles are still
+ * filled directly: their edges are on whole pixels, so antialiasing would
+ * change nothing, and a fill is cheaper than a copy.
+ * <p>
+ * At the Quality levels without antialiasing, every shape is filled directly
+ * instead, as the ShapeRenderer fills it.
+ * <p>
+ * Each slot remembers the sprites it drew last, and uses them again without
+ * a lookup for as long as their keys still match, so a frame in which no
+ * shape changed looks nothing up and allocates nothing.
+ */
+public class SpriteRenderer implements Renderer {
+	// sprites remembered per slot, one for each orientation
+	private static final int ORIENTATIONS = 4;
+
+	private final ShapeStore store;
+	private final SpriteCache cache;
+
+	// the snapshot being painted
+	private FrameSnapshot frame;
+
+	// the sprites each slot drew last, ORIENTATIONS per slot, and the Color
+	// each slot's rectangles were last filled with
+	private SpriteCache.Sprite[] slotSprites =
+			new SpriteCache.Sprite[16 * ORIENTATIONS];
+	private Color[] colors = new Color[16];
+
+	// scratch space reused on every frame
+	private final CopyBuffer copies = new CopyBuffer();
+	private final int[] vertexX = new int[4];
+	private final int[] vertexY = new int[4];
+
+	// the clip of the Graphics being painted, as left, top, right, bottom
+	private final Rectangle clipBounds = new Rectangle();
+	private int clipLeft, clipTop, clipRight, clipBottom;
+
+	/**
+	 * Constructor, with a cache of SpriteCache.DEFAULT_BUDGET bytes.
+	 *
+	 * @param store
+	 *            The Model whose shapes are to be drawn.
+	 */
+	public SpriteRenderer(ShapeStore store) {
+		this(store, new SpriteCache(SpriteCache.DEFAULT_BUDGET));
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param store
+	 *            The Model whose shapes are to be drawn.
+	 * @param cache
+	 *            Holds the sprites; not to be shared with another thread.
+	 */
+	public SpriteRenderer(ShapeStore store, SpriteCache cache) {
+		this.store = store;
+		this.cache = cache;
+	}
+
+	/**
+	 * @return The cache the sprites are drawn from.
+	 */
+	public SpriteCache getCache() {
+		return cache;
+	}
+
+	@Override
+	public void setQuality(Quality quality) {
+		copies.quality = quality;
+	}
+
+	@Override
+	public boolean canApply(Quality quality) {
+		// the sprites are drawn at full size
+		return !quality.dropsResolution();
+	}
+
+	@Override
+	public void paint(Graphics g, int width, int height) {
+		g.setColor(Color.black);
+		g.fillRect(0, 0, width, height);
+
+		clipBounds.setBounds(Integer.MIN_VALUE / 2, Integer.MIN_VALUE / 2,
+				Integer.MAX_VALUE, Integer.MAX_VALUE);
+		g.getClipBounds(clipBounds);
+		clipLeft = clipBounds.x;
+		clipTop = clipBounds.y;
+		clipRight = clipBounds.x + clipBounds.width;
+		clipBottom = clipBounds.y + clipBounds.height;
+		frame = store.acquireSnapshot();
+		Composite composite = ShapeRenderer.applyOpacity(g, frame.opacity);
+		try {
+			drawShapes(g);
+		} finally {
+			((Graphics2D) g).setComposite(composite);
+			frame.release();
+			frame = null;
+		}
+	}
+
+	private void drawShapes(Graphics g) {
+		copies.update(frame, frame.getInterpolation());
+		cache.beginFrame();
+		int n = frame.size;
+		if (slotSprites.length < n * ORIENTATIONS) {
+			slotSprites = Arrays.copyOf(slotSprites,
+					Math.max(n, slotSprites.length / ORIENTATIONS * 2)
+							* ORIENTATIONS);
+			colors = Arrays.copyOf(colors, slotSprites.length / ORIENTATIONS);
+		}
+		boolean[] drawn = copies.drawn;
+		boolean smooth = copies.quality.isAntialiased();
+		byte[] type = frame.type;
+		for (int i = 0; i < n; i++) {
+			if (!drawn[i]) {
+				continue;
+			}
+			int w = frame.figureWidth[i];
+			int h = frame.figureHeight[i];
+			if (type[i] == ShapeStore.RECTANGLE) {
+				drawRectangles(g, i, w, h);
+			} else if (!smooth || w > SpriteCache.MAX_SIZE
+					|| h > SpriteCache.MAX_SIZE) {
+				// too big for a key, or not to be smoothed
+				drawUnsmoothed(g, i, w, h);
+			} else {
+				drawSprites(g, i, type[i], w, h);
+			}
+		}
+	}
+
+	private void drawSprites(Graphics g, int i, byte type, int w, int h) {
+		int rgb = frame.color[i];
+		int c = copies.copies;
+		Symmetry symmetry = copies.symmetry;
+		for (int k = 0, j = i * c; k < c; k++, j++) {
+			boolean transposed = symmetry.isTransposed(k);
+			int orientation;
+			long key;
+			if (type == ShapeStore.CIRCLE) {
+				// an oval mirrored across the diagonal is just an oval of the
+				// other proportions
+				orientation = transposed ? SpriteCache.TRANSPOSED : 0;
+				key = transposed ? SpriteCache.key(type, 0, h, w, rgb)
+						: SpriteCache.key(type, 0, w, h, rgb);
+			} else {
+				orientation = (transposed ? SpriteCache.TRANSPOSED : 0)
+						| (type == ShapeStore.TRIANGLE
+								&& symmetry.isFlipped(k) ? SpriteCache.FLIPPED
+								: 0);
+				key = SpriteCache.key(type, orientation, w, h, rgb);
+			}
+			SpriteCache.Sprite sprite = spriteOf(i, orientation, key);
+			int x = copies.x[j] + sprite.offsetX;
+			int y = copies.y[j] + sprite.offsetY;
+			BufferedImage image = sprite.image;
+			if (inClip(x, y, image.getWidth(), image.getHeight())) {
+				g.drawImage(image, x, y, null);
+			}
+		}
+	}
+
+	/**
+	 * Returns the sprite for one orientation of a shape, reusing the one the
+	 * slot drew last if the cache allows and it still fits the shape.
+	 */
+	private SpriteCache.Sprite spriteOf(int i, int orientation, long key) {
+		int index = i * ORIENTATIONS + orientation;
+		SpriteCache.Sprite sprite = slotSprites[index];
+		if (sprite != null && sprite.key == key && cache.reuse(sprite)) {
+			return sprite;
+		}
+		sprite = cache.get(key);
+		slotSprites[index] = sprite;
+		return sprite;
+	}
+
+	private void drawRectangles(Graphics g, int i, int w, int h) {
+		g.setColor(colorOf(i));
+		int c = copies.copies;
+		int[] ox = copies.x, oy = copies.y;
+		for (int k = 0, j = i * c; k < c; k++, j++) {
+			boolean transposed = copies.symmetry.isTransposed(k);
+			int width = transposed ? h : w;
+			int height = transposed ? w : h;
+			if (inClip(ox[j], oy[j], width, height)) {
+				g.fillRect(ox[j], oy[j], width, height);
+			}
+		}
+	}
+
+	private void drawUnsmoothed(Graphics g, int i, int w, int h) {
+		byte type = frame.type[i];
+		g.setColor(colorOf(i));
+		int c = copies.copies;
+		int[] ox = copies.x, oy = copies.y;
+		Symmetry symmetry = copies.symmetry;
+		for (int k = 0, j = i * c; k < c; k++, j++) {
+			boolean transposed = symmetry.isTransposed(k);
+			if (type == ShapeStore.CIRCLE) {
+				if (!transposed) {
+					g.fillOval(ox[j], oy[j], w, h);
+				} else {
+					g.fillOval(ox[j], oy[j], h, w);
+				}
+			} else {
+				int n = ShapeRenderer.outline(type, transposed,
+						symmetry.isFlipped(k), ox[j], oy[j], w, h, vertexX,
+						vertexY);
+				g.fillPolygon(vertexX, vertexY, n);
+			}
+		}
+	}
+
+	private Color colorOf(int i) {
+		int rgb = frame.color[i];
+		Color c = colors[i];
+		if (c == null || (c.getRGB() & 0xffffff) != rgb) {
+			c = new Color(rgb);
+			colors[i] = c;
+		}
+		return c;
+	}
+
+	/**
+	 * @return Whether any of the given box lies inside the clip of the
+	 *         Graphics being painted.
+	 */
+	private boolean inClip(int x, int y, int w, int h) {
+		return x < clipRight && x + w > clipLeft && y < clipBottom
+				&& y + h > clipTop;
+	}
+}
@@ -0,0 +1,196 @@
+package kaleidoscope;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import javax.swing.JFrame;
+
+/**
+ * Receives the frames a StateServer streams and applies them to a local
+ * ShapeStore, which a View draws like any other. Nothing is simulated here:
+ * the shapes are wherever the server last said they were, drawn part of the
+ * way from where they were before, as if they had just stepped. Every frame
+ * applied is acknowledged, so the server knows which one to send the next
+ * delta against.
+ * <p>
+ * The client keeps the frames it has applied, by sequence number modulo
+ * StateServer.HISTORY, since the server may send a delta against any of the
+ * recent ones it has been told about.
+ */
+public class StateClient implements Closeable {
+	private final ShapeStore store;
+	private final SocketChannel channel;
+	private final Thread thread;
+
+	// the frames applied, by sequence number modulo HISTORY
+	private final ShapeState[] history =
+			new ShapeState[StateServer.HISTORY];
+
+	private final ByteBuffer length = ByteBuffer.allocate(4);
+	private ByteBuffer message = ByteBuffer.allocate(1 << 16);
+	private final ByteBuffer ack = ByteBuffer.allocate(8);
+
+	private volatile boolean closed;
+	private volatile long framesReceived;
+	private volatile long bytesReceived;
+
+	/**
+	 * Connects to a server, without receiving anything yet.
+	 *
+	 * @param store
+	 *            The store to keep up to date; it should not be changed in
+	 *            any other way.
+	 * @param address
+	 *            The address of the server.
+	 * @throws IOException
+	 *             If the server cannot be reached.
+	 */
+	public StateClient(ShapeStore store, InetSocketAddress address)
+			throws IOException {
+		this.store = store;
+		channel = SocketChannel.open(address);
+		channel.socket().setTcpNoDelay(true);
+		for (int i = 0; i < history.length; i++) {
+			history[i] = new ShapeState();
+		}
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					receive();
+				} catch (IOException e) {
+					if (!closed) {
+						System.err.println("lost the server: "
+								+ e.getMessage());
+					}
+				}
+			}
+		}, "StateClient");
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Starts receiving frames.
+	 */
+	public void start() {
+		thread.start();
+	}
+
+	/**
+	 * Disconnects from the server.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		channel.close();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return The number of frames applied.
+	 */
+	public long getFramesReceived() {
+		return framesReceived;
+	}
+
+	/**
+	 * @return The number of bytes received, including the length of each
+	 *         frame.
+	 */
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	private void receive() throws IOException {
+		while (!closed) {
+			length.clear();
+			readFully(length);
+			int size = length.getInt(0);
+			if (message.capacity() < size) {
+				message = ByteBuffer.allocate(Math.max(size,
+						message.capacity() * 2));
+			}
+			message.clear();
+			message.limit(size);
+			readFully(message);
+			message.flip();
+			bytesReceived += 4 + size;
+			apply(message);
+		}
+	}
+
+	/**
+	 * Decodes one frame, applies it to the store and acknowledges it.
+	 */
+	private void apply(ByteBuffer delta) throws IOException {
+		ByteBuffer header = delta.duplicate();
+		long sequence = ShapeState.getVarint(header);
+		long baseSequence = ShapeState.getVarint(header);
+		ShapeState base = null;
+		if (baseSequence != 0) {
+			base = history[(int) (baseSequence % history.length)];
+			if (base.sequence != baseSequence) {
+				throw new IOException("sent a delta against frame "
+						+ baseSequence + ", which is not here");
+			}
+		}
+		ShapeState state = history[(int) (sequence % history.length)];
+		if (state == base) {
+			throw new IOException("sent frame " + sequence
+					+ " against frame " + baseSequence + ", too long ago");
+		}
+		state.readDelta(base, delta);
+		store.load(state);
+		store.setStepTiming(System.nanoTime(), state.nanosPerStep);
+		store.publishFrame();
+		framesReceived++;
+		ack.clear();
+		ack.putLong(0, state.sequence);
+		while (ack.hasRemaining()) {
+			channel.write(ack);
+		}
+	}
+
+	private void readFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("the server closed the connection");
+			}
+		}
+	}
+
+	/**
+	 * Shows the frames streamed by a server in a window of their own.
+	 *
+	 * @param args
+	 *            "host [port]": where the server is, on StateServer's
+	 *            default port if none is given.
+	 * @throws IOException
+	 *             If the server cannot be reached.
+	 */
+	public static void main(String[] args) throws IOException {
+		String host = args.length > 0 ? args[0] : "localhost";
+		int port = args.length > 1 ? Integer.parseInt(args[1])
+				: StateServer.DEFAULT_PORT;
+		ShapeStore store = new ShapeStore();
+		View view = new View(store, Renderers.forName(Renderers.DEFAULT,
+				store));
+		store.addObserver(view);
+		StateClient client = new StateClient(store, new InetSocketAddress(
+				host, port));
+		JFrame frame = new JFrame("Kaleidoscope - " + host + ":" + port);
+		frame.add(view);
+		frame.setSize(800, 800);
+		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		frame.setVisible(true);
+		client.start();
+	}
+}
@@ -0,0 +1,468 @@
+package kaleidoscope;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+
+/**
+ * Streams the frames a ShapeStore publishes over TCP to any number of
+ * StateClients, each of which draws them with its own View. One thread
+ * serves every client with non-blocking NIO; the thread that publishes a
+ * frame only wakes it, so the simulation never waits on the network.
+ * <p>
+ * Each frame is sent as a ShapeState delta against the latest frame the
+ * client has acknowledged, or as a keyframe if that frame is too old to be
+ * remembered. Clients acknowledge every frame they apply, and only so many
+ * frames may be waiting for a client's acknowledgement: a client that falls
+ * that far behind is skipped until it catches up, and then receives one
+ * delta spanning every frame it missed. Clients that share a base share the
+ * encoded delta.
+ * <p>
+ * A message is a four-byte length followed by the delta. An acknowledgement
+ * is the eight-byte sequence number of the frame applied.
+ */
+public class StateServer implements Observer, Closeable {
+	public static final int DEFAULT_PORT = 7341;
+
+	// frames that may be waiting for a client's acknowledgement
+	public static final int DEFAULT_QUEUE_SIZE = 4;
+
+	// frames kept to encode deltas against; a client whose latest
+	// acknowledged frame is older than this gets a keyframe
+	static final int HISTORY = 32;
+
+	// distinct bases encoded for one frame before clients are sent keyframes
+	private static final int MAX_ENCODINGS = 8;
+
+	private final ShapeStore store;
+	private final int queueSize;
+	private final Selector selector;
+	private final ServerSocketChannel server;
+	private final Thread thread;
+
+	// set by the publishing thread when a frame is waiting to be sent
+	private volatile boolean published;
+	private volatile boolean closed;
+
+	// the frames remembered, by sequence number modulo HISTORY, and the
+	// latest of them; used only by the server thread
+	private final ShapeState[] history = new ShapeState[HISTORY];
+	private ShapeState latest;
+	private long sequence;
+
+	// the latest frame encoded against each base so far, as length-prefixed
+	// messages
+	private final long[] encodedBases = new long[MAX_ENCODINGS];
+	private final ByteBuffer[] encoded = new ByteBuffer[MAX_ENCODINGS];
+	private int encodings;
+	private ByteBuffer scratch = ByteBuffer.allocate(0);
+
+	private final List<Client> clients = new ArrayList<Client>();
+
+	private volatile int clientCount;
+	private volatile long framesSent;
+	private volatile long framesSkipped;
+	private volatile long keyframesSent;
+	private volatile long bytesSent;
+
+	/**
+	 * One connected viewer.
+	 */
+	private static class Client {
+		final SocketChannel channel;
+		final SelectionKey key;
+		// messages not yet written, the first perhaps partly
+		final ArrayDeque<ByteBuffer> outgoing = new ArrayDeque<ByteBuffer>();
+		// frames sent and not yet acknowledged, oldest first
+		final long[] unacknowledged;
+		int unacknowledgedHead, unacknowledgedCount;
+		// the latest frame acknowledged, the latest sent and the latest
+		// skipped, 0 for none
+		long acknowledged;
+		long sent;
+		long skipped;
+		final ByteBuffer ack = ByteBuffer.allocate(8);
+
+		Client(SocketChannel channel, SelectionKey key, int queueSize) {
+			this.channel = channel;
+			this.key = key;
+			unacknowledged = new long[queueSize];
+		}
+	}
+
+	/**
+	 * Opens a server on the given port of every local address.
+	 *
+	 * @param store
+	 *            The store whose frames are sent; the server must be added
+	 *            to its observers.
+	 * @param port
+	 *            The port to listen on, or 0 for any free port.
+	 * @throws IOException
+	 *             If the port cannot be opened.
+	 */
+	public StateServer(ShapeStore store, int port) throws IOException {
+		this(store, new InetSocketAddress(port), DEFAULT_QUEUE_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param store
+	 *            The store whose frames are sent; the server must be added
+	 *            to its observers.
+	 * @param address
+	 *            The address to listen on.
+	 * @param queueSize
+	 *            The number of frames that may be waiting for a client's
+	 *            acknowledgement before the client is skipped.
+	 * @throws IOException
+	 *             If the address cannot be opened.
+	 */
+	public StateServer(ShapeStore store, InetSocketAddress address,
+			int queueSize) throws IOException {
+		if (queueSize <= 0 || queueSize >= HISTORY) {
+			throw new IllegalArgumentException("queue size must be from 1 to "
+					+ (HISTORY - 1) + ": " + queueSize);
+		}
+		this.store = store;
+		this.queueSize = queueSize;
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		try {
+			server.socket().bind(address);
+			server.configureBlocking(false);
+			server.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			server.close();
+			selector.close();
+			throw e;
+		}
+		for (int i = 0; i < HISTORY; i++) {
+			history[i] = new ShapeState();
+		}
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				serve();
+			}
+		}, "StateServer");
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Starts accepting clients and sending them frames.
+	 */
+	public void start() {
+		thread.start();
+	}
+
+	/**
+	 * @return The port the server listens on.
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * Wakes the server thread to send the frame just published.
+	 *
+	 * @see java.util.Observer#update(java.util.Observable, java.lang.Object)
+	 */
+	@Override
+	public void update(Observable obs, Object arg) {
+		published = true;
+		selector.wakeup();
+	}
+
+	/**
+	 * Disconnects every client and stops the server thread.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		selector.wakeup();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (Client client : clients) {
+			client.channel.close();
+		}
+		clients.clear();
+		clientCount = 0;
+		server.close();
+		selector.close();
+	}
+
+	private void serve() {
+		// the frame published before any client connects is still sent
+		published = true;
+		while (!closed) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				System.err.println("state server stopped: " + e.getMessage());
+				return;
+			}
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				if (!key.isValid()) {
+					continue;
+				}
+				if (key.isAcceptable()) {
+					accept();
+					continue;
+				}
+				Client client = (Client) key.attachment();
+				try {
+					if (key.isReadable()) {
+						readAcknowledgements(client);
+					}
+					if (key.isValid() && key.isWritable()) {
+						flush(client);
+					}
+				} catch (IOException e) {
+					disconnect(client);
+				}
+			}
+			if (published) {
+				published = false;
+				capture();
+			}
+			// every client with room in its queue gets the latest frame,
+			// including those just connected or just caught up
+			for (int c = clients.size() - 1; c >= 0; c--) {
+				Client client = clients.get(c);
+				try {
+					send(client);
+				} catch (IOException e) {
+					disconnect(client);
+				}
+			}
+		}
+	}
+
+	private void accept() {
+		try {
+			SocketChannel channel = server.accept();
+			if (channel == null) {
+				return;
+			}
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			SelectionKey key = channel.register(selector,
+					SelectionKey.OP_READ);
+			Client client = new Client(channel, key, queueSize);
+			key.attach(client);
+			clients.add(client);
+			clientCount = clients.size();
+		} catch (IOException e) {
+			System.err.println("could not accept a viewer: " + e.getMessage());
+		}
+	}
+
+	private void disconnect(Client client) {
+		clients.remove(client);
+		clientCount = clients.size();
+		client.key.cancel();
+		try {
+			client.channel.close();
+		} catch (IOException e) {
+			// already gone
+		}
+	}
+
+	/**
+	 * Copies the latest published frame into the history.
+	 */
+	private void capture() {
+		FrameSnapshot frame = store.acquireSnapshot();
+		try {
+			long next = sequence + 1;
+			ShapeState state = history[(int) (next % HISTORY)];
+			state.copy(frame, next);
+			sequence = next;
+			latest = state;
+		} finally {
+			frame.release();
+		}
+		encodings = 0;
+	}
+
+	/**
+	 * Queues the latest frame for a client, unless it already has it or too
+	 * many frames are waiting for its acknowledgement, and writes as much of
+	 * its queue as the socket takes.
+	 */
+	private void send(Client client) throws IOException {
+		if (latest == null || client.sent >= latest.sequence) {
+			return;
+		}
+		if (client.unacknowledgedCount == queueSize) {
+			if (client.skipped < latest.sequence) {
+				client.skipped = latest.sequence;
+				framesSkipped++;
+			}
+			return;
+		}
+		ByteBuffer message = encode(client.acknowledged);
+		client.outgoing.add(message.duplicate());
+		client.sent = latest.sequence;
+		int tail = (client.unacknowledgedHead + client.unacknowledgedCount)
+				% queueSize;
+		client.unacknowledged[tail] = latest.sequence;
+		client.unacknowledgedCount++;
+		framesSent++;
+		flush(client);
+	}
+
+	/**
+	 * @return The latest frame as a message against the given base, or as
+	 *         a keyframe if the base is no longer remembered.
+	 */
+	private ByteBuffer encode(long baseSequence) {
+		ShapeState base = null;
+		if (baseSequence > 0 && latest.sequence - baseSequence < HISTORY) {
+			base = history[(int) (baseSequence % HISTORY)];
+		}
+		long key = base == null ? 0 : baseSequence;
+		for (int e = 0; e < encodings; e++) {
+			if (encodedBases[e] == key) {
+				return encoded[e];
+			}
+		}
+		if (encodings == MAX_ENCODINGS && base != null) {
+			// too many clients on different bases; they all get keyframes
+			return encode(0);
+		}
+		int capacity = 4 + ShapeState.maxDeltaSize(latest.size);
+		if (scratch.capacity() < capacity) {
+			scratch = ByteBuffer.allocate(capacity);
+		}
+		scratch.clear();
+		scratch.position(4);
+		latest.writeDelta(base, scratch);
+		scratch.putInt(0, scratch.position() - 4);
+		scratch.flip();
+		ByteBuffer message = ByteBuffer.allocate(scratch.remaining());
+		message.put(scratch);
+		message.flip();
+		if (base == null) {
+			keyframesSent++;
+		}
+		if (encodings < MAX_ENCODINGS) {
+			encodedBases[encodings] = key;
+			encoded[encodings] = message;
+			encodings++;
+		}
+		return message;
+	}
+
+	/**
+	 * Writes queued messages until the socket is full, and asks to be told
+	 * when it has room again if anything is left.
+	 */
+	private void flush(Client client) throws IOException {
+		ArrayDeque<ByteBuffer> outgoing = client.outgoing;
+		while (!outgoing.isEmpty()) {
+			ByteBuffer message = outgoing.peek();
+			bytesSent += client.channel.write(message);
+			if (message.hasRemaining()) {
+				break;
+			}
+			outgoing.poll();
+		}
+		int ops = SelectionKey.OP_READ;
+		if (!outgoing.isEmpty()) {
+			ops |= SelectionKey.OP_WRITE;
+		}
+		if (client.key.interestOps() != ops) {
+			client.key.interestOps(ops);
+		}
+	}
+
+	private void readAcknowledgements(Client client) throws IOException {
+		ByteBuffer ack = client.ack;
+		for (;;) {
+			int read = client.channel.read(ack);
+			if (read < 0) {
+				throw new IOException("viewer disconnected");
+			}
+			if (ack.hasRemaining()) {
+				return;
+			}
+			ack.flip();
+			long sequence = ack.getLong();
+			ack.clear();
+			if (sequence > client.acknowledged) {
+				client.acknowledged = sequence;
+			}
+			while (client.unacknowledgedCount > 0
+					&& client.unacknowledged[client.unacknowledgedHead]
+						<= sequence) {
+				client.unacknowledgedHead = (client.unacknowledgedHead + 1)
+						% queueSize;
+				client.unacknowledgedCount--;
+			}
+		}
+	}
+
+	/**
+	 * @return The number of viewers connected.
+	 */
+	public int getClientCount() {
+		return clientCount;
+	}
+
+	/**
+	 * @return The number of frames sent, to all viewers together.
+	 */
+	public long getFramesSent() {
+		return framesSent;
+	}
+
+	/**
+	 * @return The number of times a viewer was not sent a frame because too
+	 *         many were waiting for its acknowledgement.
+	 */
+	public long getFramesSkipped() {
+		return framesSkipped;
+	}
+
+	/**
+	 * @return The number of bytes written, to all viewers together.
+	 */
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * @return A one-line summary of the streaming so far.
+	 */
+	public String summarize() {
+		long sent = framesSent;
+		return String.format(
+				"%d viewers, %d frames sent (%d keyframes), %d skipped, "
+						+ "%.1f bytes/frame", clientCount, sent,
+				keyframesSent, framesSkipped, sent == 0 ? 0.0
+						: (double) bytesSent / sent);
+	}
+}
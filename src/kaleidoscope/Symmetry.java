@@ -0,0 +1,146 @@
+package kaleidoscope;
+
+/**
+ * How many copies of each shape the kaleidoscope draws, and where. An
+ * N-fold symmetry turns each shape about the centre of the window to N / 2
+ * evenly spaced angles, and draws a mirror image of it at each angle too.
+ * The rotations and reflections are worked out once per order, as the
+ * matrices of a table, so placing the copies of a frame costs a few
+ * multiplies per copy and no trigonometry; CopyBuffer applies them to every
+ * shape at once.
+ * <p>
+ * Shapes are drawn upright however they are turned, since Java2D fills
+ * ovals and rectangles along the axes: each copy is drawn across the
+ * diagonal (with its width and height swapped) when its angle is nearer the
+ * vertical than the horizontal, and triangles point whichever way along
+ * that axis is nearer to where they were turned.
+ * <p>
+ * EIGHT_FOLD is the kaleidoscope's own symmetry. Its tables are the eight
+ * mirror images of a shape, listed in the order ShapeStore.reflect() lists
+ * them, so that its copies are true mirror images of each other and those
+ * from ShapeStore.FIRST_TRANSPOSED on are the transposed ones. One Symmetry
+ * is made for each order, once, and of() hands out the same one every time.
+ */
+public final class Symmetry {
+	// the orders offered by the Symmetry button, in order
+	public static final int[] ORDERS = { 6, 8, 10, 12, 16 };
+
+	// orders allowed, inclusive
+	public static final int MIN_ORDER = 4;
+	public static final int MAX_ORDER = 64;
+
+	// the maps of EIGHT_FOLD's copies, one { a, b, c, d } each: as they are,
+	// mirrored left to right, top to bottom and both, and then the four that
+	// swap x and y
+	private static final double[][] REFLECTIONS = { { 1, 0, 0, 1 },
+			{ -1, 0, 0, 1 }, { 1, 0, 0, -1 }, { -1, 0, 0, -1 },
+			{ 0, 1, 1, 0 }, { 0, -1, 1, 0 }, { 0, 1, -1, 0 },
+			{ 0, -1, -1, 0 } };
+
+	public static final Symmetry EIGHT_FOLD = new Symmetry(REFLECTIONS);
+
+	// every symmetry, by order; the orders not allowed are left null
+	private static final Symmetry[] BY_ORDER = new Symmetry[MAX_ORDER + 1];
+
+	static {
+		for (int order = MIN_ORDER; order <= MAX_ORDER; order += 2) {
+			BY_ORDER[order] = order == EIGHT_FOLD.order ? EIGHT_FOLD
+					: new Symmetry(turns(order));
+		}
+	}
+
+	private final int order;
+
+	// each copy's linear map about the centre of the window: x' = a x + b y,
+	// y' = c x + d y
+	final double[] a, b, c, d;
+	// whether each copy is drawn across the diagonal, and upside down
+	final boolean[] transposed, flipped;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maps
+	 *            Each copy's linear map about the centre of the window, as
+	 *            { a, b, c, d }.
+	 */
+	private Symmetry(double[][] maps) {
+		order = maps.length;
+		a = new double[order];
+		b = new double[order];
+		c = new double[order];
+		d = new double[order];
+		transposed = new boolean[order];
+		flipped = new boolean[order];
+		for (int k = 0; k < order; k++) {
+			a[k] = maps[k][0];
+			b[k] = maps[k][1];
+			c[k] = maps[k][2];
+			d[k] = maps[k][3];
+			// where the shape's own downward direction, (0, 1), ends up
+			transposed[k] = Math.abs(b[k]) > Math.abs(d[k]) + 1e-9;
+			flipped[k] = transposed[k] ? b[k] < 0 : d[k] < 0;
+		}
+	}
+
+	/**
+	 * Works out the maps of an N-fold symmetry: the shape turned to N / 2
+	 * evenly spaced angles, and then mirrored left to right and turned to
+	 * the same angles again.
+	 */
+	private static double[][] turns(int order) {
+		double[][] maps = new double[order][];
+		int turns = order / 2;
+		for (int k = 0; k < order; k++) {
+			double angle = 2 * Math.PI * (k % turns) / turns;
+			double cos = Math.cos(angle), sin = Math.sin(angle);
+			double m = k < turns ? 1 : -1;
+			maps[k] = new double[] { cos * m, -sin, sin * m, cos };
+		}
+		return maps;
+	}
+
+	/**
+	 * @param order
+	 *            The number of copies of each shape: an even number from
+	 *            MIN_ORDER to MAX_ORDER.
+	 * @return The symmetry with that many copies.
+	 */
+	public static Symmetry of(int order) {
+		if (order < MIN_ORDER || order > MAX_ORDER || order % 2 != 0) {
+			throw new IllegalArgumentException("unsupported symmetry order: "
+					+ order);
+		}
+		return BY_ORDER[order];
+	}
+
+	/**
+	 * @return The number of copies of each shape.
+	 */
+	public int getOrder() {
+		return order;
+	}
+
+	/**
+	 * @param k
+	 *            The number of a copy.
+	 * @return Whether the copy is drawn with its width and height swapped.
+	 */
+	public boolean isTransposed(int k) {
+		return transposed[k];
+	}
+
+	/**
+	 * @param k
+	 *            The number of a copy.
+	 * @return Whether the copy, if it is a triangle, is drawn upside down.
+	 */
+	public boolean isFlipped(int k) {
+		return flipped[k];
+	}
+
+	@Override
+	public String toString() {
+		return order + "-fold";
+	}
+}
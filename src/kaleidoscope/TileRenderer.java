@@ -0,0 +1,288 @@
+package kaleidoscope;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A Renderer that does its own rasterizing instead of calling Java2D once
+ * per shape copy. The frame is split into square tiles; every copy of every
+ * shape is first filed under the tiles its bounding box touches, and then
+ * the tiles are filled in parallel on a ForkJoinPool, each by its own
+ * Rasterizer writing straight into the pixels of one offscreen image. The
+ * finished image reaches the screen with a single drawImage.
+ */
+public class TileRenderer implements Renderer {
+	// width and height of a tile, in pixels
+	public static final int DEFAULT_TILE_SIZE = 64;
+
+	private final ShapeStore store;
+	private final int tileSize;
+	private final ForkJoinPool pool;
+
+	// the snapshot being drawn; the tile tasks read it too
+	private FrameSnapshot frame;
+
+	private BufferedImage image;
+	private int[] pixels;
+	private int width, height;
+	private int tilesX, tilesY;
+
+	// per tile: the copies that touch it, each as shape slot * copies per
+	// shape + copy, in drawing order
+	private int[][] bins = new int[0][];
+	private int[] binSizes = new int[0];
+	private Rasterizer[] rasterizers = new Rasterizer[0];
+	private int[][] tileVertexX = new int[0][];
+	private int[][] tileVertexY = new int[0][];
+
+	// the origin of every copy in this frame, indexed like the bins
+	private final CopyBuffer copies = new CopyBuffer();
+
+	// scratch space for binning
+	private final int[] vertexX = new int[4];
+	private final int[] vertexY = new int[4];
+
+	/**
+	 * Creates a renderer using the default tile size, filling tiles in
+	 * Pools.SHARED.
+	 *
+	 * @param store
+	 *            The Model whose shapes are to be drawn.
+	 */
+	public TileRenderer(ShapeStore store) {
+		this(store, DEFAULT_TILE_SIZE, Pools.SHARED);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param store
+	 *            The Model whose shapes are to be drawn.
+	 * @param tileSize
+	 *            The width and height of a tile, in pixels.
+	 * @param pool
+	 *            The pool in which the tiles are filled; the caller shuts it
+	 *            down once the renderer is finished with.
+	 */
+	public TileRenderer(ShapeStore store, int tileSize, ForkJoinPool pool) {
+		if (tileSize <= 0) {
+			throw new IllegalArgumentException("tile size must be positive: "
+					+ tileSize);
+		}
+		this.store = store;
+		this.tileSize = tileSize;
+		this.pool = pool;
+	}
+
+	@Override
+	public void setQuality(Quality quality) {
+		copies.quality = quality;
+	}
+
+	@Override
+	public boolean canApply(Quality quality) {
+		return !quality.dropsAntialiasing() && !quality.dropsResolution();
+	}
+
+	@Override
+	public void paint(Graphics g, int width, int height) {
+		if (width <= 0 || height <= 0) {
+			return;
+		}
+		render(width, height);
+		g.drawImage(image, 0, 0, null);
+	}
+
+	/**
+	 * Draws a frame into the offscreen image without showing it anywhere.
+	 *
+	 * @param width
+	 *            The width of the frame, in pixels.
+	 * @param height
+	 *            The height of the frame, in pixels.
+	 * @return The image holding the frame; it is reused by the next frame.
+	 */
+	public BufferedImage render(int width, int height) {
+		setSize(width, height);
+		frame = store.acquireSnapshot();
+		try {
+			bin();
+			pool.invoke(new TileTask(0, tilesX * tilesY));
+		} finally {
+			frame.release();
+			frame = null;
+		}
+		return image;
+	}
+
+	/**
+	 * Makes the offscreen image and the tiles match the frame size.
+	 */
+	private void setSize(int width, int height) {
+		if (image != null && width == this.width && height == this.height) {
+			return;
+		}
+		this.width = width;
+		this.height = height;
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		tilesX = (width + tileSize - 1) / tileSize;
+		tilesY = (height + tileSize - 1) / tileSize;
+		int tiles = tilesX * tilesY;
+		bins = new int[tiles][];
+		binSizes = new int[tiles];
+		rasterizers = new Rasterizer[tiles];
+		tileVertexX = new int[tiles][4];
+		tileVertexY = new int[tiles][4];
+		for (int t = 0; t < tiles; t++) {
+			bins[t] = new int[16];
+			int x0 = (t % tilesX) * tileSize;
+			int y0 = (t / tilesX) * tileSize;
+			rasterizers[t] = new Rasterizer();
+			rasterizers[t].setTarget(pixels, width, x0, y0,
+					Math.min(x0 + tileSize, width),
+					Math.min(y0 + tileSize, height));
+		}
+	}
+
+	/**
+	 * Files every copy of every visible shape under the tiles that its
+	 * bounding box touches.
+	 */
+	private void bin() {
+		Arrays.fill(binSizes, 0);
+		int n = frame.size;
+		copies.update(frame, frame.getInterpolation());
+		int c = copies.copies;
+		int[] ox = copies.x, oy = copies.y;
+		Symmetry symmetry = copies.symmetry;
+		boolean[] drawn = copies.drawn;
+		byte[] type = frame.type;
+		for (int i = 0; i < n; i++) {
+			if (!drawn[i]) {
+				continue;
+			}
+			int w = frame.figureWidth[i];
+			int h = frame.figureHeight[i];
+			for (int k = 0; k < c; k++) {
+				int copy = i * c + k;
+				boolean transposed = symmetry.isTransposed(k);
+				int x0, y0, x1, y1;
+				if (type[i] == ShapeStore.CIRCLE
+						|| type[i] == ShapeStore.RECTANGLE) {
+					x0 = ox[copy];
+					y0 = oy[copy];
+					x1 = x0 + (transposed ? h : w);
+					y1 = y0 + (transposed ? w : h);
+				} else {
+					int count = ShapeRenderer.outline(type[i], transposed,
+							symmetry.isFlipped(k), ox[copy], oy[copy], w, h,
+							vertexX, vertexY);
+					x0 = x1 = vertexX[0];
+					y0 = y1 = vertexY[0];
+					for (int v = 1; v < count; v++) {
+						x0 = Math.min(x0, vertexX[v]);
+						x1 = Math.max(x1, vertexX[v]);
+						y0 = Math.min(y0, vertexY[v]);
+						y1 = Math.max(y1, vertexY[v]);
+					}
+					x1++;
+					y1++;
+				}
+				addToTiles(copy, x0, y0, x1, y1);
+			}
+		}
+	}
+
+	private void addToTiles(int copy, int x0, int y0, int x1, int y1) {
+		x0 = Math.max(x0, 0);
+		y0 = Math.max(y0, 0);
+		x1 = Math.min(x1, width);
+		y1 = Math.min(y1, height);
+		if (x0 >= x1 || y0 >= y1) {
+			return;
+		}
+		int tx1 = (x1 - 1) / tileSize;
+		int ty1 = (y1 - 1) / tileSize;
+		for (int ty = y0 / tileSize; ty <= ty1; ty++) {
+			for (int tx = x0 / tileSize; tx <= tx1; tx++) {
+				int t = ty * tilesX + tx;
+				int size = binSizes[t];
+				if (size == bins[t].length) {
+					bins[t] = Arrays.copyOf(bins[t], size * 2);
+				}
+				bins[t][size] = copy;
+				binSizes[t] = size + 1;
+			}
+		}
+	}
+
+	/**
+	 * Clears one tile and fills every copy filed under it.
+	 *
+	 * @param t
+	 *            The index of the tile, row by row.
+	 */
+	private void renderTile(int t) {
+		Rasterizer r = rasterizers[t];
+		int[] xs = tileVertexX[t], ys = tileVertexY[t];
+		int[] bin = bins[t];
+		int c = copies.copies;
+		Symmetry symmetry = copies.symmetry;
+		r.clear(0);
+		r.setAlpha(frame.opacity);
+		for (int e = 0, size = binSizes[t]; e < size; e++) {
+			int copy = bin[e];
+			int i = copy / c;
+			int k = copy % c;
+			int w = frame.figureWidth[i];
+			int h = frame.figureHeight[i];
+			int x = copies.x[copy], y = copies.y[copy];
+			int rgb = frame.color[i];
+			boolean transposed = symmetry.isTransposed(k);
+			switch (frame.type[i]) {
+			case ShapeStore.CIRCLE:
+				r.fillOval(x, y, transposed ? h : w, transposed ? w : h, rgb);
+				break;
+			case ShapeStore.RECTANGLE:
+				r.fillRect(x, y, transposed ? h : w, transposed ? w : h, rgb);
+				break;
+			default:
+				int n = ShapeRenderer.outline(frame.type[i], transposed,
+						symmetry.isFlipped(k), x, y, w, h, xs, ys);
+				r.fillPolygon(xs, ys, n, rgb);
+			}
+		}
+	}
+
+	/**
+	 * Renders a range of tiles, splitting it in half until each task has a
+	 * single tile.
+	 */
+	private class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int from, to;
+
+		TileTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= 1) {
+				if (from < to) {
+					renderTile(from);
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new TileTask(from, middle), new TileTask(middle, to));
+		}
+	}
+}
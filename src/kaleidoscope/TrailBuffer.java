@@ -0,0 +1,305 @@
+package kaleidoscope;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Leaves fading trails behind the shapes. Instead of clearing to black
+ * every frame, a View in trail mode keeps the picture from one frame to the
+ * next in a persistent buffer of packed RGB pixels. Each frame, every pixel
+ * of the buffer is faded towards black in place and the shapes are then
+ * filled straight into it by Rasterizers, as the TileRenderer fills its
+ * tiles. So a frame costs one pass over the buffer plus the shapes however
+ * long the trails are, and no history of the shapes is kept.
+ * <p>
+ * The fade is Rasterizer.blend() with black, which multiplies each channel
+ * by the share that is kept, working on the red and blue channels together
+ * in one int and on green in another. The buffer is split into bands of
+ * BAND_ROWS rows; the copies of the shapes are first filed under the bands
+ * they touch, and then each band is faded and filled in parallel on a
+ * ForkJoinPool, while its rows are still in the cache.
+ * <p>
+ * Shapes are drawn as the raster renderers draw them, whichever Renderer
+ * the View has, and with the Quality set here.
+ */
+public class TrailBuffer {
+	// share of each channel's brightness lost per frame if none is given
+	public static final double DEFAULT_DECAY = 0.1;
+
+	// rows faded and filled by each task
+	private static final int BAND_ROWS = 32;
+
+	private final ShapeStore store;
+	private final ForkJoinPool pool;
+
+	// share of each channel kept per frame, from 0 to 256 so that the fade
+	// divides by shifting; never 256, so every trail fades out in the end
+	private volatile int keep;
+
+	// the picture kept from frame to frame
+	private BufferedImage image;
+	private int[] pixels;
+	private int width, height;
+	private int bands;
+
+	// the snapshot being drawn; the band tasks read it too
+	private FrameSnapshot frame;
+
+	// per band: the copies that touch it, each as shape slot * copies per
+	// shape + copy, in drawing order
+	private int[][] bins = new int[0][];
+	private int[] binSizes = new int[0];
+	private Rasterizer[] rasterizers = new Rasterizer[0];
+	private int[][] bandVertexX = new int[0][];
+	private int[][] bandVertexY = new int[0][];
+
+	// the origin of every copy in this frame, indexed like the bins
+	private final CopyBuffer copies = new CopyBuffer();
+
+	// scratch space for binning
+	private final int[] vertexX = new int[4];
+	private final int[] vertexY = new int[4];
+
+	/**
+	 * Creates a buffer that fades by DEFAULT_DECAY, in Pools.SHARED.
+	 *
+	 * @param store
+	 *            The Model whose shapes leave the trails.
+	 */
+	public TrailBuffer(ShapeStore store) {
+		this(store, DEFAULT_DECAY, Pools.SHARED);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param store
+	 *            The Model whose shapes leave the trails.
+	 * @param decay
+	 *            The share of each channel's brightness lost per frame, more
+	 *            than 0 and at most 1; 1 leaves no trails.
+	 * @param pool
+	 *            The pool in which the bands are drawn; the caller shuts it
+	 *            down once the buffer is finished with.
+	 */
+	public TrailBuffer(ShapeStore store, double decay, ForkJoinPool pool) {
+		this.store = store;
+		this.pool = pool;
+		setDecay(decay);
+	}
+
+	/**
+	 * Changes how fast the trails fade, from the next frame on.
+	 *
+	 * @param decay
+	 *            The share of each channel's brightness lost per frame, more
+	 *            than 0 and at most 1; 1 leaves no trails.
+	 */
+	public void setDecay(double decay) {
+		if (!(decay > 0 && decay <= 1)) {
+			throw new IllegalArgumentException(
+					"decay must be more than 0 and at most 1: " + decay);
+		}
+		keep = Math.min((int) Math.round(256 * (1 - decay)), 255);
+	}
+
+	/**
+	 * @return The share of each channel's brightness lost per frame, as
+	 *         rounded to the nearest 256th.
+	 */
+	public double getDecay() {
+		return 1 - keep / 256.0;
+	}
+
+	/**
+	 * Changes how much detail the shapes are drawn with, from the next frame
+	 * on.
+	 *
+	 * @param quality
+	 *            The level to draw at.
+	 */
+	public void setQuality(Quality quality) {
+		copies.quality = quality;
+	}
+
+	/**
+	 * Fades the trails and draws the store's latest frame over them.
+	 *
+	 * @param width
+	 *            The width of the view, in pixels.
+	 * @param height
+	 *            The height of the view, in pixels.
+	 * @return The picture with its trails; it is kept and changed by the
+	 *         next frame.
+	 */
+	public BufferedImage paint(int width, int height) {
+		setSize(width, height);
+		frame = store.acquireSnapshot();
+		try {
+			bin();
+			pool.invoke(new BandTask(0, bands));
+		} finally {
+			frame.release();
+			frame = null;
+		}
+		return image;
+	}
+
+	/**
+	 * Makes the buffer and the bands match the view, starting the trails
+	 * afresh if its size has changed.
+	 */
+	private void setSize(int width, int height) {
+		if (image != null && width == this.width && height == this.height) {
+			return;
+		}
+		this.width = width;
+		this.height = height;
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		bands = (height + BAND_ROWS - 1) / BAND_ROWS;
+		bins = new int[bands][];
+		binSizes = new int[bands];
+		rasterizers = new Rasterizer[bands];
+		bandVertexX = new int[bands][4];
+		bandVertexY = new int[bands][4];
+		for (int b = 0; b < bands; b++) {
+			bins[b] = new int[16];
+			int y0 = b * BAND_ROWS;
+			rasterizers[b] = new Rasterizer();
+			rasterizers[b].setTarget(pixels, width, 0, y0, width,
+					Math.min(y0 + BAND_ROWS, height));
+		}
+	}
+
+	/**
+	 * Files every copy of every visible shape under the bands that its
+	 * bounding box touches.
+	 */
+	private void bin() {
+		Arrays.fill(binSizes, 0);
+		int n = frame.size;
+		copies.update(frame, frame.getInterpolation());
+		int c = copies.copies;
+		int[] ox = copies.x, oy = copies.y;
+		Symmetry symmetry = copies.symmetry;
+		boolean[] drawn = copies.drawn;
+		byte[] type = frame.type;
+		for (int i = 0; i < n; i++) {
+			if (!drawn[i]) {
+				continue;
+			}
+			int w = frame.figureWidth[i];
+			int h = frame.figureHeight[i];
+			for (int k = 0; k < c; k++) {
+				int copy = i * c + k;
+				boolean transposed = symmetry.isTransposed(k);
+				int y0, y1;
+				if (type[i] == ShapeStore.CIRCLE
+						|| type[i] == ShapeStore.RECTANGLE) {
+					y0 = oy[copy];
+					y1 = y0 + (transposed ? w : h);
+				} else {
+					int count = ShapeRenderer.outline(type[i], transposed,
+							symmetry.isFlipped(k), ox[copy], oy[copy], w, h,
+							vertexX, vertexY);
+					y0 = y1 = vertexY[0];
+					for (int v = 1; v < count; v++) {
+						y0 = Math.min(y0, vertexY[v]);
+						y1 = Math.max(y1, vertexY[v]);
+					}
+					y1++;
+				}
+				addToBands(copy, y0, y1);
+			}
+		}
+	}
+
+	private void addToBands(int copy, int y0, int y1) {
+		y0 = Math.max(y0, 0);
+		y1 = Math.min(y1, height);
+		if (y0 >= y1) {
+			return;
+		}
+		int last = (y1 - 1) / BAND_ROWS;
+		for (int b = y0 / BAND_ROWS; b <= last; b++) {
+			int size = binSizes[b];
+			if (size == bins[b].length) {
+				bins[b] = Arrays.copyOf(bins[b], size * 2);
+			}
+			bins[b][size] = copy;
+			binSizes[b] = size + 1;
+		}
+	}
+
+	/**
+	 * Fades one band and fills every copy filed under it.
+	 *
+	 * @param b
+	 *            The index of the band, from the top.
+	 */
+	private void renderBand(int b) {
+		int from = b * BAND_ROWS * width;
+		int to = Math.min((b + 1) * BAND_ROWS, height) * width;
+		// blending with black keeps keep/256 of each channel
+		Rasterizer.blend(pixels, from, to, 0, 256 - keep);
+		Rasterizer r = rasterizers[b];
+		r.setAlpha(frame.opacity);
+		int[] xs = bandVertexX[b], ys = bandVertexY[b];
+		int[] bin = bins[b];
+		int c = copies.copies;
+		Symmetry symmetry = copies.symmetry;
+		for (int e = 0, size = binSizes[b]; e < size; e++) {
+			int copy = bin[e];
+			int i = copy / c;
+			int k = copy % c;
+			int w = frame.figureWidth[i];
+			int h = frame.figureHeight[i];
+			int x = copies.x[copy], y = copies.y[copy];
+			int rgb = frame.color[i];
+			boolean transposed = symmetry.isTransposed(k);
+			switch (frame.type[i]) {
+			case ShapeStore.CIRCLE:
+				r.fillOval(x, y, transposed ? h : w, transposed ? w : h, rgb);
+				break;
+			case ShapeStore.RECTANGLE:
+				r.fillRect(x, y, transposed ? h : w, transposed ? w : h, rgb);
+				break;
+			default:
+				int n = ShapeRenderer.outline(frame.type[i], transposed,
+						symmetry.isFlipped(k), x, y, w, h, xs, ys);
+				r.fillPolygon(xs, ys, n, rgb);
+			}
+		}
+	}
+
+	/**
+	 * Draws a range of bands, splitting it in half until each task has a
+	 * single band.
+	 */
+	private class BandTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int from, to;
+
+		BandTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= 1) {
+				if (from < to) {
+					renderBand(from);
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new BandTask(from, middle), new BandTask(middle, to));
+		}
+	}
+}
@@ -1,12 +1,22 @@
 package kaleidoscope;
 
 import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
-import java.util.ArrayList;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
 
+import javax.swing.AbstractAction;
+import javax.swing.JComponent;
 import javax.swing.JPanel;
+import javax.swing.KeyStroke;
 
 /**
  * The View "observes" and displays what is going on in the Model. In this
@@ -18,172 +28,202 @@ import javax.swing.JPanel;
  * @author Kelley Loder
  */
 public class View extends JPanel implements Observer {
+	// look of the timing overlay
+	private static final Font HUD_FONT = new Font(Font.MONOSPACED, Font.PLAIN,
+			12);
+	private static final Color HUD_BACKGROUND = new Color(0, 0, 0, 160);
+	private static final Color HUD_TEXT = Color.WHITE;
 
-	Shape shape;
-	ArrayList<Shape> shapeList;
-	
+	ShapeStore store;
+	Renderer renderer;
+
+	// receives the timing of every paint, and is shown by the overlay
+	private volatile FrameStats stats;
+	private volatile boolean hudVisible;
+	// where the overlay was last drawn, so that it is repainted with the
+	// shapes in dirty-region mode
+	private volatile Rectangle hudBounds;
+
+	// works out which parts of the view each frame changes, if only those
+	// are to be repainted
+	private volatile DirtyRegion dirtyRegion;
+
+	// keeps the picture from frame to frame and fades it, in trail mode;
+	// the decay T turns trails back on with; and the frame last faded, so
+	// that repaints between frames do not fade the trails again
+	private volatile TrailBuffer trails;
+	private double trailDecay = TrailBuffer.DEFAULT_DECAY;
+	private long trailFrame = -1;
+	private BufferedImage trailImage;
+
+	// how much detail the shapes are drawn with, for trails started later
+	private volatile Quality quality = Quality.FULL;
+
+	// how many frames caused a repaint request, and how many individual model
+	// changes were folded into those frames instead of each asking for one
+	private volatile long repaintRequests;
+	private volatile long coalescedRepaints;
 
 	/**
 	 * Constructor.
 	 * 
-	 * @param model
+	 * @param store
 	 *            The Model whose working is to be displayed.
+	 * @param renderer
+	 *            Draws the Model's shapes.
+	 */
+	View(ShapeStore store, Renderer renderer) {
+		this.store = store;
+		this.renderer = renderer;
+		// registers with the tooltip manager so the counters show on hover
+		setToolTipText("");
+		// H shows and hides the timing overlay
+		getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(
+				KeyStroke.getKeyStroke('h'), "toggleHud");
+		getActionMap().put("toggleHud", new AbstractAction() {
+			@Override
+			public void actionPerformed(ActionEvent event) {
+				setHudVisible(!hudVisible);
+			}
+		});
+		// T turns trails on and off
+		getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(
+				KeyStroke.getKeyStroke('t'), "toggleTrails");
+		getActionMap().put("toggleTrails", new AbstractAction() {
+			@Override
+			public void actionPerformed(ActionEvent event) {
+				setTrails(trails == null ? trailDecay : 0);
+			}
+		});
+	}
+
+	/**
+	 * @param stats
+	 *            Receives the timing of every paint from now on, and supplies
+	 *            the figures shown by the overlay; null to stop timing.
+	 */
+	public void setStats(FrameStats stats) {
+		this.stats = stats;
+	}
+
+	/**
+	 * @param hudVisible
+	 *            Whether to draw the timing overlay over the shapes.
+	 */
+	public void setHudVisible(boolean hudVisible) {
+		this.hudVisible = hudVisible;
+		repaintAll();
+	}
+
+	/**
+	 * Switches between repainting the whole view every frame and repainting
+	 * only the parts where shapes moved. Tooltips are turned off while only
+	 * parts are repainted, since one could be left behind on the view; the
+	 * counters they showed are on the overlay instead.
+	 *
+	 * @param dirtyRegions
+	 *            true to repaint only what changed.
+	 */
+	public void setDirtyRegions(boolean dirtyRegions) {
+		dirtyRegion = dirtyRegions ? new DirtyRegion(store) : null;
+		setToolTipText(dirtyRegions ? null : "");
+		repaint();
+	}
+
+	/**
+	 * Switches trail mode on or off. While it is on, the whole view is
+	 * repainted every frame, even in dirty-region mode, since every pixel of
+	 * a trail changes as it fades, and the shapes are filled into the trails
+	 * by the TrailBuffer rather than drawn by the Renderer.
+	 *
+	 * @param decay
+	 *            The share of each channel's brightness lost per frame, more
+	 *            than 0 and at most 1; 0 turns trails off.
 	 */
-	View(ArrayList<Shape> shapeList) {
-		this.shapeList = shapeList;
-		for (Shape shape : shapeList) {
-			this.shape = shape;
+	public void setTrails(double decay) {
+		if (decay == 0) {
+			trails = null;
+		} else if (trails == null) {
+			// a new buffer starts from black
+			TrailBuffer t = new TrailBuffer(store, decay, Pools.SHARED);
+			t.setQuality(quality);
+			trails = t;
+			trailDecay = decay;
+			trailImage = null;
+		} else {
+			trails.setDecay(decay);
+			trailDecay = decay;
 		}
+		repaintAll();
 	}
 
 	/**
-	 * Draws a circle and its reflections
-	 * 
-	 * @param g
-	 * @param shape
+	 * @return The trails being drawn, or null if trail mode is off.
 	 */
-	public void drawCircle(Graphics g, Shape shape) {
-		g.setColor(new Color(shape.colorR, shape.colorG, shape.colorB));
-		g.fillOval(shape.getX(), shape.getY(), shape.figureWidth,
-				shape.figureHeight);
-		g.fillOval(shape.getNegX(), shape.getY(), shape.figureWidth,
-				shape.figureHeight);
-		g.fillOval(shape.getX(), shape.getNegY(), shape.figureWidth,
-				shape.figureHeight);
-		g.fillOval(shape.getNegX(), shape.getNegY(), shape.figureWidth,
-				shape.figureHeight);
+	public TrailBuffer getTrails() {
+		return trails;
+	}
 
-		g.fillOval(shape.getNegInvY(), shape.getNegInvX(), shape.figureHeight,
-				shape.figureWidth);
-		g.fillOval(shape.getInvY(), shape.getNegInvX(), shape.figureHeight,
-				shape.figureWidth);
-		g.fillOval(shape.getNegInvY(), shape.getInvX(), shape.figureHeight,
-				shape.figureWidth);
+	/**
+	 * Changes how much detail the shapes are drawn with, and repaints the
+	 * whole view.
+	 *
+	 * @param quality
+	 *            The level to draw at.
+	 */
+	public void setQuality(Quality quality) {
+		this.quality = quality;
+		renderer.setQuality(quality);
+		TrailBuffer t = trails;
+		if (t != null) {
+			t.setQuality(quality);
+		}
+		DirtyRegion dirty = dirtyRegion;
+		if (dirty != null) {
+			dirty.setQuality(quality);
+		}
+		repaintAll();
+	}
 
-		// g.setColor(Color.blue);
-		g.fillOval(shape.getInvY(), shape.getInvX(), shape.figureHeight,
-				shape.figureWidth);
+	/**
+	 * @return The damage tracking used to repaint only what changed, or null
+	 *         if the whole view is repainted every frame.
+	 */
+	public DirtyRegion getDirtyRegion() {
+		return dirtyRegion;
 	}
 
 	/**
-	 * Draws a rectangle and its reflections
-	 * 
-	 * @param g
-	 * @param shape
-	 */
-	public void drawRectangle(Graphics g, Shape shape) {
-		g.setColor(new Color(shape.colorR, shape.colorG, shape.colorB));
-		g.fillRect(shape.getX(), shape.getY(), shape.figureWidth,
-				shape.figureHeight);
-		g.fillRect(shape.getNegX(), shape.getY(), shape.figureWidth,
-				shape.figureHeight);
-		g.fillRect(shape.getX(), shape.getNegY(), shape.figureWidth,
-				shape.figureHeight);
-		g.fillRect(shape.getNegX(), shape.getNegY(), shape.figureWidth,
-				shape.figureHeight);
-
-		g.fillRect(shape.getInvY(), shape.getInvX(), shape.figureHeight,
-				shape.figureWidth);
-		g.fillRect(shape.getNegInvY(), shape.getNegInvX(), shape.figureHeight,
-				shape.figureWidth);
-		g.fillRect(shape.getInvY(), shape.getNegInvX(), shape.figureHeight,
-				shape.figureWidth);
-		g.fillRect(shape.getNegInvY(), shape.getInvX(), shape.figureHeight,
-				shape.figureWidth);
-	}
-
-	/**
-	 * Draws a triangle and its reflections
-	 * 
-	 * @param g
-	 * @param shape
-	 */
-	public void drawTriangle(Graphics g, Shape shape) {
-		// arrays of vertices of triangles
-		int[] xTriangle = { shape.getX(), shape.getX() + shape.figureWidth / 2,
-				shape.getX() - shape.figureWidth / 2 };
-		int[] yTriangle = { shape.getY(), shape.getY() - shape.figureHeight,
-				shape.getY() - shape.figureHeight };
-
-		int[] negXTriangle = { shape.getNegX(),
-				shape.getNegX() + shape.figureWidth / 2,
-				shape.getNegX() - shape.figureWidth / 2 };
-		int[] negYTriangle = { shape.getNegY() - shape.figureHeight,
-				shape.getNegY(), shape.getNegY() };
-
-		int[] invXTriangle = { shape.getInvX(),
-				shape.getInvX() + shape.figureWidth / 2,
-				shape.getInvX() - shape.figureWidth / 2 };
-		int[] invYTriangle = { shape.getInvY() - shape.figureHeight,
-				shape.getInvY(), shape.getInvY() };
-
-		int[] negInvXTriangle = { shape.getNegInvX(),
-				shape.getNegInvX() + shape.figureWidth / 2,
-				shape.getNegInvX() - shape.figureWidth / 2 };
-		int[] negInvYTriangle = { shape.getNegInvY(),
-				shape.getNegInvY() - shape.figureHeight,
-				shape.getNegInvY() - shape.figureHeight };
-
-		g.setColor(new Color(shape.colorR, shape.colorG, shape.colorB));
-		g.fillPolygon(xTriangle, yTriangle, 3);
-		g.fillPolygon(negXTriangle, yTriangle, 3);
-		g.fillPolygon(xTriangle, negYTriangle, 3);
-		g.fillPolygon(negXTriangle, negYTriangle, 3);
-
-		g.fillPolygon(invYTriangle, invXTriangle, 3);
-		g.fillPolygon(negInvYTriangle, negInvXTriangle, 3);
-		g.fillPolygon(invYTriangle, negInvXTriangle, 3);
-		g.fillPolygon(negInvYTriangle, invXTriangle, 3);
-	}
-
-	/**
-	 * Draws a diamond and its reflections
+	 * @return Whether the timing overlay is drawn over the shapes.
+	 */
+	public boolean isHudVisible() {
+		return hudVisible;
+	}
+
+	/**
+	 * @return The number of repaints this view has requested.
+	 */
+	public long getRepaintRequests() {
+		return repaintRequests;
+	}
+
+	/**
+	 * @return The number of repaint requests saved by handling model changes
+	 *         once per frame rather than once per change.
+	 */
+	public long getCoalescedRepaints() {
+		return coalescedRepaints;
+	}
+
+	/**
+	 * Shows the repaint counters when the mouse rests over the view.
 	 * 
-	 * @param g
-	 * @param shape
-	 */
-	public void drawDiamond(Graphics g, Shape shape) {
-		// arrays of vertices of triangles
-		int[] xDiamond = { shape.getX(), shape.getX() + shape.figureWidth / 2,
-				shape.getX(), shape.getX() - shape.figureWidth / 2 };
-		int[] yDiamond = { shape.getY(), shape.getY() - shape.figureHeight / 2,
-				shape.getY() - shape.figureHeight,
-				shape.getY() - shape.figureHeight / 2 };
-
-		int[] negXDiamond = { shape.getNegX(),
-				shape.getNegX() + shape.figureWidth / 2, shape.getNegX(),
-				shape.getNegX() - shape.figureWidth / 2 };
-		int[] negYDiamond = { shape.getNegY(),
-				shape.getNegY() - shape.figureHeight / 2,
-				shape.getNegY() - shape.figureHeight,
-				shape.getNegY() - shape.figureHeight / 2 };
-
-		int[] invXDiamond = { shape.getInvX(),
-				shape.getInvX() + shape.figureWidth / 2, shape.getInvX(),
-				shape.getInvX() - shape.figureWidth / 2 };
-		int[] invYDiamond = { shape.getInvY(),
-				shape.getInvY() - shape.figureHeight / 2,
-				shape.getInvY() - shape.figureHeight,
-				shape.getInvY() - shape.figureHeight / 2 };
-
-		int[] negInvXDiamond = { shape.getNegInvX(),
-				shape.getNegInvX() + shape.figureWidth / 2, shape.getNegInvX(),
-				shape.getNegInvX() - shape.figureWidth / 2 };
-		int[] negInvYDiamond = { shape.getNegInvY(),
-				shape.getNegInvY() - shape.figureHeight / 2,
-				shape.getNegInvY() - shape.figureHeight,
-				shape.getNegInvY() - shape.figureHeight / 2 };
-
-		g.setColor(new Color(shape.colorR, shape.colorG, shape.colorB));
-		g.fillPolygon(xDiamond, yDiamond, 4);
-		g.fillPolygon(negXDiamond, yDiamond, 4);
-		g.fillPolygon(xDiamond, negYDiamond, 4);
-		g.fillPolygon(negXDiamond, negYDiamond, 4);
-
-		g.fillPolygon(invYDiamond, invXDiamond, 4);
-		g.fillPolygon(negInvYDiamond, negInvXDiamond, 4);
-		g.fillPolygon(invYDiamond, negInvXDiamond, 4);
-		g.fillPolygon(negInvYDiamond, invXDiamond, 4);
+	 * @see javax.swing.JComponent#getToolTipText(java.awt.event.MouseEvent)
+	 */
+	@Override
+	public String getToolTipText(MouseEvent event) {
+		return repaintRequests + " repaints, " + coalescedRepaints
+				+ " coalesced";
 	}
 
 	/**
@@ -196,38 +236,152 @@ public class View extends JPanel implements Observer {
 	 */
 	@Override
 	public void paint(Graphics g) {
-		// sets background over which shapes move
-		g.setColor(Color.black);
-		g.fillRect(0, 0, getWidth(), getHeight());
-
-		// draws shapes
-		for (Shape shape : shapeList) {
-			if (shape.shouldBeDrawn) {
-				if (shape.shapeType == "circle") {
-					drawCircle(g, shape);
-				} else if (shape.shapeType == "rectangle") {
-					drawRectangle(g, shape);
-				} else if (shape.shapeType == "triangle") {
-					drawTriangle(g, shape);
-				} else {
-					drawDiamond(g, shape);
-				}
+		FrameStats s = stats;
+		long start = System.nanoTime();
+		DirtyRegion dirty = dirtyRegion;
+		TrailBuffer t = trails;
+		List<Rectangle> damage = dirty != null && t == null ? dirty
+				.takeDamage(g.getClipBounds()) : null;
+		if (t != null) {
+			paintTrails(g, t);
+		} else if (damage == null) {
+			renderer.paint(g, getWidth(), getHeight());
+		} else {
+			for (Rectangle area : damage) {
+				Graphics part = g.create();
+				part.clipRect(area.x, area.y, area.width, area.height);
+				renderer.paint(part, getWidth(), getHeight());
+				part.dispose();
+			}
+		}
+		if (s != null) {
+			s.recordPaint(store.getFrameCount(), start, System.nanoTime()
+					- start);
+			if (hudVisible) {
+				paintHud(g, s, dirty);
 			}
 		}
 	}
 
+	/**
+	 * Fades the trails and draws the shapes over them, once per frame, and
+	 * shows the result.
+	 *
+	 * @param g
+	 *            The Graphics on which to paint things.
+	 * @param t
+	 *            The trails to draw.
+	 */
+	private void paintTrails(Graphics g, TrailBuffer t) {
+		long frame = store.getFrameCount();
+		int width = getWidth(), height = getHeight();
+		if (width <= 0 || height <= 0) {
+			return;
+		}
+		if (trailImage == null || frame != trailFrame
+				|| trailImage.getWidth() != width
+				|| trailImage.getHeight() != height) {
+			trailImage = t.paint(width, height);
+			trailFrame = frame;
+		}
+		g.drawImage(trailImage, 0, 0, null);
+	}
+
+	/**
+	 * Draws the latency figures in a translucent box in the top left corner.
+	 * 
+	 * @param g
+	 *            The Graphics on which to paint things.
+	 * @param s
+	 *            The figures to show.
+	 * @param dirty
+	 *            The damage tracking whose savings are shown too, or null.
+	 */
+	private void paintHud(Graphics g, FrameStats s, DirtyRegion dirty) {
+		String[] lines = s.summarize();
+		if (dirty != null) {
+			lines = Arrays.copyOf(lines, lines.length + 1);
+			lines[lines.length - 1] = dirty.summarize();
+		}
+		if (renderer instanceof SpriteRenderer) {
+			lines = Arrays.copyOf(lines, lines.length + 1);
+			lines[lines.length - 1] = ((SpriteRenderer) renderer).getCache()
+					.summarize();
+		}
+		hudBounds = paintHud(g, lines);
+	}
+
+	/**
+	 * Draws lines of text in a translucent box in the top left corner.
+	 *
+	 * @param g
+	 *            The Graphics on which to paint things.
+	 * @param lines
+	 *            The text to show.
+	 * @return Where the box was drawn.
+	 */
+	static Rectangle paintHud(Graphics g, String[] lines) {
+		g.setFont(HUD_FONT);
+		FontMetrics metrics = g.getFontMetrics();
+		int lineHeight = metrics.getHeight();
+		int width = 0;
+		for (String line : lines) {
+			width = Math.max(width, metrics.stringWidth(line));
+		}
+		Rectangle bounds = new Rectangle(4, 4, width + 8, lines.length
+				* lineHeight + 8);
+		g.setColor(HUD_BACKGROUND);
+		g.fillRect(bounds.x, bounds.y, bounds.width, bounds.height);
+		g.setColor(HUD_TEXT);
+		for (int i = 0; i < lines.length; i++) {
+			g.drawString(lines[i], 8, 8 + i * lineHeight + metrics.getAscent());
+		}
+		return bounds;
+	}
+
 	/**
 	 * When an Observer notifies Observers (and this View is an Observer), this
-	 * is the method that gets called.
+	 * is the method that gets called. The store calls it once per frame.
 	 * 
 	 * @param obs
 	 *            Holds a reference to the object being observed.
 	 * @param arg
-	 *            If notifyObservers is given a parameter, it is received here.
+	 *            The FrameUpdate summarizing what changed in the frame.
 	 * @see java.util.Observer#update(java.util.Observable, java.lang.Object)
 	 */
 	@Override
 	public void update(Observable obs, Object arg) {
+		if (arg instanceof FrameUpdate) {
+			coalescedRepaints += ((FrameUpdate) arg).getChangeCount() - 1;
+		}
+		repaintRequests++;
+		DirtyRegion dirty = dirtyRegion;
+		if (dirty != null && trails == null) {
+			// moves, and shapes coming and going, damage only where the
+			// shapes are; anything else may change every shape
+			boolean all = !(arg instanceof FrameUpdate)
+					|| (((FrameUpdate) arg).getFlags() & ~(FrameUpdate.MOVED
+							| FrameUpdate.VISIBILITY)) != 0;
+			Rectangle bounds = dirty.addFrame(getWidth(), getHeight(),
+					hudVisible ? hudBounds : null, all);
+			if (bounds != null) {
+				if (!bounds.isEmpty()) {
+					repaint(bounds);
+				}
+				return;
+			}
+		}
+		repaint();
+	}
+
+	/**
+	 * Repaints the whole view, including in dirty-region mode.
+	 */
+	private void repaintAll() {
+		DirtyRegion dirty = dirtyRegion;
+		if (dirty != null) {
+			dirty.markAll();
+		}
 		repaint();
 	}
 }
\ No newline at end of file
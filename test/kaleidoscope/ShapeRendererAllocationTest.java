@@ -0,0 +1,101 @@
+package kaleidoscope;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Checks that painting a frame with the ShapeRenderer allocates nothing of
+ * its own, by counting the bytes the painting thread allocates with the
+ * ThreadMXBean. Java2D allocates a few small objects inside each oval and
+ * polygon it fills, which no caller can avoid, so frames of those shapes
+ * are held to the bound documented in ShapeRenderer instead of to zero.
+ */
+public class ShapeRendererAllocationTest {
+	private static final int WIDTH = 400;
+	private static final int HEIGHT = 350;
+	private static final int SHAPES = 50;
+
+	// frames painted before counting, so that the JIT has compiled the
+	// paint path, and frames counted
+	private static final int WARM_UP_FRAMES = 2000;
+	private static final int FRAMES = 100;
+
+	@Test
+	public void rectanglesAllocateNothing() {
+		assertEquals(0, bytesPerCopy(ShapeStore.RECTANGLE), 0);
+	}
+
+	@Test
+	public void ovalsAllocateOnlyInsideJava2D() {
+		double bytes = bytesPerCopy(ShapeStore.CIRCLE);
+		assertTrue(bytes + " bytes per oval",
+				bytes <= ShapeRenderer.MAX_OVAL_BYTES);
+	}
+
+	@Test
+	public void trianglesAllocateOnlyInsideJava2D() {
+		double bytes = bytesPerCopy(ShapeStore.TRIANGLE);
+		assertTrue(bytes + " bytes per triangle",
+				bytes <= ShapeRenderer.MAX_POLYGON_BYTES);
+	}
+
+	@Test
+	public void diamondsAllocateOnlyInsideJava2D() {
+		double bytes = bytesPerCopy(ShapeStore.DIAMOND);
+		assertTrue(bytes + " bytes per diamond",
+				bytes <= ShapeRenderer.MAX_POLYGON_BYTES);
+	}
+
+	/**
+	 * Paints a moving scene of one type of shape.
+	 *
+	 * @return The bytes allocated by painting, per copy of a shape drawn.
+	 */
+	private static double bytesPerCopy(byte type) {
+		// the allocation counters are only on HotSpot's own ThreadMXBean
+		Object bean = ManagementFactory.getThreadMXBean();
+		assumeTrue(bean instanceof ThreadMXBean);
+		ThreadMXBean threads = (ThreadMXBean) bean;
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+		long thread = Thread.currentThread().getId();
+
+		ShapeStore store = new ShapeStore(SHAPES);
+		store.setLimits(WIDTH, HEIGHT);
+		for (int i = 0; i < SHAPES; i++) {
+			Shape shape = store.add(type, true);
+			shape.clear();
+			shape.setShouldBeDrawn(true);
+			shape.start();
+		}
+		ShapeRenderer renderer = new ShapeRenderer(store);
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+				BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		long bytes = 0;
+		try {
+			for (int f = 0; f < WARM_UP_FRAMES + FRAMES; f++) {
+				store.makeOneStep(1);
+				store.publishFrame();
+				long before = threads.getThreadAllocatedBytes(thread);
+				renderer.paint(g, WIDTH, HEIGHT);
+				if (f >= WARM_UP_FRAMES) {
+					bytes += threads.getThreadAllocatedBytes(thread) - before;
+				}
+			}
+		} finally {
+			g.dispose();
+		}
+		return (double) bytes / FRAMES / SHAPES
+				/ Symmetry.EIGHT_FOLD.getOrder();
+	}
+}